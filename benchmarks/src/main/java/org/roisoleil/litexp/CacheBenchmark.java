@@ -0,0 +1,89 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Creating expressions from text that the compiled expression cache holds, as
+ * a service receiving expressions from its configuration does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+
+	private static final int EXPRESSION_COUNT = 256;
+
+	private ExpressionContext context;
+
+	private String[] texts;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		int next;
+
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		context = ExpressionContext.DEFAULT.toBuilder().setCache(new ExpressionCache(EXPRESSION_COUNT)).build();
+		texts = new String[EXPRESSION_COUNT];
+		Expressions.Kind[] kinds = Expressions.Kind.values();
+		for (int i = 0; i < texts.length; i++) {
+			// Every size with every kind, so that the texts are all different.
+			texts[i] = kinds[i % kinds.length].generate(i / kinds.length + 1);
+			context.compile(texts[i]);
+		}
+	}
+
+	@Benchmark
+	public CompiledExpression compile(Cursor cursor) {
+		return new Expression(texts[cursor.next++ & (EXPRESSION_COUNT - 1)], context).compile();
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public CompiledExpression compileContended(Cursor cursor) {
+		return new Expression(texts[cursor.next++ & (EXPRESSION_COUNT - 1)], context).compile();
+	}
+
+}
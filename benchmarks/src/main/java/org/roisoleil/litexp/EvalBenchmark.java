@@ -0,0 +1,138 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluation of a compiled expression, shared by every thread of the
+ * contended benchmarks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EvalBenchmark {
+
+	@Param({ "ARITHMETIC", "BOOLEAN", "FUNCTIONS", "LAZY_IF" })
+	public Expressions.Kind kind;
+
+	@Param({ "10", "100", "500" })
+	public int size;
+
+	private Expression expression;
+
+	private CompiledExpression compiled;
+
+	private Bindings bindings;
+
+	private Object[] values;
+
+	private DoubleExpression doubleExpression;
+
+	private DoubleExpression bytecodeExpression;
+
+	private double[] doubleValues;
+
+	@Setup
+	public void setup() {
+		String text = kind.generate(size);
+		bindings = Expressions.bindings();
+		expression = new Expression(text);
+		for (int i = 0; i < Expressions.VARIABLE_COUNT; i++) {
+			expression.setVariable(Expressions.variable(i), new BigDecimal(i + 1));
+		}
+		compiled = expression.compile();
+		values = compiled.newValues();
+		for (int i = 0; i < Expressions.VARIABLE_COUNT; i++) {
+			int slot = compiled.slotOf(Expressions.variable(i));
+			if (slot >= 0) {
+				values[slot] = new BigDecimal(i + 1);
+			}
+		}
+		doubleExpression = compiled.toDoubleExpression();
+		bytecodeExpression = doubleExpression.toBytecode();
+		doubleValues = doubleExpression.newValues();
+		for (int i = 0; i < Expressions.VARIABLE_COUNT; i++) {
+			int slot = doubleExpression.slotOf(Expressions.variable(i));
+			if (slot >= 0) {
+				doubleValues[slot] = i + 1;
+			}
+		}
+	}
+
+	@Benchmark
+	public Object expression() {
+		return expression.eval().getValue();
+	}
+
+	@Benchmark
+	public Object bindings() {
+		return compiled.eval(bindings).getValue();
+	}
+
+	@Benchmark
+	public Object slots() {
+		return compiled.eval(values).getValue();
+	}
+
+	@Benchmark
+	public double doubleExpression() {
+		return doubleExpression.evalDouble(doubleValues);
+	}
+
+	@Benchmark
+	public double bytecode() {
+		return bytecodeExpression.evalDouble(doubleValues);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public Object slotsContended() {
+		return compiled.eval(values).getValue();
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public double bytecodeContended() {
+		return bytecodeExpression.evalDouble(doubleValues);
+	}
+
+}
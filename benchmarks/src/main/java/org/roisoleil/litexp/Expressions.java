@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.math.BigDecimal;
+
+/**
+ * Generated expressions of the benchmarks, reading the variables
+ * <code>x0</code> to <code>x9</code>.
+ */
+public final class Expressions {
+
+	static final int VARIABLE_COUNT = 10;
+
+	public enum Kind {
+
+		ARITHMETIC {
+			@Override
+			String term(int i) {
+				return variable(i) + " * " + (i % 7 + 1) + " + " + variable(i + 1) + " / " + (1 << i % 3);
+			}
+		},
+
+		BOOLEAN {
+			@Override
+			String term(int i) {
+				return "(" + variable(i) + " > " + (i % 5) + " && " + variable(i + 1) + " <= " + (i % 9) + " || "
+						+ variable(i + 2) + " != " + (i % 4) + ")";
+			}
+
+			@Override
+			String separator() {
+				return " && ";
+			}
+		},
+
+		FUNCTIONS {
+			@Override
+			String term(int i) {
+				return "max(" + variable(i) + ", " + variable(i + 1) + ", " + (i % 4) + ") - min(" + variable(i + 2)
+						+ ", " + (i % 6) + ")";
+			}
+		},
+
+		LAZY_IF {
+			@Override
+			String term(int i) {
+				return "if(" + variable(i) + " > " + (i % 10) + ", " + variable(i + 1) + " * 2, " + variable(i + 2)
+						+ " / 4)";
+			}
+		};
+
+		abstract String term(int i);
+
+		String separator() {
+			return " + ";
+		}
+
+		String generate(int size) {
+			StringBuilder result = new StringBuilder();
+			for (int i = 0; i < size; i++) {
+				if (i > 0) {
+					result.append(separator());
+				}
+				result.append(term(i));
+			}
+			return result.toString();
+		}
+
+	}
+
+	private Expressions() {
+	}
+
+	static String variable(int i) {
+		return "x" + i % VARIABLE_COUNT;
+	}
+
+	static Bindings bindings() {
+		Bindings bindings = new Bindings();
+		for (int i = 0; i < VARIABLE_COUNT; i++) {
+			bindings.set(variable(i), new BigDecimal(i + 1));
+		}
+		return bindings;
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.roisoleil.litexp.Expression.Token;
+import org.roisoleil.litexp.Expression.Tokenizer;
+
+/**
+ * Parsing steps, with the compiled expression cache disabled so that every
+ * operation parses the expression again.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+	@Param({ "ARITHMETIC", "BOOLEAN", "FUNCTIONS", "LAZY_IF" })
+	public Expressions.Kind kind;
+
+	@Param({ "10", "100", "500" })
+	public int size;
+
+	private ExpressionContext context;
+
+	private String text;
+
+	private List<Token> rpn;
+
+	@Setup
+	public void setup() {
+		context = ExpressionContext.DEFAULT.toBuilder().setCache(null).build();
+		text = kind.generate(size);
+		rpn = Expression.shuntingYard(text, context);
+	}
+
+	@Benchmark
+	public CompiledExpression newExpression() {
+		return new Expression(text, context).compile();
+	}
+
+	@Benchmark
+	public void tokenize(Blackhole blackhole) {
+		Tokenizer tokenizer = new Tokenizer(text, context);
+		while (tokenizer.hasNext()) {
+			blackhole.consume(tokenizer.next());
+		}
+	}
+
+	@Benchmark
+	public List<Token> shuntingYard() {
+		return Expression.shuntingYard(text, context);
+	}
+
+	@Benchmark
+	public List<Token> validate() {
+		return Expression.validate(rpn, context);
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * The arithmetic of the built-in operators and functions, bounded by the
+ * {@link MathContext} and maximum scale of the {@link ExpressionContext} they
+ * are evaluated in.
+ * <p>
+ * Values of up to 18 digits are held by {@link BigDecimal} as a
+ * <code>long</code>, and their sums and products are computed as such: results
+ * that fit the precision are returned as is, without going through rounding.
+ * Divisions of such integers that are exact are made on <code>long</code>
+ * values too.
+ */
+final class Arithmetic {
+
+	/**
+	 * The number of digits of the values that always fit in a <code>long</code>.
+	 */
+	private static final int LONG_DIGITS = 18;
+
+	private Arithmetic() {
+	}
+
+	static BigDecimal add(BigDecimal left, BigDecimal right, ExpressionContext context) {
+		return round(left.add(right), context);
+	}
+
+	static BigDecimal subtract(BigDecimal left, BigDecimal right, ExpressionContext context) {
+		return round(left.subtract(right), context);
+	}
+
+	static BigDecimal multiply(BigDecimal left, BigDecimal right, ExpressionContext context) {
+		return round(left.multiply(right), context);
+	}
+
+	static BigDecimal divide(BigDecimal dividend, BigDecimal divisor, ExpressionContext context) {
+		if (dividend.scale() == 0 && divisor.scale() == 0 && dividend.precision() <= LONG_DIGITS
+				&& divisor.precision() <= LONG_DIGITS) {
+			long left = dividend.longValue();
+			long right = divisor.longValue();
+			if (right != 0 && left % right == 0) {
+				return BigDecimal.valueOf(left / right);
+			}
+		}
+		MathContext mathContext = context.getMathContext();
+		if (mathContext.getPrecision() != 0) {
+			return round(dividend.divide(divisor, mathContext), context);
+		} else if (context.getMaximumScale() == Integer.MAX_VALUE) {
+			return dividend.divide(divisor);
+		}
+		try {
+			return round(dividend.divide(divisor), context);
+		} catch (ArithmeticException exception) {
+			// no exact result, so that it is rounded to the maximum scale
+			return dividend.divide(divisor, context.getMaximumScale(), mathContext.getRoundingMode());
+		}
+	}
+
+	static BigDecimal negate(BigDecimal operand, ExpressionContext context) {
+		return round(operand.negate(), context);
+	}
+
+	/**
+	 * Converts the result of a <code>double</code> function to the shortest
+	 * decimal that gives it back, rather than to its exact binary expansion.
+	 */
+	static BigDecimal valueOf(double value, ExpressionContext context) {
+		return round(BigDecimal.valueOf(value), context);
+	}
+
+	/**
+	 * Rounds a value to the precision and the maximum scale of a context.
+	 */
+	static BigDecimal round(BigDecimal value, ExpressionContext context) {
+		MathContext mathContext = context.getMathContext();
+		int precision = mathContext.getPrecision();
+		if (precision != 0 && value.precision() > precision) {
+			value = value.round(mathContext);
+		}
+		if (value.scale() > context.getMaximumScale()) {
+			value = value.setScale(context.getMaximumScale(), mathContext.getRoundingMode());
+		}
+		return value;
+	}
+
+}
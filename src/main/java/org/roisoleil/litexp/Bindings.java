@@ -0,0 +1,64 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-call variable values used to evaluate a {@link CompiledExpression}.
+ * Variable names are case insensitive. A {@link Bindings} instance is cheap to
+ * create and is not meant to be shared between threads.
+ */
+public class Bindings {
+
+	private final Map<String, Object> values = new HashMap<>();
+
+	public Bindings set(String variable, Object value) {
+		values.put(ExpressionContext.normalize(variable), value);
+		return this;
+	}
+
+	public Bindings with(String variable, Object value) {
+		return set(variable, value);
+	}
+
+	public boolean contains(String variable) {
+		return values.containsKey(ExpressionContext.normalize(variable));
+	}
+
+	public Object get(String variable) {
+		return values.get(ExpressionContext.normalize(variable));
+	}
+
+	Object get(String normalizedVariable, Object defaultValue) {
+		return values.getOrDefault(normalizedVariable, defaultValue);
+	}
+
+	public Bindings clear() {
+		values.clear();
+		return this;
+	}
+
+}
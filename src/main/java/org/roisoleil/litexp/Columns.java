@@ -0,0 +1,135 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Input of a batch evaluation: one array of values per variable, all of the
+ * same number of rows. A column is given either by variable name or by slot, a
+ * column given by slot taking precedence. A variable with no column is unbound.
+ * <p>
+ * Columns are <code>double[]</code> or <code>boolean[]</code> arrays, a boolean
+ * being 1 or 0, as batches are evaluated in IEEE double precision; they are
+ * read, never copied nor modified. Values needing exact decimal arithmetic or
+ * strings are evaluated one row at a time by {@link CompiledExpression}.
+ * 
+ * @see DoubleExpression#evalColumns(Columns, double[])
+ */
+public final class Columns {
+
+	private final int rowCount;
+
+	private final Map<String, Object> columnsByName = new HashMap<>();
+
+	private final Map<Integer, Object> columnsBySlot = new HashMap<>();
+
+	public Columns(int rowCount) {
+		this.rowCount = rowCount;
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public Columns with(String variable, double[] column) {
+		return withColumn(variable, column, column.length);
+	}
+
+	public Columns with(String variable, boolean[] column) {
+		return withColumn(variable, column, column.length);
+	}
+
+	public Columns with(int slot, double[] column) {
+		return withColumn(slot, column, column.length);
+	}
+
+	public Columns with(int slot, boolean[] column) {
+		return withColumn(slot, column, column.length);
+	}
+
+	private Columns withColumn(String variable, Object column, int length) {
+		checkLength(length);
+		columnsByName.put(ExpressionContext.normalize(variable), column);
+		return this;
+	}
+
+	private Columns withColumn(int slot, Object column, int length) {
+		checkLength(length);
+		columnsBySlot.put(slot, column);
+		return this;
+	}
+
+	private void checkLength(int length) {
+		if (length != rowCount) {
+			throw new IllegalArgumentException("Column of " + length + " rows in a batch of " + rowCount + " rows");
+		}
+	}
+
+	/**
+	 * Resolves the column of every slot.
+	 * 
+	 * @return The column of each slot, <code>null</code> for the slots with no
+	 *         column.
+	 */
+	Object[] resolve(List<String> slotNames) {
+		Object[] result = new Object[slotNames.size()];
+		for (int slot = 0; slot < result.length; slot++) {
+			Object column = columnsBySlot.get(slot);
+			result[slot] = column != null ? column : columnsByName.get(slotNames.get(slot));
+		}
+		return result;
+	}
+
+	void checkResults(int length) {
+		if (length < rowCount) {
+			throw new IllegalArgumentException(
+					"Result array of " + length + " elements for a batch of " + rowCount + " rows");
+		}
+	}
+
+	/**
+	 * Copies rows of a column, converted to <code>double</code>, to an array.
+	 * 
+	 * @param target
+	 *            The array to write the rows from <code>from</code> to, starting
+	 *            at 0.
+	 */
+	static void copyDoubles(Object column, int from, int length, double[] target) {
+		if (column instanceof double[]) {
+			System.arraycopy((double[]) column, from, target, 0, length);
+		} else if (column instanceof boolean[]) {
+			boolean[] booleans = (boolean[]) column;
+			for (int i = 0; i < length; i++) {
+				target[i] = booleans[from + i] ? 1 : 0;
+			}
+		} else {
+			Arrays.fill(target, 0, length, Double.NaN);
+		}
+	}
+
+}
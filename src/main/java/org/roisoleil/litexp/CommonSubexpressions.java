@@ -0,0 +1,174 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.roisoleil.litexp.Node.BinaryOperation;
+import org.roisoleil.litexp.Node.Coercion;
+import org.roisoleil.litexp.Node.Constant;
+import org.roisoleil.litexp.Node.FunctionCall;
+import org.roisoleil.litexp.Node.Literal;
+import org.roisoleil.litexp.Node.Shared;
+import org.roisoleil.litexp.Node.UnaryOperation;
+import org.roisoleil.litexp.Node.Variable;
+
+/**
+ * Common subexpression elimination. Structurally identical sub-trees, made only
+ * of pure operators and functions, are replaced by a single {@link Shared} node
+ * whose operand is created once per evaluation. The pass may be run over the
+ * trees of several expressions at once, so that they share their common terms
+ * when evaluated in the same {@link Node.Frame}.
+ */
+final class CommonSubexpressions {
+
+	/**
+	 * The structure of each sub-tree met, as its kind, its operator and the ids
+	 * of its children, mapped to its id.
+	 */
+	private final Map<List<Object>, Integer> idsByKey = new HashMap<>();
+
+	private final Map<Node, Integer> ids = new IdentityHashMap<>();
+
+	private final List<Boolean> shareable = new ArrayList<>();
+
+	private int[] counts;
+
+	private final Map<Integer, Shared> sharedById = new HashMap<>();
+
+	private CommonSubexpressions() {
+	}
+
+	/**
+	 * Replaces, in place, the given trees by trees sharing their common
+	 * subexpressions.
+	 * 
+	 * @return The number of shared nodes, each needing an operand cache entry in
+	 *         the {@link Node.Frame}.
+	 */
+	static int share(Node[] roots) {
+		CommonSubexpressions pass = new CommonSubexpressions();
+		for (Node root : roots) {
+			pass.identify(root);
+		}
+		pass.counts = new int[pass.shareable.size()];
+		for (Node root : roots) {
+			pass.count(root);
+		}
+		for (int i = 0; i < roots.length; i++) {
+			roots[i] = pass.rebuild(roots[i]);
+		}
+		return pass.sharedById.size();
+	}
+
+	private int identify(Node node) {
+		List<Object> key;
+		boolean pure = true;
+		boolean leaf = false;
+		if (node instanceof Literal) {
+			key = Arrays.asList(Literal.class, node.token.type, node.token.surface());
+			leaf = true;
+		} else if (node instanceof Constant) {
+			key = Arrays.asList(Constant.class, ((Constant) node).value);
+			leaf = true;
+		} else if (node instanceof Variable) {
+			key = Arrays.asList(Variable.class, ((Variable) node).slot);
+			leaf = true;
+		} else if (node instanceof Coercion) {
+			Coercion coercion = (Coercion) node;
+			key = Arrays.asList(Coercion.class, coercion.valueClass, identify(coercion.operand));
+		} else if (node instanceof UnaryOperation) {
+			UnaryOperation unaryOperation = (UnaryOperation) node;
+			key = Arrays.asList(UnaryOperation.class, unaryOperation.unaryOperator, identify(unaryOperation.operand));
+			pure = unaryOperation.unaryOperator.isPure();
+		} else if (node instanceof BinaryOperation) {
+			BinaryOperation binaryOperation = (BinaryOperation) node;
+			key = Arrays.asList(BinaryOperation.class, binaryOperation.operator, identify(binaryOperation.left),
+					identify(binaryOperation.right));
+			pure = binaryOperation.operator.isPure();
+		} else if (node instanceof FunctionCall) {
+			FunctionCall functionCall = (FunctionCall) node;
+			key = new ArrayList<>();
+			key.add(FunctionCall.class);
+			key.add(functionCall.function);
+			for (Node argument : functionCall.arguments) {
+				key.add(identify(argument));
+			}
+			pure = functionCall.function.isPure();
+		} else {
+			key = Arrays.asList(node);
+			pure = false;
+		}
+		if (!pure) {
+			// an impure node is never equal to another one
+			key = Arrays.asList(node);
+		}
+		Integer id = idsByKey.get(key);
+		if (id == null) {
+			id = shareable.size();
+			idsByKey.put(key, id);
+			// leaves are cheaper to evaluate than to share
+			shareable.add(!leaf);
+		}
+		ids.put(node, id);
+		return id;
+	}
+
+	private void count(Node node) {
+		if (++counts[ids.get(node)] > 1) {
+			// the children of a repeated sub-tree are shared along with it
+			return;
+		}
+		for (Node child : node.children()) {
+			count(child);
+		}
+	}
+
+	private Node rebuild(Node node) {
+		int id = ids.get(node);
+		if (shareable.get(id) && counts[id] > 1) {
+			Shared shared = sharedById.get(id);
+			if (shared == null) {
+				shared = new Shared(node.token, sharedById.size(), rebuildChildren(node));
+				sharedById.put(id, shared);
+			}
+			return shared;
+		}
+		return rebuildChildren(node);
+	}
+
+	private Node rebuildChildren(Node node) {
+		Node[] children = node.children();
+		for (int i = 0; i < children.length; i++) {
+			children[i] = rebuild(children[i]);
+		}
+		return node.withChildren(children);
+	}
+
+}
@@ -0,0 +1,273 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.roisoleil.litexp.Expression.Operand;
+import org.roisoleil.litexp.Expression.Token;
+
+/**
+ * Immutable, parsed and validated form of an {@link Expression}. A compiled
+ * expression holds no variable values: they are given on each call through
+ * {@link Bindings}, so that one instance can be evaluated by any number of
+ * threads at once.
+ */
+public final class CompiledExpression {
+
+	private static final Bindings NO_BINDINGS = new Bindings();
+
+	private final String expression;
+
+	private final ExpressionContext context;
+
+	private final List<Token> rpn;
+
+	private final Node root;
+
+	private final String[] slotNames;
+
+	private final int sharedCount;
+
+	private volatile DoubleExpression doubleExpression;
+
+	CompiledExpression(String expression, List<Token> rpn, ExpressionContext context) {
+		this(expression, rpn, context, Collections.emptySet());
+	}
+
+	/**
+	 * Compiles an expression in which the given constants of the context are
+	 * read from slots, so that a binding of the same name gives their value.
+	 */
+	CompiledExpression(String expression, List<Token> rpn, ExpressionContext context, Set<String> boundConstants) {
+		this.expression = expression;
+		this.context = context;
+		this.rpn = Collections.unmodifiableList(new ArrayList<>(rpn));
+		Map<String, Integer> slotsByName = new LinkedHashMap<>();
+		Node[] roots = { Optimizer.optimize(Node.build(rpn, context, slotsByName, boundConstants), context) };
+		this.sharedCount = CommonSubexpressions.share(roots);
+		this.root = roots[0];
+		this.slotNames = slotsByName.keySet().toArray(new String[slotsByName.size()]);
+	}
+
+	/**
+	 * Creates the expression of an already built tree, as read by
+	 * {@link ExpressionCodec}.
+	 */
+	CompiledExpression(String expression, List<Token> rpn, Node root, String[] slotNames, int sharedCount,
+			ExpressionContext context) {
+		this.expression = expression;
+		this.context = context;
+		this.rpn = Collections.unmodifiableList(new ArrayList<>(rpn));
+		this.root = root;
+		this.slotNames = slotNames;
+		this.sharedCount = sharedCount;
+	}
+
+	public ExpressionContext getContext() {
+		return context;
+	}
+
+	/**
+	 * Gives the primitive <code>double</code> form of this expression, compiled
+	 * on first use.
+	 * 
+	 * @return The double expression reading the same slots as this expression.
+	 */
+	public DoubleExpression toDoubleExpression() {
+		DoubleExpression result = doubleExpression;
+		if (result == null) {
+			result = new DoubleExpression(this);
+			doubleExpression = result;
+		}
+		return result;
+	}
+
+	public String getExpression() {
+		return expression;
+	}
+
+	List<Token> getRPN() {
+		return rpn;
+	}
+
+	Node getRoot() {
+		return root;
+	}
+
+	int getSharedCount() {
+		return sharedCount;
+	}
+
+	/**
+	 * Resolves a variable name to the slot its value is read from by
+	 * {@link #eval(Object[])}. Slots are resolved once so that the values of each
+	 * call can be filled without any name lookup.
+	 * 
+	 * @param variable
+	 *            The case insensitive variable name.
+	 * 
+	 * @return The slot of the variable, or -1 if the expression does not read it.
+	 */
+	public int slotOf(String variable) {
+		String name = ExpressionContext.normalize(variable);
+		for (int slot = 0; slot < slotNames.length; slot++) {
+			if (slotNames[slot].equals(name)) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	public int getSlotCount() {
+		return slotNames.length;
+	}
+
+	public List<String> getVariableNames() {
+		return Collections.unmodifiableList(Arrays.asList(slotNames));
+	}
+
+	/**
+	 * Creates a new array of slot values, in which every slot is unbound. Reading
+	 * an unbound slot fails with an unknown variable error.
+	 * 
+	 * @return A new array of {@link #getSlotCount()} values.
+	 */
+	public Object[] newValues() {
+		Object[] values = new Object[slotNames.length];
+		Arrays.fill(values, Node.UNBOUND);
+		return values;
+	}
+
+	/**
+	 * Evaluates the expression with no other variable than the constants.
+	 * 
+	 * @return The result of the expression.
+	 */
+	public Operand eval() {
+		return eval(NO_BINDINGS);
+	}
+
+	/**
+	 * Evaluates the expression. Variables are looked up in the given bindings;
+	 * the constants of the context are bound at compile time and cannot be
+	 * overridden by a binding.
+	 * 
+	 * @param bindings
+	 *            The variable values of this call.
+	 * 
+	 * @return The result of the expression.
+	 */
+	public Operand eval(Bindings bindings) {
+		return eval(valuesOf(bindings));
+	}
+
+	Object[] valuesOf(Bindings bindings) {
+		Object[] values = new Object[slotNames.length];
+		for (int slot = 0; slot < values.length; slot++) {
+			values[slot] = bindings.get(slotNames[slot], Node.UNBOUND);
+		}
+		return values;
+	}
+
+	/**
+	 * Evaluates the expression against slot values, as given by
+	 * {@link #slotOf(String)}.
+	 * 
+	 * @param values
+	 *            The value of each slot, usually created by {@link #newValues()}.
+	 * 
+	 * @return The result of the expression.
+	 */
+	public Operand eval(Object[] values) {
+		return root.eval(newFrame(values));
+	}
+
+	Node.Frame newFrame(Object[] values) {
+		return new Node.Frame(context, values, sharedCount);
+	}
+
+	/**
+	 * Creates a reusable state for the evaluations of this expression, to be
+	 * used by one thread at a time. Kept by the caller for as long as the
+	 * expression is evaluated, <code>scratch.eval(values, BigDecimal.class)</code>
+	 * evaluates the expression without allocating any per call state.
+	 * 
+	 * @return A new scratch.
+	 */
+	public EvaluationScratch newScratch() {
+		return new EvaluationScratch(this);
+	}
+
+	public <T> T eval(Class<T> resultClass) {
+		return eval().getValue(resultClass);
+	}
+
+	public <T> T eval(Bindings bindings, Class<T> resultClass) {
+		return eval(bindings).getValue(resultClass);
+	}
+
+	public <T> T eval(Object[] values, Class<T> resultClass) {
+		return eval(values).getValue(resultClass);
+	}
+
+	/**
+	 * Creates a profile of this expression, recording the evaluations made
+	 * through it node by node.
+	 * 
+	 * @return A new profile, with no evaluation recorded.
+	 */
+	public ExpressionProfile profile() {
+		return new ExpressionProfile(this);
+	}
+
+	/**
+	 * Get a string representation of the RPN (Reverse Polish Notation) for this
+	 * expression.
+	 * 
+	 * @return A string with the RPN representation for this expression.
+	 */
+	public String toRPN() {
+		StringBuilder result = new StringBuilder();
+		for (Token t : rpn) {
+			if (result.length() != 0) {
+				result.append(" ");
+			}
+			result.append(t.toString());
+		}
+		return result.toString();
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+
+}
@@ -0,0 +1,647 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import org.roisoleil.litexp.DoubleExpression.AndNode;
+import org.roisoleil.litexp.DoubleExpression.BinaryNode;
+import org.roisoleil.litexp.DoubleExpression.ConstantNode;
+import org.roisoleil.litexp.DoubleExpression.DoubleEvaluator;
+import org.roisoleil.litexp.DoubleExpression.DoubleFunction;
+import org.roisoleil.litexp.DoubleExpression.DoubleNode;
+import org.roisoleil.litexp.DoubleExpression.FunctionNode;
+import org.roisoleil.litexp.DoubleExpression.IfNode;
+import org.roisoleil.litexp.DoubleExpression.OrNode;
+import org.roisoleil.litexp.DoubleExpression.UnaryNode;
+import org.roisoleil.litexp.DoubleExpression.VariableNode;
+import org.roisoleil.litexp.Expression.LitExpException;
+
+/**
+ * Turns a tree of {@link DoubleNode} into a generated class implementing
+ * {@link DoubleEvaluator}.
+ * <p>
+ * The class file is written by hand with the Java 5 format, which needs no
+ * stack map frames, and defined by its own class loader so that it can be
+ * garbage collected along with the expression. It only refers to public types
+ * so that it can live in a package of its own. Objects the generated code
+ * calls (primitive implementations of custom operators and functions, and
+ * sub-trees that cannot be compiled) are given to its constructor in an
+ * array.
+ */
+final class DoubleBytecodeCompiler {
+
+	private static final String PACKAGE = "org/roisoleil/litexp/generated/";
+
+	private static final AtomicLong COUNTER = new AtomicLong();
+
+	private static final int MAX_CODE_LENGTH = 65535;
+
+	private static final String OBJECT = "java/lang/Object";
+	private static final String EVALUATOR = internalName(DoubleEvaluator.class);
+	private static final String BINARY_OPERATOR = internalName(DoubleBinaryOperator.class);
+	private static final String UNARY_OPERATOR = internalName(DoubleUnaryOperator.class);
+	private static final String FUNCTION = internalName(DoubleFunction.class);
+
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_PRIVATE = 0x0002;
+	private static final int ACC_FINAL = 0x0010;
+	private static final int ACC_SUPER = 0x0020;
+
+	private static final int ICONST_0 = 0x03;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int LDC2_W = 0x14;
+	private static final int DCONST_0 = 0x0e;
+	private static final int DCONST_1 = 0x0f;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int DALOAD = 0x31;
+	private static final int AALOAD = 0x32;
+	private static final int DASTORE = 0x52;
+	private static final int DUP = 0x59;
+	private static final int DADD = 0x63;
+	private static final int DSUB = 0x67;
+	private static final int DMUL = 0x6b;
+	private static final int DDIV = 0x6f;
+	private static final int DNEG = 0x77;
+	private static final int DCMPL = 0x97;
+	private static final int DCMPG = 0x98;
+	private static final int IFEQ = 0x99;
+	private static final int IFNE = 0x9a;
+	private static final int IFLT = 0x9b;
+	private static final int IFGE = 0x9c;
+	private static final int IFGT = 0x9d;
+	private static final int IFLE = 0x9e;
+	private static final int GOTO = 0xa7;
+	private static final int DRETURN = 0xaf;
+	private static final int RETURN = 0xb1;
+	private static final int GETFIELD = 0xb4;
+	private static final int PUTFIELD = 0xb5;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+	private static final int INVOKEINTERFACE = 0xb9;
+	private static final int NEWARRAY = 0xbc;
+	private static final int CHECKCAST = 0xc0;
+
+	private static final int T_DOUBLE = 7;
+
+	/**
+	 * The depth of the deepest tree compiled, the code being emitted by walking
+	 * the tree recursively.
+	 */
+	private static final int MAXIMUM_DEPTH = 1024;
+
+	private DoubleBytecodeCompiler() {
+	}
+
+	/**
+	 * @return The generated evaluator, or <code>null</code> if the tree is too
+	 *         large to be compiled in a single method, or too deep to be walked
+	 *         without risking a stack overflow.
+	 */
+	static DoubleEvaluator compile(DoubleNode root) {
+		String className = PACKAGE + "DoubleEvaluator$" + COUNTER.incrementAndGet();
+		ClassWriter writer = new ClassWriter(className);
+		try {
+			writer.evalDouble.emit(root);
+			writer.evalDouble.op(DRETURN, -2);
+		} catch (CodeTooLargeException exception) {
+			return null;
+		}
+		byte[] bytes = writer.toByteArray();
+		GeneratedClassLoader classLoader = new GeneratedClassLoader(DoubleBytecodeCompiler.class.getClassLoader());
+		Class<?> generatedClass = classLoader.define(className.replace('/', '.'), bytes);
+		try {
+			return (DoubleEvaluator) generatedClass.getConstructor(Object[].class)
+					.newInstance((Object) writer.evalDouble.references.toArray());
+		} catch (InstantiationException | IllegalAccessException | NoSuchMethodException
+				| InvocationTargetException exception) {
+			throw new LitExpException("Unable to instantiate generated class " + className + ": " + exception);
+		}
+	}
+
+	private static String internalName(Class<?> clazz) {
+		return clazz.getName().replace('.', '/');
+	}
+
+	private static final class GeneratedClassLoader extends ClassLoader {
+
+		GeneratedClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+
+	}
+
+	private static final class CodeTooLargeException extends RuntimeException {
+
+		private static final long serialVersionUID = -2216581405925376454L;
+
+	}
+
+	private static final class ConstantPool {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final Map<String, Integer> indexes = new HashMap<>();
+		private int count = 1;
+
+		private int add(String key, int size, Writer writer) {
+			Integer index = indexes.get(key);
+			if (index == null) {
+				try {
+					writer.write(out);
+				} catch (IOException exception) {
+					throw new IllegalStateException(exception);
+				}
+				index = count;
+				count += size;
+				indexes.put(key, index);
+			}
+			return index;
+		}
+
+		int utf8(String value) {
+			return add("U" + value, 1, out -> {
+				out.writeByte(1);
+				out.writeUTF(value);
+			});
+		}
+
+		int integer(int value) {
+			return add("I" + value, 1, out -> {
+				out.writeByte(3);
+				out.writeInt(value);
+			});
+		}
+
+		int doubleValue(double value) {
+			return add("D" + Double.doubleToRawLongBits(value), 2, out -> {
+				out.writeByte(6);
+				out.writeDouble(value);
+			});
+		}
+
+		int classRef(String internalName) {
+			int name = utf8(internalName);
+			return add("C" + internalName, 1, out -> {
+				out.writeByte(7);
+				out.writeShort(name);
+			});
+		}
+
+		private int nameAndType(String name, String descriptor) {
+			int nameIndex = utf8(name);
+			int descriptorIndex = utf8(descriptor);
+			return add("N" + name + ":" + descriptor, 1, out -> {
+				out.writeByte(12);
+				out.writeShort(nameIndex);
+				out.writeShort(descriptorIndex);
+			});
+		}
+
+		private int memberRef(int tag, String owner, String name, String descriptor) {
+			int classIndex = classRef(owner);
+			int nameAndTypeIndex = nameAndType(name, descriptor);
+			return add(tag + owner + "." + name + ":" + descriptor, 1, out -> {
+				out.writeByte(tag);
+				out.writeShort(classIndex);
+				out.writeShort(nameAndTypeIndex);
+			});
+		}
+
+		int fieldRef(String owner, String name, String descriptor) {
+			return memberRef(9, owner, name, descriptor);
+		}
+
+		int methodRef(String owner, String name, String descriptor) {
+			return memberRef(10, owner, name, descriptor);
+		}
+
+		int interfaceMethodRef(String owner, String name, String descriptor) {
+			return memberRef(11, owner, name, descriptor);
+		}
+
+		private interface Writer {
+
+			void write(DataOutputStream out) throws IOException;
+
+		}
+
+	}
+
+	private static final class Code {
+
+		private final ConstantPool constantPool;
+		private final String className;
+		private final List<Object> references = new ArrayList<>();
+		private byte[] code = new byte[256];
+		private int length;
+		private int stack;
+		private int depth;
+		private int maxStack;
+
+		Code(ConstantPool constantPool, String className) {
+			this.constantPool = constantPool;
+			this.className = className;
+		}
+
+		private void stack(int delta) {
+			stack += delta;
+			maxStack = Math.max(maxStack, stack);
+		}
+
+		private int position() {
+			return length;
+		}
+
+		private void op(int opcode, int delta) {
+			u1(opcode);
+			stack(delta);
+		}
+
+		/**
+		 * Writes a byte of code, the opcodes and their operands alike, so that no
+		 * instruction ends past the largest length of the code of a method.
+		 */
+		private void u1(int value) {
+			if (length == MAX_CODE_LENGTH) {
+				throw new CodeTooLargeException();
+			}
+			if (length == code.length) {
+				code = Arrays.copyOf(code, length * 2);
+			}
+			code[length++] = (byte) value;
+		}
+
+		private void u2(int value) {
+			u1(value >>> 8);
+			u1(value);
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(code, length);
+		}
+
+		private int jump(int opcode, int delta) {
+			int position = position();
+			op(opcode, delta);
+			u2(0);
+			return position;
+		}
+
+		private void patch(int jumpPosition) {
+			int offset = position() - jumpPosition;
+			if (offset > Short.MAX_VALUE) {
+				throw new CodeTooLargeException();
+			}
+			code[jumpPosition + 1] = (byte) (offset >>> 8);
+			code[jumpPosition + 2] = (byte) offset;
+		}
+
+		private void pushInt(int value) {
+			if (value >= 0 && value <= 5) {
+				op(ICONST_0 + value, 1);
+			} else if (value <= Byte.MAX_VALUE) {
+				op(BIPUSH, 1);
+				u1(value);
+			} else if (value <= Short.MAX_VALUE) {
+				op(SIPUSH, 1);
+				u2(value);
+			} else {
+				op(LDC_W, 1);
+				u2(constantPool.integer(value));
+			}
+		}
+
+		private void pushDouble(double value) {
+			if (Double.doubleToRawLongBits(value) == 0L) {
+				op(DCONST_0, 2);
+			} else if (value == 1) {
+				op(DCONST_1, 2);
+			} else {
+				op(LDC2_W, 2);
+				u2(constantPool.doubleValue(value));
+			}
+		}
+
+		private void pushReference(Object reference, String type) {
+			int index = references.indexOf(reference);
+			if (index < 0) {
+				index = references.size();
+				references.add(reference);
+			}
+			op(ALOAD_0, 1);
+			op(GETFIELD, 0);
+			u2(constantPool.fieldRef(className, "references", "[Ljava/lang/Object;"));
+			pushInt(index);
+			op(AALOAD, -1);
+			op(CHECKCAST, 0);
+			u2(constantPool.classRef(type));
+		}
+
+		private void invokeInterface(String owner, String name, String descriptor, int argumentSlots,
+				int delta) {
+			op(INVOKEINTERFACE, delta);
+			u2(constantPool.interfaceMethodRef(owner, name, descriptor));
+			u1(argumentSlots + 1);
+			u1(0);
+		}
+
+		private void invokeStatic(String owner, String name, String descriptor, int delta) {
+			op(INVOKESTATIC, delta);
+			u2(constantPool.methodRef(owner, name, descriptor));
+		}
+
+		/**
+		 * Emits the code of the given node, which leaves one double on the stack.
+		 */
+		void emit(DoubleNode node) {
+			if (++depth > MAXIMUM_DEPTH) {
+				throw new CodeTooLargeException();
+			}
+			int base = stack;
+			if (node instanceof ConstantNode) {
+				pushDouble(((ConstantNode) node).value);
+			} else if (node instanceof VariableNode) {
+				op(ALOAD_1, 1);
+				pushInt(((VariableNode) node).slot);
+				op(DALOAD, 0);
+			} else if (node instanceof UnaryNode) {
+				emitUnary((UnaryNode) node);
+			} else if (node instanceof BinaryNode) {
+				emitBinary((BinaryNode) node);
+			} else if (node instanceof AndNode) {
+				AndNode and = (AndNode) node;
+				emitTest(and.left);
+				int leftFalse = jump(IFEQ, -1);
+				emitTest(and.right);
+				int rightFalse = jump(IFEQ, -1);
+				emitBoolean(base, leftFalse, rightFalse);
+			} else if (node instanceof OrNode) {
+				OrNode or = (OrNode) node;
+				emitTest(or.left);
+				int leftTrue = jump(IFNE, -1);
+				emitTest(or.right);
+				int rightFalse = jump(IFEQ, -1);
+				patch(leftTrue);
+				op(DCONST_1, 2);
+				int end = jump(GOTO, 0);
+				patch(rightFalse);
+				stack = base;
+				op(DCONST_0, 2);
+				patch(end);
+			} else if (node instanceof IfNode) {
+				IfNode ifNode = (IfNode) node;
+				emitTest(ifNode.condition);
+				int whenFalse = jump(IFEQ, -1);
+				emit(ifNode.whenTrue);
+				int end = jump(GOTO, 0);
+				patch(whenFalse);
+				stack = base;
+				emit(ifNode.whenFalse);
+				patch(end);
+			} else if (node instanceof FunctionNode) {
+				emitFunction((FunctionNode) node);
+			} else {
+				pushReference(node, EVALUATOR);
+				op(ALOAD_1, 1);
+				invokeInterface(EVALUATOR, "evalDouble", "([D)D", 1, 0);
+			}
+			stack = base + 2;
+			depth--;
+		}
+
+		/**
+		 * Emits the given node and compares it to zero, leaving an int on the stack.
+		 */
+		private void emitTest(DoubleNode node) {
+			emit(node);
+			op(DCONST_0, 2);
+			op(DCMPL, -3);
+		}
+
+		/**
+		 * Emits <code>1</code>, then <code>0</code> as the target of the given
+		 * jumps.
+		 */
+		private void emitBoolean(int base, int... whenFalse) {
+			op(DCONST_1, 2);
+			int end = jump(GOTO, 0);
+			for (int jump : whenFalse) {
+				patch(jump);
+			}
+			stack = base;
+			op(DCONST_0, 2);
+			patch(end);
+		}
+
+		private void emitUnary(UnaryNode node) {
+			if (node.kernel == DoubleExpression.NEGATE) {
+				emit(node.operand);
+				op(DNEG, 0);
+			} else if (node.kernel == DoubleExpression.PLUS) {
+				emit(node.operand);
+			} else {
+				pushReference(node.kernel, UNARY_OPERATOR);
+				emit(node.operand);
+				invokeInterface(UNARY_OPERATOR, "applyAsDouble", "(D)D", 2, -1);
+			}
+		}
+
+		private void emitBinary(BinaryNode node) {
+			int base = stack;
+			DoubleBinaryOperator kernel = node.kernel;
+			if (kernel == DoubleExpression.ADD || kernel == DoubleExpression.SUBTRACT
+					|| kernel == DoubleExpression.MULTIPLY || kernel == DoubleExpression.DIVIDE) {
+				emit(node.left);
+				emit(node.right);
+				op(kernel == DoubleExpression.ADD ? DADD
+						: kernel == DoubleExpression.SUBTRACT ? DSUB
+								: kernel == DoubleExpression.MULTIPLY ? DMUL : DDIV,
+						-2);
+			} else if (kernel == DoubleExpression.LESS || kernel == DoubleExpression.LESS_OR_EQUAL
+					|| kernel == DoubleExpression.GREATER || kernel == DoubleExpression.GREATER_OR_EQUAL
+					|| kernel == DoubleExpression.EQUAL || kernel == DoubleExpression.NOT_EQUAL) {
+				emit(node.left);
+				emit(node.right);
+				int compare;
+				int whenFalse;
+				if (kernel == DoubleExpression.LESS) {
+					compare = DCMPG;
+					whenFalse = IFGE;
+				} else if (kernel == DoubleExpression.LESS_OR_EQUAL) {
+					compare = DCMPG;
+					whenFalse = IFGT;
+				} else if (kernel == DoubleExpression.GREATER) {
+					compare = DCMPL;
+					whenFalse = IFLE;
+				} else if (kernel == DoubleExpression.GREATER_OR_EQUAL) {
+					compare = DCMPL;
+					whenFalse = IFLT;
+				} else if (kernel == DoubleExpression.EQUAL) {
+					compare = DCMPL;
+					whenFalse = IFNE;
+				} else {
+					compare = DCMPL;
+					whenFalse = IFEQ;
+				}
+				op(compare, -3);
+				emitBoolean(base, jump(whenFalse, -1));
+			} else {
+				pushReference(kernel, BINARY_OPERATOR);
+				emit(node.left);
+				emit(node.right);
+				invokeInterface(BINARY_OPERATOR, "applyAsDouble", "(DD)D", 4, -3);
+			}
+		}
+
+		private void emitFunction(FunctionNode node) {
+			DoubleNode[] arguments = node.arguments;
+			DoubleFunction kernel = node.kernel;
+			if ((kernel == DoubleExpression.MAX || kernel == DoubleExpression.MIN) && arguments.length > 0) {
+				String name = kernel == DoubleExpression.MAX ? "max" : "min";
+				emit(arguments[0]);
+				for (int i = 1; i < arguments.length; i++) {
+					emit(arguments[i]);
+					invokeStatic("java/lang/Math", name, "(DD)D", -2);
+				}
+			} else if (kernel == DoubleExpression.SIN && arguments.length == 1) {
+				emit(arguments[0]);
+				invokeStatic("java/lang/Math", "sin", "(D)D", 0);
+			} else if (kernel == DoubleExpression.NOT && arguments.length == 1) {
+				int base = stack;
+				emitTest(arguments[0]);
+				emitBoolean(base, jump(IFNE, -1));
+			} else {
+				pushReference(kernel, FUNCTION);
+				pushInt(arguments.length);
+				op(NEWARRAY, 0);
+				u1(T_DOUBLE);
+				for (int i = 0; i < arguments.length; i++) {
+					op(DUP, 1);
+					pushInt(i);
+					emit(arguments[i]);
+					op(DASTORE, -4);
+				}
+				invokeInterface(FUNCTION, "eval", "([D)D", 1, 0);
+			}
+		}
+
+	}
+
+	private static final class ClassWriter {
+
+		private final ConstantPool constantPool = new ConstantPool();
+		private final String className;
+		private final Code evalDouble;
+
+		ClassWriter(String className) {
+			this.className = className;
+			this.evalDouble = new Code(constantPool, className);
+		}
+
+		byte[] toByteArray() {
+			try {
+				int thisClass = constantPool.classRef(className);
+				int superClass = constantPool.classRef(OBJECT);
+				int evaluator = constantPool.classRef(EVALUATOR);
+				int field = constantPool.utf8("references");
+				int fieldType = constantPool.utf8("[Ljava/lang/Object;");
+				int fieldRef = constantPool.fieldRef(className, "references", "[Ljava/lang/Object;");
+				int objectConstructor = constantPool.methodRef(OBJECT, "<init>", "()V");
+				int constructor = constantPool.utf8("<init>");
+				int constructorType = constantPool.utf8("([Ljava/lang/Object;)V");
+				int method = constantPool.utf8("evalDouble");
+				int methodType = constantPool.utf8("([D)D");
+				int codeAttribute = constantPool.utf8("Code");
+
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(bytes);
+				out.writeInt(0xCAFEBABE);
+				out.writeShort(0);
+				out.writeShort(49);
+				out.writeShort(constantPool.count);
+				constantPool.bytes.writeTo(out);
+				out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+				out.writeShort(thisClass);
+				out.writeShort(superClass);
+				out.writeShort(1);
+				out.writeShort(evaluator);
+				// fields
+				out.writeShort(1);
+				out.writeShort(ACC_PRIVATE | ACC_FINAL);
+				out.writeShort(field);
+				out.writeShort(fieldType);
+				out.writeShort(0);
+				// methods
+				out.writeShort(2);
+				byte[] constructorCode = { (byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectConstructor >>> 8),
+						(byte) objectConstructor, (byte) ALOAD_0, (byte) ALOAD_1, (byte) PUTFIELD,
+						(byte) (fieldRef >>> 8), (byte) fieldRef, (byte) RETURN };
+				writeMethod(out, constructor, constructorType, codeAttribute, 2, 2, constructorCode);
+				writeMethod(out, method, methodType, codeAttribute, evalDouble.maxStack, 2, evalDouble.toByteArray());
+				// attributes
+				out.writeShort(0);
+				return bytes.toByteArray();
+			} catch (IOException exception) {
+				throw new IllegalStateException(exception);
+			}
+		}
+
+		private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeAttribute,
+				int maxStack, int maxLocals, byte[] code) throws IOException {
+			out.writeShort(ACC_PUBLIC);
+			out.writeShort(name);
+			out.writeShort(descriptor);
+			out.writeShort(1);
+			out.writeShort(codeAttribute);
+			out.writeInt(12 + code.length);
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(code.length);
+			out.write(code);
+			out.writeShort(0);
+			out.writeShort(0);
+		}
+
+	}
+
+}
@@ -0,0 +1,903 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleSupplier;
+import java.util.function.DoubleUnaryOperator;
+
+import org.roisoleil.litexp.Expression.AbstractLazyOperand;
+import org.roisoleil.litexp.Expression.Function;
+import org.roisoleil.litexp.Expression.LitExpException;
+import org.roisoleil.litexp.Expression.Operand;
+import org.roisoleil.litexp.Expression.Operator;
+import org.roisoleil.litexp.Expression.UnaryOperator;
+import org.roisoleil.litexp.Expression.Utils;
+
+/**
+ * Primitive <code>double</code> form of a {@link CompiledExpression}, for
+ * callers to whom IEEE double precision is enough. Operators and functions
+ * that registered a primitive implementation in the {@link ExpressionContext}
+ * run without any {@link Operand} nor boxing; the others are called through
+ * their regular implementation with {@link BigDecimal} operands.
+ * <p>
+ * Booleans are represented as <code>1</code> and <code>0</code>, any value
+ * other than <code>0</code> being true. Unlike the {@link BigDecimal}
+ * evaluation, a division by zero does not fail but gives an infinity or NaN.
+ * <p>
+ * Variables are read from the same slots as the compiled expression, see
+ * {@link CompiledExpression#slotOf(String)}.
+ */
+public final class DoubleExpression {
+
+	public interface DoubleFunction {
+
+		double eval(double[] arguments);
+
+	}
+
+	/**
+	 * Evaluates an expression, or a part of it, against slot values.
+	 */
+	public interface DoubleEvaluator {
+
+		double evalDouble(double[] vars);
+
+	}
+
+	public static final DoubleBinaryOperator ADD = (left, right) -> left + right;
+
+	public static final DoubleBinaryOperator SUBTRACT = (left, right) -> left - right;
+
+	public static final DoubleBinaryOperator MULTIPLY = (left, right) -> left * right;
+
+	public static final DoubleBinaryOperator DIVIDE = (left, right) -> left / right;
+
+	public static final DoubleBinaryOperator EQUAL = (left, right) -> left == right ? 1 : 0;
+
+	public static final DoubleBinaryOperator NOT_EQUAL = (left, right) -> left != right ? 1 : 0;
+
+	public static final DoubleBinaryOperator AND = (left, right) -> left != 0 && right != 0 ? 1 : 0;
+
+	public static final DoubleBinaryOperator OR = (left, right) -> left != 0 || right != 0 ? 1 : 0;
+
+	public static final DoubleBinaryOperator LESS = (left, right) -> left < right ? 1 : 0;
+
+	public static final DoubleBinaryOperator GREATER = (left, right) -> left > right ? 1 : 0;
+
+	public static final DoubleBinaryOperator LESS_OR_EQUAL = (left, right) -> left <= right ? 1 : 0;
+
+	public static final DoubleBinaryOperator GREATER_OR_EQUAL = (left, right) -> left >= right ? 1 : 0;
+
+	public static final DoubleUnaryOperator NEGATE = operand -> -operand;
+
+	public static final DoubleUnaryOperator PLUS = operand -> operand;
+
+	public static final DoubleFunction IF = arguments -> arguments[0] != 0 ? arguments[1] : arguments[2];
+
+	public static final DoubleFunction NOT = arguments -> arguments[0] == 0 ? 1 : 0;
+
+	public static final DoubleFunction MAX = arguments -> {
+		if (arguments.length == 0) {
+			throw new LitExpException("no operand specified for function \"max\"");
+		}
+		double max = arguments[0];
+		for (int i = 1; i < arguments.length; i++) {
+			max = Math.max(max, arguments[i]);
+		}
+		return max;
+	};
+
+	public static final DoubleFunction MIN = arguments -> {
+		if (arguments.length == 0) {
+			throw new LitExpException("no operand specified for function \"min\"");
+		}
+		double min = arguments[0];
+		for (int i = 1; i < arguments.length; i++) {
+			min = Math.min(min, arguments[i]);
+		}
+		return min;
+	};
+
+	public static final DoubleFunction SIN = arguments -> Math.sin(arguments[0]);
+
+	private final CompiledExpression compiledExpression;
+
+	private final DoubleNode root;
+
+	private final DoubleEvaluator evaluator;
+
+	private final double[] slotDefaults;
+
+	private volatile DoubleExpression bytecodeExpression;
+
+	/**
+	 * The number of rows evaluated at once by {@link #evalColumns(Columns, double[])}.
+	 */
+	static final int CHUNK_SIZE = 1024;
+
+	DoubleExpression(CompiledExpression compiledExpression) {
+		this.compiledExpression = compiledExpression;
+		this.root = compile(compiledExpression);
+		this.evaluator = root;
+		this.slotDefaults = new double[compiledExpression.getSlotCount()];
+		Arrays.fill(slotDefaults, Double.NaN);
+	}
+
+	private DoubleExpression(DoubleExpression interpreted, DoubleEvaluator evaluator) {
+		this.compiledExpression = interpreted.compiledExpression;
+		this.root = interpreted.root;
+		this.evaluator = evaluator;
+		this.slotDefaults = interpreted.slotDefaults;
+		this.bytecodeExpression = this;
+	}
+
+	public CompiledExpression getCompiledExpression() {
+		return compiledExpression;
+	}
+
+	public int slotOf(String variable) {
+		return compiledExpression.slotOf(variable);
+	}
+
+	/**
+	 * Creates a new array of slot values, in which every slot is NaN.
+	 * 
+	 * @return A new array of {@link CompiledExpression#getSlotCount()} values.
+	 */
+	public double[] newValues() {
+		return slotDefaults.clone();
+	}
+
+	/**
+	 * Gives a form of this expression compiled to a generated JVM class, so that
+	 * the JIT compiler can inline the whole formula. Built-in operators and
+	 * functions are turned into inline code, other primitive implementations into
+	 * interface calls, and parts that have no primitive implementation are still
+	 * evaluated by the interpreted tree. The class is generated on first use; if
+	 * the expression is too large for a single method, this interpreted
+	 * expression is returned.
+	 * 
+	 * @return The bytecode compiled form of this expression.
+	 */
+	public DoubleExpression toBytecode() {
+		DoubleExpression result = bytecodeExpression;
+		if (result == null) {
+			DoubleEvaluator generated = DoubleBytecodeCompiler.compile(root);
+			result = generated == null ? this : new DoubleExpression(this, generated);
+			bytecodeExpression = result;
+		}
+		return result;
+	}
+
+	public boolean isBytecode() {
+		return evaluator != root;
+	}
+
+	public double evalDouble() {
+		return evaluator.evalDouble(slotDefaults);
+	}
+
+	/**
+	 * Evaluates the expression against slot values.
+	 * 
+	 * @param vars
+	 *            The value of each slot, usually created by {@link #newValues()}.
+	 * 
+	 * @return The result of the expression.
+	 */
+	public double evalDouble(double[] vars) {
+		return evaluator.evalDouble(vars);
+	}
+
+	/**
+	 * Evaluates the expression for every row of a batch. The tree is walked once
+	 * per chunk of {@value #CHUNK_SIZE} rows, each operator running as a loop over
+	 * the chunk: variables are read from their column with no lookup, and
+	 * operators with a primitive implementation allocate nothing. Operators and
+	 * functions without one are still called row by row. Like
+	 * <code>&amp;&amp;</code>, <code>||</code> and <code>if</code> in
+	 * {@link #evalDouble(double[])}, an operand whose evaluation may fail is only
+	 * evaluated for the rows that need it.
+	 * 
+	 * @param columns
+	 *            The values of the variables; a variable with no column is NaN.
+	 * @param results
+	 *            The array the result of each row is written to.
+	 */
+	public void evalColumns(Columns columns, double[] results) {
+		columns.checkResults(results.length);
+		Object[] slotColumns = columns.resolve(compiledExpression.getVariableNames());
+		evalColumns(slotColumns, 0, columns.getRowCount(), results, new ColumnBuffers(slotColumns.length));
+	}
+
+	/**
+	 * Evaluates the rows from <code>from</code> to <code>to</code>.
+	 */
+	void evalColumns(Object[] slotColumns, int from, int to, double[] results, ColumnBuffers buffers) {
+		double[][] chunk = buffers.columns;
+		for (int start = from; start < to; start += CHUNK_SIZE) {
+			int length = Math.min(CHUNK_SIZE, to - start);
+			for (int slot = 0; slot < chunk.length; slot++) {
+				Columns.copyDoubles(slotColumns[slot], start, length, chunk[slot]);
+			}
+			double[] column = root.evalColumn(chunk, length, buffers);
+			System.arraycopy(column, 0, results, start, length);
+			buffers.release(column);
+		}
+	}
+
+	private static double toDouble(Object value) {
+		if (value instanceof Double) {
+			return (Double) value;
+		}
+		BigDecimal number = value instanceof BigDecimal ? (BigDecimal) value : Utils.adapt(value, BigDecimal.class);
+		return number == null ? Double.NaN : number.doubleValue();
+	}
+
+	private static DoubleNode compile(CompiledExpression compiledExpression) {
+		return compile(compiledExpression.getRoot(), compiledExpression.getContext());
+	}
+
+	private static DoubleNode compile(Node node, ExpressionContext context) {
+		String name = node.token.surface();
+		if (node instanceof Node.Constant) {
+			return new ConstantNode(toDouble(((Node.Constant) node).value));
+		} else if (node instanceof Node.Coercion) {
+			return compile(((Node.Coercion) node).operand, context);
+		} else if (node instanceof Node.Shared) {
+			return compile(((Node.Shared) node).operand, context);
+		} else if (node instanceof Node.Literal) {
+			try {
+				return new ConstantNode(new BigDecimal(name).doubleValue());
+			} catch (NumberFormatException exception) {
+				throw new LitExpException("String '" + name + "' is not supported by double evaluation");
+			}
+		} else if (node instanceof Node.Variable) {
+			return new VariableNode(((Node.Variable) node).slot);
+		} else if (node instanceof Node.UnaryOperation) {
+			Node.UnaryOperation unaryOperation = (Node.UnaryOperation) node;
+			DoubleNode operand = compile(unaryOperation.operand, context);
+			DoubleUnaryOperator kernel = context.getDoubleUnaryOperator(name);
+			return kernel != null ? new UnaryNode(kernel, operand)
+					: new FallbackUnaryNode(context, unaryOperation.unaryOperator, operand);
+		} else if (node instanceof Node.BinaryOperation) {
+			Node.BinaryOperation binaryOperation = (Node.BinaryOperation) node;
+			DoubleNode left = compile(binaryOperation.left, context);
+			DoubleNode right = compile(binaryOperation.right, context);
+			DoubleBinaryOperator kernel = context.getDoubleOperator(name);
+			if (kernel == AND) {
+				return new AndNode(left, right);
+			} else if (kernel == OR) {
+				return new OrNode(left, right);
+			} else if (kernel != null) {
+				return new BinaryNode(kernel, left, right);
+			}
+			return new FallbackBinaryNode(context, binaryOperation.operator, left, right);
+		} else if (node instanceof Node.FunctionCall) {
+			Node.FunctionCall functionCall = (Node.FunctionCall) node;
+			DoubleNode[] arguments = new DoubleNode[functionCall.arguments.length];
+			for (int i = 0; i < arguments.length; i++) {
+				arguments[i] = compile(functionCall.arguments[i], context);
+			}
+			DoubleFunction kernel = context.getDoubleFunction(name);
+			if (kernel == IF) {
+				return new IfNode(arguments[0], arguments[1], arguments[2]);
+			} else if (kernel != null) {
+				return new FunctionNode(kernel, arguments);
+			}
+			return new FallbackFunctionNode(context, functionCall.function, arguments);
+		}
+		throw new LitExpException("Unexpected node '" + name + "'");
+	}
+
+	/**
+	 * Scratch state of a batch evaluation: the chunk of every slot column and a
+	 * pool of chunk arrays for the results of the nodes.
+	 */
+	static final class ColumnBuffers {
+
+		final double[][] columns;
+
+		private final double[] row;
+
+		private final ArrayDeque<double[]> free = new ArrayDeque<>();
+
+		ColumnBuffers(int slotCount) {
+			this.columns = new double[slotCount][CHUNK_SIZE];
+			this.row = new double[slotCount];
+		}
+
+		double[] take() {
+			double[] result = free.poll();
+			return result != null ? result : new double[CHUNK_SIZE];
+		}
+
+		void release(double[] column) {
+			free.push(column);
+		}
+
+		/**
+		 * Evaluates a node for a single row of the chunk.
+		 */
+		double evalRow(DoubleNode node, int index) {
+			for (int slot = 0; slot < row.length; slot++) {
+				row[slot] = columns[slot][index];
+			}
+			return node.evalDouble(row);
+		}
+
+	}
+
+	static abstract class DoubleNode implements DoubleEvaluator {
+
+		/**
+		 * Evaluates the node for every row of a chunk.
+		 * 
+		 * @param columns
+		 *            The values of each slot for the rows of the chunk.
+		 * @param length
+		 *            The number of rows of the chunk.
+		 * @param buffers
+		 *            The scratch state of the evaluation.
+		 * 
+		 * @return An array taken from the buffers, holding the result of each row,
+		 *         that the caller releases.
+		 */
+		abstract double[] evalColumn(double[][] columns, int length, ColumnBuffers buffers);
+
+		/**
+		 * Tells whether evaluating the node cannot fail, so that it can be evaluated
+		 * for rows whose result is thrown away.
+		 */
+		boolean isTotal() {
+			return true;
+		}
+
+	}
+
+	private static boolean isBuiltIn(Object kernel) {
+		return kernel == ADD || kernel == SUBTRACT || kernel == MULTIPLY || kernel == DIVIDE || kernel == EQUAL
+				|| kernel == NOT_EQUAL || kernel == AND || kernel == OR || kernel == LESS || kernel == GREATER
+				|| kernel == LESS_OR_EQUAL || kernel == GREATER_OR_EQUAL || kernel == NEGATE || kernel == PLUS
+				|| kernel == NOT || kernel == SIN;
+	}
+
+	private static boolean isTotal(DoubleNode[] nodes) {
+		for (DoubleNode node : nodes) {
+			if (!node.isTotal()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static final class ConstantNode extends DoubleNode {
+
+		final double value;
+
+		ConstantNode(double value) {
+			this.value = value;
+		}
+
+		@Override
+		public double evalDouble(double[] vars) {
+			return value;
+		}
+
+		@Override
+		double[] evalColumn(double[][] columns, int length, ColumnBuffers buffers) {
+			double[] result = buffers.take();
+			Arrays.fill(result, 0, length, value);
+			return result;
+		}
+
+	}
+
+	static final class VariableNode extends DoubleNode {
+
+		final int slot;
+
+		VariableNode(int slot) {
+			this.slot = slot;
+		}
+
+		@Override
+		public double evalDouble(double[] vars) {
+			return vars[slot];
+		}
+
+		@Override
+		double[] evalColumn(double[][] columns, int length, ColumnBuffers buffers) {
+			double[] result = buffers.take();
+			System.arraycopy(columns[slot], 0, result, 0, length);
+			return result;
+		}
+
+	}
+
+	static final class UnaryNode extends DoubleNode {
+
+		final DoubleUnaryOperator kernel;
+		final DoubleNode operand;
+
+		UnaryNode(DoubleUnaryOperator kernel, DoubleNode operand) {
+			this.kernel = kernel;
+			this.operand = operand;
+		}
+
+		@Override
+		public double evalDouble(double[] vars) {
+			return kernel.applyAsDouble(operand.evalDouble(vars));
+		}
+
+		@Override
+		double[] evalColumn(double[][] columns, int length, ColumnBuffers buffers) {
+			double[] result = operand.evalColumn(columns, length, buffers);
+			if (kernel == NEGATE) {
+				for (int i = 0; i < length; i++) {
+					result[i] = -result[i];
+				}
+			} else if (kernel != PLUS) {
+				for (int i = 0; i < length; i++) {
+					result[i] = kernel.applyAsDouble(result[i]);
+				}
+			}
+			return result;
+		}
+
+		@Override
+		boolean isTotal() {
+			return isBuiltIn(kernel) && operand.isTotal();
+		}
+
+	}
+
+	static final class BinaryNode extends DoubleNode {
+
+		final DoubleBinaryOperator kernel;
+		final DoubleNode left;
+		final DoubleNode right;
+
+		BinaryNode(DoubleBinaryOperator kernel, DoubleNode left, DoubleNode right) {
+			this.kernel = kernel;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public double evalDouble(double[] vars) {
+			return kernel.applyAsDouble(left.evalDouble(vars), right.evalDouble(vars));
+		}
+
+		@Override
+		double[] evalColumn(double[][] columns, int length, ColumnBuffers buffers) {
+			double[] result = left.evalColumn(columns, length, buffers);
+			double[] operand = right.evalColumn(columns, length, buffers);
+			if (kernel == ADD) {
+				for (int i = 0; i < length; i++) {
+					result[i] += operand[i];
+				}
+			} else if (kernel == SUBTRACT) {
+				for (int i = 0; i < length; i++) {
+					result[i] -= operand[i];
+				}
+			} else if (kernel == MULTIPLY) {
+				for (int i = 0; i < length; i++) {
+					result[i] *= operand[i];
+				}
+			} else if (kernel == DIVIDE) {
+				for (int i = 0; i < length; i++) {
+					result[i] /= operand[i];
+				}
+			} else {
+				for (int i = 0; i < length; i++) {
+					result[i] = kernel.applyAsDouble(result[i], operand[i]);
+				}
+			}
+			buffers.release(operand);
+			return result;
+		}
+
+		@Override
+		boolean isTotal() {
+			return isBuiltIn(kernel) && left.isTotal() && right.isTotal();
+		}
+
+	}
+
+	static final class AndNode extends DoubleNode {
+
+		final DoubleNode left;
+		final DoubleNode right;
+
+		AndNode(DoubleNode left, DoubleNode right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public double evalDouble(double[] vars) {
+			return left.evalDouble(vars) != 0 && right.evalDouble(vars) != 0 ? 1 : 0;
+		}
+
+		@Override
+		double[] evalColumn(double[][] columns, int length, ColumnBuffers buffers) {
+			double[] result = left.evalColumn(columns, length, buffers);
+			if (right.isTotal()) {
+				double[] operand = right.evalColumn(columns, length, buffers);
+				for (int i = 0; i < length; i++) {
+					result[i] = result[i] != 0 && operand[i] != 0 ? 1 : 0;
+				}
+				buffers.release(operand);
+			} else {
+				for (int i = 0; i < length; i++) {
+					result[i] = result[i] != 0 && buffers.evalRow(right, i) != 0 ? 1 : 0;
+				}
+			}
+			return result;
+		}
+
+		@Override
+		boolean isTotal() {
+			return left.isTotal() && right.isTotal();
+		}
+
+	}
+
+	static final class OrNode extends DoubleNode {
+
+		final DoubleNode left;
+		final DoubleNode right;
+
+		OrNode(DoubleNode left, DoubleNode right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public double evalDouble(double[] vars) {
+			return left.evalDouble(vars) != 0 || right.evalDouble(vars) != 0 ? 1 : 0;
+		}
+
+		@Override
+		double[] evalColumn(double[][] columns, int length, ColumnBuffers buffers) {
+			double[] result = left.evalColumn(columns, length, buffers);
+			if (right.isTotal()) {
+				double[] operand = right.evalColumn(columns, length, buffers);
+				for (int i = 0; i < length; i++) {
+					result[i] = result[i] != 0 || operand[i] != 0 ? 1 : 0;
+				}
+				buffers.release(operand);
+			} else {
+				for (int i = 0; i < length; i++) {
+					result[i] = result[i] != 0 || buffers.evalRow(right, i) != 0 ? 1 : 0;
+				}
+			}
+			return result;
+		}
+
+		@Override
+		boolean isTotal() {
+			return left.isTotal() && right.isTotal();
+		}
+
+	}
+
+	static final class IfNode extends DoubleNode {
+
+		final DoubleNode condition;
+		final DoubleNode whenTrue;
+		final DoubleNode whenFalse;
+
+		IfNode(DoubleNode condition, DoubleNode whenTrue, DoubleNode whenFalse) {
+			this.condition = condition;
+			this.whenTrue = whenTrue;
+			this.whenFalse = whenFalse;
+		}
+
+		@Override
+		public double evalDouble(double[] vars) {
+			return condition.evalDouble(vars) != 0 ? whenTrue.evalDouble(vars) : whenFalse.evalDouble(vars);
+		}
+
+		@Override
+		double[] evalColumn(double[][] columns, int length, ColumnBuffers buffers) {
+			double[] result = condition.evalColumn(columns, length, buffers);
+			double[] trueColumn = whenTrue.isTotal() ? whenTrue.evalColumn(columns, length, buffers) : null;
+			double[] falseColumn = whenFalse.isTotal() ? whenFalse.evalColumn(columns, length, buffers) : null;
+			if (trueColumn != null && falseColumn != null) {
+				for (int i = 0; i < length; i++) {
+					result[i] = result[i] != 0 ? trueColumn[i] : falseColumn[i];
+				}
+			} else {
+				for (int i = 0; i < length; i++) {
+					if (result[i] != 0) {
+						result[i] = trueColumn != null ? trueColumn[i] : buffers.evalRow(whenTrue, i);
+					} else {
+						result[i] = falseColumn != null ? falseColumn[i] : buffers.evalRow(whenFalse, i);
+					}
+				}
+			}
+			if (trueColumn != null) {
+				buffers.release(trueColumn);
+			}
+			if (falseColumn != null) {
+				buffers.release(falseColumn);
+			}
+			return result;
+		}
+
+		@Override
+		boolean isTotal() {
+			return condition.isTotal() && whenTrue.isTotal() && whenFalse.isTotal();
+		}
+
+	}
+
+	static final class FunctionNode extends DoubleNode {
+
+		final DoubleFunction kernel;
+		final DoubleNode[] arguments;
+
+		FunctionNode(DoubleFunction kernel, DoubleNode[] arguments) {
+			this.kernel = kernel;
+			this.arguments = arguments;
+		}
+
+		@Override
+		public double evalDouble(double[] vars) {
+			double[] values = new double[arguments.length];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = arguments[i].evalDouble(vars);
+			}
+			return kernel.eval(values);
+		}
+
+		@Override
+		double[] evalColumn(double[][] columns, int length, ColumnBuffers buffers) {
+			double[][] argumentColumns = evalColumns(arguments, columns, length, buffers);
+			double[] result = buffers.take();
+			double[] values = new double[arguments.length];
+			for (int i = 0; i < length; i++) {
+				for (int j = 0; j < values.length; j++) {
+					values[j] = argumentColumns[j][i];
+				}
+				result[i] = kernel.eval(values);
+			}
+			release(argumentColumns, buffers);
+			return result;
+		}
+
+		@Override
+		boolean isTotal() {
+			return isBuiltIn(kernel) && DoubleExpression.isTotal(arguments);
+		}
+
+	}
+
+	private static double[][] evalColumns(DoubleNode[] nodes, double[][] columns, int length,
+			ColumnBuffers buffers) {
+		double[][] result = new double[nodes.length][];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = nodes[i].evalColumn(columns, length, buffers);
+		}
+		return result;
+	}
+
+	private static void release(double[][] columns, ColumnBuffers buffers) {
+		for (double[] column : columns) {
+			buffers.release(column);
+		}
+	}
+
+	private static Operand toOperand(ExpressionContext context, double value) {
+		return context.getOperandFactory().createOperand(() -> toValue(value));
+	}
+
+	/**
+	 * Gives the value an operator or function given a <code>double</code> is
+	 * called with: a {@link BigDecimal}, or a {@link Double} for NaN and the
+	 * infinities, which no decimal represents. Reading those as a number fails
+	 * with a {@link LitExpException}.
+	 */
+	static Object toValue(double value) {
+		return Double.isFinite(value) ? BigDecimal.valueOf(value) : Double.valueOf(value);
+	}
+
+	/**
+	 * Gives the operand of a node evaluated only if its value is read, for the
+	 * operators and functions that may not read all their operands.
+	 */
+	private static Operand toLazyOperand(DoubleSupplier value) {
+		return new AbstractLazyOperand(null) {
+			@Override
+			protected Object doEval() {
+				return toValue(value.getAsDouble());
+			}
+
+			@Override
+			protected <U> U doGetValue(Class<U> valueClass) {
+				return Utils.adapt(getValue(), valueClass);
+			}
+		};
+	}
+
+	private static double toDouble(Operand operand) {
+		return toDouble(operand.getValue());
+	}
+
+	static final class FallbackUnaryNode extends DoubleNode {
+
+		final ExpressionContext context;
+		final UnaryOperator unaryOperator;
+		final DoubleNode operand;
+
+		FallbackUnaryNode(ExpressionContext context, UnaryOperator unaryOperator, DoubleNode operand) {
+			this.context = context;
+			this.unaryOperator = unaryOperator;
+			this.operand = operand;
+		}
+
+		@Override
+		public double evalDouble(double[] vars) {
+			return toDouble(unaryOperator.eval(context, toOperand(context, operand.evalDouble(vars))));
+		}
+
+		@Override
+		double[] evalColumn(double[][] columns, int length, ColumnBuffers buffers) {
+			double[] result = operand.evalColumn(columns, length, buffers);
+			for (int i = 0; i < length; i++) {
+				result[i] = toDouble(unaryOperator.eval(context, toOperand(context, result[i])));
+			}
+			return result;
+		}
+
+		@Override
+		boolean isTotal() {
+			return false;
+		}
+
+	}
+
+	static final class FallbackBinaryNode extends DoubleNode {
+
+		final ExpressionContext context;
+		final Operator operator;
+		final DoubleNode left;
+		final DoubleNode right;
+
+		FallbackBinaryNode(ExpressionContext context, Operator operator, DoubleNode left, DoubleNode right) {
+			this.context = context;
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public double evalDouble(double[] vars) {
+			if (operator.isLazy()) {
+				return toDouble(operator.eval(context, toLazyOperand(() -> left.evalDouble(vars)),
+						toLazyOperand(() -> right.evalDouble(vars))));
+			}
+			return toDouble(operator.eval(context, toOperand(context, left.evalDouble(vars)),
+					toOperand(context, right.evalDouble(vars))));
+		}
+
+		@Override
+		double[] evalColumn(double[][] columns, int length, ColumnBuffers buffers) {
+			if (operator.isLazy()) {
+				double[] result = buffers.take();
+				for (int i = 0; i < length; i++) {
+					int row = i;
+					result[i] = toDouble(operator.eval(context, toLazyOperand(() -> buffers.evalRow(left, row)),
+							toLazyOperand(() -> buffers.evalRow(right, row))));
+				}
+				return result;
+			}
+			double[] result = left.evalColumn(columns, length, buffers);
+			double[] operand = right.evalColumn(columns, length, buffers);
+			for (int i = 0; i < length; i++) {
+				result[i] = toDouble(
+						operator.eval(context, toOperand(context, result[i]), toOperand(context, operand[i])));
+			}
+			buffers.release(operand);
+			return result;
+		}
+
+		@Override
+		boolean isTotal() {
+			return false;
+		}
+
+	}
+
+	static final class FallbackFunctionNode extends DoubleNode {
+
+		final ExpressionContext context;
+		final Function function;
+		final DoubleNode[] arguments;
+
+		FallbackFunctionNode(ExpressionContext context, Function function, DoubleNode[] arguments) {
+			this.context = context;
+			this.function = function;
+			this.arguments = arguments;
+		}
+
+		@Override
+		public double evalDouble(double[] vars) {
+			List<Operand> operands = new ArrayList<>(arguments.length);
+			for (DoubleNode argument : arguments) {
+				operands.add(function.isLazy() ? toLazyOperand(() -> argument.evalDouble(vars))
+						: toOperand(context, argument.evalDouble(vars)));
+			}
+			return toDouble(function.eval(context, operands));
+		}
+
+		@Override
+		double[] evalColumn(double[][] columns, int length, ColumnBuffers buffers) {
+			if (function.isLazy()) {
+				double[] result = buffers.take();
+				for (int i = 0; i < length; i++) {
+					int row = i;
+					Operand[] operands = new Operand[arguments.length];
+					for (int j = 0; j < operands.length; j++) {
+						DoubleNode argument = arguments[j];
+						operands[j] = toLazyOperand(() -> buffers.evalRow(argument, row));
+					}
+					result[i] = toDouble(function.eval(context, Arrays.asList(operands)));
+				}
+				return result;
+			}
+			double[][] argumentColumns = evalColumns(arguments, columns, length, buffers);
+			double[] result = buffers.take();
+			for (int i = 0; i < length; i++) {
+				Operand[] operands = new Operand[arguments.length];
+				for (int j = 0; j < operands.length; j++) {
+					operands[j] = toOperand(context, argumentColumns[j][i]);
+				}
+				result[i] = toDouble(function.eval(context, Arrays.asList(operands)));
+			}
+			release(argumentColumns, buffers);
+			return result;
+		}
+
+		@Override
+		boolean isTotal() {
+			return false;
+		}
+
+	}
+
+	@Override
+	public String toString() {
+		return compiledExpression.toString();
+	}
+
+}
@@ -0,0 +1,389 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.roisoleil.litexp.Expression.Function;
+import org.roisoleil.litexp.Expression.Operand;
+import org.roisoleil.litexp.Expression.OperandFactory;
+import org.roisoleil.litexp.Expression.Operator;
+import org.roisoleil.litexp.Expression.Token;
+import org.roisoleil.litexp.Expression.UnaryOperator;
+
+/**
+ * Opt-in evaluation metrics per operator, unary operator and function name:
+ * call and failure counts, cumulative time and latency percentiles.
+ * <p>
+ * Metrics are recorded by an {@link OperandFactory} wrapping the one of a
+ * context, so a context built without it costs nothing:
+ * 
+ * <pre>
+ * EvaluationMetrics metrics = new EvaluationMetrics();
+ * ExpressionContext context = ExpressionContext.DEFAULT.toBuilder()
+ * 		.setOperandFactory(metrics.instrument(ExpressionContext.DEFAULT.getOperandFactory())).build();
+ * </pre>
+ * 
+ * A call is timed when its lazy operand is forced. Its total time includes
+ * the evaluation of the operands it forces, its self time does not. Counters
+ * are {@link LongAdder}s, so recording threads do not contend. Operators and
+ * functions that a {@link DoubleExpression} runs through their primitive
+ * implementation are not recorded.
+ */
+public final class EvaluationMetrics {
+
+	public enum Kind {
+		OPERATOR, UNARY_OPERATOR, FUNCTION
+	}
+
+	/**
+	 * The number of latency buckets, one per power of two of nanoseconds.
+	 */
+	private static final int BUCKET_COUNT = 64;
+
+	/**
+	 * The recorders of each kind, by normalized name, so that only the names of
+	 * the context are held, not the operators and functions called.
+	 */
+	private final Map<Kind, ConcurrentHashMap<String, Recorder>> recorders = new EnumMap<>(Kind.class);
+
+	private final LongSupplier ticker;
+
+	/**
+	 * The time spent in the calls made by the call being timed on each thread.
+	 */
+	private final ThreadLocal<long[]> childNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+	public EvaluationMetrics() {
+		this(System::nanoTime);
+	}
+
+	/**
+	 * Creates metrics timing the calls with the given ticker.
+	 * 
+	 * @param ticker
+	 *            The source of the current time, in nanoseconds.
+	 */
+	public EvaluationMetrics(LongSupplier ticker) {
+		this.ticker = ticker;
+		for (Kind kind : Kind.values()) {
+			recorders.put(kind, new ConcurrentHashMap<>());
+		}
+	}
+
+	/**
+	 * Wraps an operand factory so that it records the calls of operators and
+	 * functions into these metrics.
+	 * 
+	 * @param operandFactory
+	 *            The factory creating the operands.
+	 * 
+	 * @return The recording factory.
+	 */
+	public OperandFactory instrument(OperandFactory operandFactory) {
+		return new InstrumentedOperandFactory(operandFactory);
+	}
+
+	private Recorder recorder(Kind kind, String name) {
+		ConcurrentHashMap<String, Recorder> byName = recorders.get(kind);
+		String key = ExpressionContext.normalize(name);
+		Recorder recorder = byName.get(key);
+		return recorder != null ? recorder : byName.computeIfAbsent(key, Recorder::new);
+	}
+
+	private Supplier<Object> timed(Recorder recorder, Supplier<Object> valueSupplier) {
+		return () -> {
+			long[] children = childNanos.get();
+			long outerChildren = children[0];
+			children[0] = 0;
+			long start = ticker.getAsLong();
+			boolean failed = true;
+			try {
+				Object value = valueSupplier.get();
+				failed = false;
+				return value;
+			} finally {
+				long elapsed = ticker.getAsLong() - start;
+				recorder.record(elapsed, elapsed - children[0], failed);
+				children[0] = outerChildren + elapsed;
+			}
+		};
+	}
+
+	/**
+	 * Gives the metrics recorded so far, for every name called at least once.
+	 * 
+	 * @return The metrics of each kind and name, sorted by descending total time.
+	 */
+	public List<Snapshot> snapshot() {
+		List<Snapshot> result = new ArrayList<>();
+		for (Map.Entry<Kind, ConcurrentHashMap<String, Recorder>> entry : recorders.entrySet()) {
+			for (Recorder recorder : entry.getValue().values()) {
+				Snapshot snapshot = recorder.snapshot(entry.getKey());
+				if (snapshot.getCallCount() > 0) {
+					result.add(snapshot);
+				}
+			}
+		}
+		result.sort((left, right) -> Long.compare(right.getTotalNanos(), left.getTotalNanos()));
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * Gives the metrics recorded so far for a name.
+	 * 
+	 * @return The metrics, or <code>null</code> if the name was never called.
+	 */
+	public Snapshot snapshot(Kind kind, String name) {
+		Recorder recorder = recorders.get(kind).get(ExpressionContext.normalize(name));
+		Snapshot snapshot = recorder == null ? null : recorder.snapshot(kind);
+		return snapshot == null || snapshot.getCallCount() == 0 ? null : snapshot;
+	}
+
+	/**
+	 * Sets every metric back to zero. The calls recorded while resetting may be
+	 * partly kept.
+	 */
+	public void reset() {
+		for (ConcurrentHashMap<String, Recorder> byName : recorders.values()) {
+			for (Recorder recorder : byName.values()) {
+				recorder.reset();
+			}
+		}
+	}
+
+	private final class InstrumentedOperandFactory implements OperandFactory {
+
+		private final OperandFactory delegate;
+
+		InstrumentedOperandFactory(OperandFactory delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Operand createOperand(Supplier<Object> valueSupplier) {
+			return delegate.createOperand(valueSupplier);
+		}
+
+		@Override
+		public Operand createOperand(Token token, Supplier<Object> valueSupplier) {
+			return delegate.createOperand(token, valueSupplier);
+		}
+
+		@Override
+		public Operand createOperand(Token token, Object value) {
+			return delegate.createOperand(token, value);
+		}
+
+		@Override
+		public Operand createOperand(Function function, List<Operand> operands, Supplier<Object> valueSupplier) {
+			return delegate.createOperand(function, operands,
+					timed(recorder(Kind.FUNCTION, function.getName()), valueSupplier));
+		}
+
+		@Override
+		public Operand createOperand(Operator operator, Operand leftOperand, Operand rightOperand,
+				Supplier<Object> valueSupplier) {
+			return delegate.createOperand(operator, leftOperand, rightOperand,
+					timed(recorder(Kind.OPERATOR, operator.getOperator()), valueSupplier));
+		}
+
+		@Override
+		public Operand createOperand(UnaryOperator unaryOperator, Operand operand, Supplier<Object> valueSupplier) {
+			return delegate.createOperand(unaryOperator, operand,
+					timed(recorder(Kind.UNARY_OPERATOR, unaryOperator.getOperator()), valueSupplier));
+		}
+
+	}
+
+	private static final class Recorder {
+
+		private final String name;
+
+		private final LongAdder callCount = new LongAdder();
+
+		private final LongAdder failureCount = new LongAdder();
+
+		private final LongAdder totalNanos = new LongAdder();
+
+		private final LongAdder selfNanos = new LongAdder();
+
+		private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+		private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+
+		Recorder(String name) {
+			this.name = name;
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		void record(long nanos, long self, boolean failed) {
+			callCount.increment();
+			if (failed) {
+				failureCount.increment();
+			}
+			totalNanos.add(nanos);
+			selfNanos.add(self);
+			maxNanos.accumulate(nanos);
+			buckets[nanos <= 0 ? 0 : BUCKET_COUNT - 1 - Long.numberOfLeadingZeros(nanos)].increment();
+		}
+
+		void reset() {
+			callCount.reset();
+			failureCount.reset();
+			totalNanos.reset();
+			selfNanos.reset();
+			maxNanos.reset();
+			for (LongAdder bucket : buckets) {
+				bucket.reset();
+			}
+		}
+
+		Snapshot snapshot(Kind kind) {
+			long[] counts = new long[BUCKET_COUNT];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = buckets[i].sum();
+			}
+			return new Snapshot(kind, name, callCount.sum(), failureCount.sum(), totalNanos.sum(), selfNanos.sum(),
+					maxNanos.get(), counts);
+		}
+
+	}
+
+	/**
+	 * Metrics of an operator, unary operator or function name at a point in
+	 * time.
+	 */
+	public static final class Snapshot {
+
+		private final Kind kind;
+
+		private final String name;
+
+		private final long callCount;
+
+		private final long failureCount;
+
+		private final long totalNanos;
+
+		private final long selfNanos;
+
+		private final long maxNanos;
+
+		/**
+		 * The number of calls of each latency bucket: bucket <code>i</code> holds
+		 * the calls that took less than 2<sup>i+1</sup> nanoseconds.
+		 */
+		private final long[] buckets;
+
+		Snapshot(Kind kind, String name, long callCount, long failureCount, long totalNanos, long selfNanos,
+				long maxNanos, long[] buckets) {
+			this.kind = kind;
+			this.name = name;
+			this.callCount = callCount;
+			this.failureCount = failureCount;
+			this.totalNanos = totalNanos;
+			this.selfNanos = selfNanos;
+			this.maxNanos = maxNanos;
+			this.buckets = buckets;
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getCallCount() {
+			return callCount;
+		}
+
+		public long getFailureCount() {
+			return failureCount;
+		}
+
+		/**
+		 * @return The cumulative time of the calls, including the evaluation of the
+		 *         operands they forced.
+		 */
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		/**
+		 * @return The cumulative time of the calls, excluding the evaluation of the
+		 *         operands they forced.
+		 */
+		public long getSelfNanos() {
+			return selfNanos;
+		}
+
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+
+		/**
+		 * Gives a latency percentile of the calls, to the next power of two.
+		 * 
+		 * @param percentile
+		 *            The percentile, between 0 and 100.
+		 * 
+		 * @return The time under which the given percent of the calls took, in
+		 *         nanoseconds, or 0 if there was no call.
+		 */
+		public long getPercentileNanos(double percentile) {
+			long rank = (long) Math.ceil(percentile / 100 * callCount);
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= rank && seen > 0) {
+					return Math.min(i == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << i + 1) - 1, maxNanos);
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return kind + " " + name + ": calls=" + callCount + ", failures=" + failureCount + ", total="
+					+ totalNanos + "ns, self=" + selfNanos + "ns, p50=" + getPercentileNanos(50) + "ns, p99="
+					+ getPercentileNanos(99) + "ns, max=" + maxNanos + "ns";
+		}
+
+	}
+
+}
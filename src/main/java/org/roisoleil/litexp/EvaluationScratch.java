@@ -0,0 +1,355 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.roisoleil.litexp.Expression.AbstractFunction;
+import org.roisoleil.litexp.Expression.AbstractOperator;
+import org.roisoleil.litexp.Expression.AbstractUnaryOperator;
+import org.roisoleil.litexp.Expression.DefaultOperandFactory;
+import org.roisoleil.litexp.Expression.LitExpException;
+import org.roisoleil.litexp.Expression.Operand;
+import org.roisoleil.litexp.Expression.TokenType;
+import org.roisoleil.litexp.Expression.Utils;
+
+/**
+ * Reusable state of the evaluations of a {@link CompiledExpression} by one
+ * thread. The scratch holds one operand per node of the tree, created once and
+ * reset by each call through an epoch counter rather than reallocated, and the
+ * argument list of every function call. Numeric literals are parsed once.
+ * <p>
+ * Operators and functions extending {@link AbstractOperator},
+ * {@link AbstractUnaryOperator} or {@link AbstractFunction} are called
+ * directly on these operands, so a steady-state evaluation allocates nothing
+ * but the values the operators compute. Other implementations, or a context
+ * with its own {@link Expression.OperandFactory}, are called as by
+ * {@link CompiledExpression#eval(Object[])}, which allocates their operands.
+ * <p>
+ * A scratch is not thread-safe and not reentrant: use one per thread, kept by
+ * the caller along with the expression. Since its operands are reused,
+ * evaluation returns the value of the expression rather than an operand.
+ */
+public final class EvaluationScratch {
+
+	private final CompiledExpression expression;
+
+	private final ScratchOperand root;
+
+	/**
+	 * The number of the current evaluation: an operand whose epoch differs has
+	 * not been evaluated yet by this call.
+	 */
+	private long epoch;
+
+	private Object[] values;
+
+	/**
+	 * The frame of the current evaluation, for the leaves of a context with its
+	 * own operand factory.
+	 */
+	private Node.Frame frame;
+
+	private boolean running;
+
+	private final boolean direct;
+
+	EvaluationScratch(CompiledExpression expression) {
+		this.expression = expression;
+		ExpressionContext context = expression.getContext();
+		this.direct = context.getOperandFactory().getClass() == DefaultOperandFactory.class;
+		this.root = operand(expression.getRoot(), context, direct, new IdentityHashMap<>());
+	}
+
+	public CompiledExpression getExpression() {
+		return expression;
+	}
+
+	/**
+	 * Evaluates the expression against slot values.
+	 * 
+	 * @param values
+	 *            The value of each slot, as given by
+	 *            {@link CompiledExpression#slotOf(String)}. The array is only read
+	 *            during the call.
+	 * @param resultClass
+	 *            The class of the result.
+	 * 
+	 * @return The result of the expression.
+	 */
+	public <T> T eval(Object[] values, Class<T> resultClass) {
+		if (running) {
+			throw new IllegalStateException("Scratch already in use by an evaluation of " + expression);
+		}
+		running = true;
+		this.values = values;
+		if (!direct) {
+			frame = new Node.Frame(expression.getContext(), values);
+		}
+		epoch++;
+		try {
+			return root.getValue(resultClass);
+		} finally {
+			this.values = null;
+			this.frame = null;
+			running = false;
+		}
+	}
+
+	public Object eval(Object[] values) {
+		return eval(values, Object.class);
+	}
+
+	/**
+	 * Mirrors the tree of the expression with an operand per node. Shared nodes
+	 * get a single operand, which computes their value once per evaluation.
+	 */
+	private ScratchOperand operand(Node node, ExpressionContext context, boolean direct,
+			Map<Node, ScratchOperand> operands) {
+		ScratchOperand result = operands.get(node);
+		if (result != null) {
+			return result;
+		}
+		if (node instanceof Node.Shared) {
+			result = operand(((Node.Shared) node).operand, context, direct, operands);
+		} else if (!direct && (node instanceof Node.Literal || node instanceof Node.Constant
+				|| node instanceof Node.Variable)) {
+			result = new DelegateOperand(() -> node.eval(frame).getValue());
+		} else if (node instanceof Node.Literal) {
+			String surface = node.token.surface();
+			result = new ValueOperand(node.token.type == TokenType.NUMBER ? new BigDecimal(surface) : surface);
+		} else if (node instanceof Node.Constant) {
+			result = new ValueOperand(((Node.Constant) node).value);
+		} else if (node instanceof Node.Variable) {
+			result = new VariableOperand((Node.Variable) node);
+		} else if (node instanceof Node.Coercion) {
+			Node.Coercion coercion = (Node.Coercion) node;
+			result = new CoercionOperand(coercion, operand(coercion.operand, context, direct, operands));
+		} else if (node instanceof Node.UnaryOperation) {
+			Node.UnaryOperation unaryOperation = (Node.UnaryOperation) node;
+			ScratchOperand operand = operand(unaryOperation.operand, context, direct, operands);
+			result = direct && unaryOperation.unaryOperator instanceof AbstractUnaryOperator
+					? new UnaryOperand(context, (AbstractUnaryOperator) unaryOperation.unaryOperator, operand)
+					: new DelegateOperand(
+							() -> unaryOperation.unaryOperator.eval(context, operand).getValue());
+		} else if (node instanceof Node.BinaryOperation) {
+			Node.BinaryOperation binaryOperation = (Node.BinaryOperation) node;
+			ScratchOperand left = operand(binaryOperation.left, context, direct, operands);
+			ScratchOperand right = operand(binaryOperation.right, context, direct, operands);
+			result = direct && binaryOperation.operator instanceof AbstractOperator
+					? new BinaryOperand(context, (AbstractOperator) binaryOperation.operator, left, right)
+					: new DelegateOperand(() -> binaryOperation.operator.eval(context, left, right).getValue());
+		} else if (node instanceof Node.FunctionCall) {
+			Node.FunctionCall functionCall = (Node.FunctionCall) node;
+			Operand[] arguments = new Operand[functionCall.arguments.length];
+			for (int i = 0; i < arguments.length; i++) {
+				arguments[i] = operand(functionCall.arguments[i], context, direct, operands);
+			}
+			List<Operand> list = Collections.unmodifiableList(Arrays.asList(arguments));
+			result = direct && functionCall.function instanceof AbstractFunction
+					? new FunctionOperand(context, (AbstractFunction) functionCall.function, list)
+					: new DelegateOperand(() -> functionCall.function.eval(context, list).getValue());
+		} else {
+			throw new LitExpException("Unexpected node '" + node.token.surface() + "'");
+		}
+		operands.put(node, result);
+		return result;
+	}
+
+	/**
+	 * Operand computing its value at most once per evaluation.
+	 */
+	private abstract class ScratchOperand implements Operand {
+
+		private long evaluated;
+
+		private Object value;
+
+		@Override
+		public final Object getValue() {
+			if (evaluated != epoch) {
+				value = compute();
+				evaluated = epoch;
+			}
+			return value;
+		}
+
+		@Override
+		public final <U> U getValue(Class<U> valueClass) {
+			return Utils.adapt(getValue(), valueClass);
+		}
+
+		abstract Object compute();
+
+	}
+
+	private final class ValueOperand extends ScratchOperand {
+
+		private final Object constant;
+
+		ValueOperand(Object constant) {
+			this.constant = constant;
+		}
+
+		@Override
+		Object compute() {
+			return constant;
+		}
+
+	}
+
+	private final class VariableOperand extends ScratchOperand {
+
+		private final Node.Variable node;
+
+		VariableOperand(Node.Variable node) {
+			this.node = node;
+		}
+
+		@Override
+		Object compute() {
+			Object value = values[node.slot];
+			if (value == Node.UNBOUND) {
+				throw new LitExpException("Unknown variable: " + node.token);
+			}
+			return value;
+		}
+
+	}
+
+	private final class CoercionOperand extends ScratchOperand {
+
+		private final Node.Coercion node;
+
+		private final ScratchOperand operand;
+
+		CoercionOperand(Node.Coercion node, ScratchOperand operand) {
+			this.node = node;
+			this.operand = operand;
+		}
+
+		@Override
+		Object compute() {
+			Object result = operand.getValue(node.valueClass);
+			if (result == null) {
+				throw new LitExpException("operand can't be null for " + node.token.surface());
+			}
+			return result;
+		}
+
+	}
+
+	private final class UnaryOperand extends ScratchOperand {
+
+		private final ExpressionContext context;
+
+		private final AbstractUnaryOperator unaryOperator;
+
+		private final ScratchOperand operand;
+
+		UnaryOperand(ExpressionContext context, AbstractUnaryOperator unaryOperator, ScratchOperand operand) {
+			this.context = context;
+			this.unaryOperator = unaryOperator;
+			this.operand = operand;
+		}
+
+		@Override
+		Object compute() {
+			return unaryOperator.doEval(context, operand);
+		}
+
+	}
+
+	private final class BinaryOperand extends ScratchOperand {
+
+		private final ExpressionContext context;
+
+		private final AbstractOperator operator;
+
+		private final ScratchOperand left;
+
+		private final ScratchOperand right;
+
+		BinaryOperand(ExpressionContext context, AbstractOperator operator, ScratchOperand left,
+				ScratchOperand right) {
+			this.context = context;
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		Object compute() {
+			return operator.doEval(context, left, right);
+		}
+
+	}
+
+	private final class FunctionOperand extends ScratchOperand {
+
+		private final ExpressionContext context;
+
+		private final AbstractFunction function;
+
+		private final List<Operand> arguments;
+
+		FunctionOperand(ExpressionContext context, AbstractFunction function, List<Operand> arguments) {
+			this.context = context;
+			this.function = function;
+			this.arguments = arguments;
+		}
+
+		@Override
+		Object compute() {
+			return function.doEval(context, arguments);
+		}
+
+	}
+
+	/**
+	 * Operand of an operator or function called through its public API, for
+	 * implementations that create their own operands.
+	 */
+	private final class DelegateOperand extends ScratchOperand {
+
+		private final Supplier<Object> supplier;
+
+		DelegateOperand(Supplier<Object> supplier) {
+			this.supplier = supplier;
+		}
+
+		@Override
+		Object compute() {
+			return supplier.get();
+		}
+
+	}
+
+}
@@ -26,19 +26,14 @@ package org.roisoleil.litexp;
 import static org.roisoleil.litexp.Expression.Utils.adapt;
 
 import java.math.BigDecimal;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.Deque;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.Stack;
-import java.util.TreeMap;
 import java.util.function.Supplier;
-import java.util.stream.IntStream;
 
 public class Expression {
 
@@ -58,33 +53,25 @@ public class Expression {
 
 	public static final int OPERATOR_PRECEDENCE_ADDITIVE = 20;
 
-	private static final Operand PARAMS_START = new Operand() {
-
-		@Override
-		public Void getValue() {
-			return null;
-		}
-
-		@Override
-		public <U> U getValue(Class<U> valueClass) {
-			return null;
-		}
-
-	};
-
 	private final String originalExpression;
 
-	private String firstVarChars = "_";
-
-	private Map<String, Operator> operators = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	private ExpressionContext context;
 
-	private Map<String, UnaryOperator> unaryOperators = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	/**
+	 * The changes made to the context of this expression since it was last
+	 * built, if any.
+	 */
+	private ExpressionContext.Builder contextChanges;
 
-	private Map<String, Function> functions = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	private Bindings variables = new Bindings();
 
-	private Map<String, Operand> variables = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	/**
+	 * The normalized names of the constants of the context overridden by a
+	 * variable of this expression.
+	 */
+	private final Set<String> boundConstants = new HashSet<>();
 
-	private OperandFactory operandFactory = new DefaultOperandFactory(this);
+	private CompiledExpression compiledExpression;
 
 	private static final char decimalSeparator = '.';
 
@@ -92,153 +79,154 @@ public class Expression {
 		FUNCTION, OPERATOR, UNARY_OPERATOR, NUMBER, STRING, VARIABLE, OPEN_BRACKET, CLOSE_BRACKET, COMMA
 	}
 
-	class Token {
+	/**
+	 * Token of an expression, as the offsets of its characters in the source
+	 * text. The text of the token is only extracted when first asked for.
+	 */
+	static final class Token {
+
+		public final TokenType type;
 
-		public TokenType type;
+		private final CharSequence input;
 
-		public int rawStart;
-		public String rawSurface = "";
+		public final int start;
 
-		public int start;
-		public String surface = "";
+		public final int end;
 
-		public int end;
+		private String surface;
 
-		public void append(char c) {
-			surface += c;
+		Token(TokenType type, CharSequence input, int start, int end) {
+			this.type = type;
+			this.input = input;
+			this.start = start;
+			this.end = end;
 		}
 
-		public void append(String s) {
-			surface += s;
+		public String surface() {
+			String result = surface;
+			if (result == null) {
+				result = input.subSequence(start, end).toString();
+				surface = result;
+			}
+			return result;
 		}
 
-		public boolean isEmpty() {
-			return surface.isEmpty();
+		public int length() {
+			return end - start;
 		}
 
 		@Override
 		public String toString() {
-			return Objects.toString(type) + ":" + surface;
+			return Objects.toString(type) + ":" + surface();
 		}
 
 	}
 
 	/**
-	 * Expression tokenizer that allows to iterate over a {@link String} expression
-	 * token by token. Blank characters will be skipped.
+	 * Expression tokenizer that allows to iterate over a {@link CharSequence}
+	 * expression token by token. Blank characters will be skipped.
+	 * <p>
+	 * Tokens only hold offsets into the expression, so that tokenizing builds no
+	 * string.
 	 */
-	public class Tokenizer implements Iterator<Token> {
+	public static class Tokenizer implements Iterator<Token> {
 
 		private int actualPosition = 0;
-		private String input;
+		private final CharSequence input;
+		private final Lexicon lexicon;
 		private Token previousToken;
 
-		public Tokenizer(String input) {
+		public Tokenizer(CharSequence input, ExpressionContext context) {
 			this.input = input;
+			this.lexicon = context.getLexicon();
 		}
 
 		@Override
 		public boolean hasNext() {
+			skipWhitespaces();
 			return actualPosition < input.length();
 		}
 
-		private char peekNextChar() {
-			return actualPosition < input.length() - 1 ? input.charAt(actualPosition + 1) : 0;
+		private void skipWhitespaces() {
+			while (actualPosition < input.length() && lexicon.isWhitespace(input.charAt(actualPosition))) {
+				actualPosition++;
+			}
+		}
+
+		private char charAt(int position) {
+			return position < input.length() ? input.charAt(position) : 0;
 		}
 
 		@Override
 		public Token next() {
+			skipWhitespaces();
 			if (actualPosition >= input.length()) {
 				return previousToken = null;
 			}
-			// init
-			Token token = new Token();
-			token.rawStart = actualPosition;
+			int start = actualPosition;
+			int end;
+			TokenType type;
 			char ch = input.charAt(actualPosition);
-			// pre-trim
-			while (Character.isWhitespace(ch) && actualPosition < input.length()) {
-				ch = input.charAt(++actualPosition);
-			}
-			token.start = actualPosition;
 			// case number
-			if (Character.isDigit(ch) || (ch == decimalSeparator && Character.isDigit(peekNextChar()))) {
-				while (actualPosition < input.length() && (Character.isDigit(ch) || ch == decimalSeparator)) {
-					if (!(++actualPosition < input.length()))
-						break;
-					ch = input.charAt(actualPosition);
-				}
-				token.rawSurface = input.substring(token.rawStart, actualPosition);
-				token.surface = input.substring(token.start, actualPosition);
-				token.type = TokenType.NUMBER;
+			if (lexicon.isDigit(ch) || (ch == decimalSeparator && lexicon.isDigit(charAt(actualPosition + 1)))) {
+				do {
+					ch = charAt(++actualPosition);
+				} while (lexicon.isDigit(ch) || ch == decimalSeparator);
+				end = actualPosition;
+				type = TokenType.NUMBER;
 			} else if (ch == '"') {
-				actualPosition++;
-				if (previousToken.type != TokenType.STRING) {
-					ch = input.charAt(actualPosition);
-					while (ch != '"') {
-						token.append(input.charAt(actualPosition++));
-						ch = actualPosition == input.length() ? 0 : input.charAt(actualPosition);
-					}
-					token.type = TokenType.STRING;
-				} else {
-					return next();
+				start = ++actualPosition;
+				while (actualPosition < input.length() && input.charAt(actualPosition) != '"') {
+					actualPosition++;
 				}
-			} else if (Character.isLetter(ch) || firstVarChars.indexOf(ch) >= 0) {
-				while (actualPosition < input.length() && (Character.isLetter(ch) || Character.isDigit(ch)
-						|| token.isEmpty() && firstVarChars.indexOf(ch) >= 0)) {
-					token.append(input.charAt(actualPosition++));
-					ch = actualPosition == input.length() ? 0 : input.charAt(actualPosition);
+				end = actualPosition;
+				if (actualPosition < input.length()) {
+					// closing quote
+					actualPosition++;
 				}
-				if (isSpace(ch)) {
-					while (actualPosition < input.length() && isSpace(ch)) {
-						ch = input.charAt(actualPosition++);
-					}
-					actualPosition--;
+				type = TokenType.STRING;
+			} else if (lexicon.isLetter(ch) || lexicon.isFirstVariableCharacter(ch)) {
+				do {
+					ch = charAt(++actualPosition);
+				} while (lexicon.isLetterOrDigit(ch));
+				end = actualPosition;
+				while (actualPosition < input.length() && lexicon.isSpace(ch)) {
+					ch = charAt(++actualPosition);
+				}
+				if (lexicon.isOperator(input, start, end) && (ch == '(' || followsOperand())) {
+					// word operator such as "and"
+					type = TokenType.OPERATOR;
+				} else {
+					type = ch == '(' ? TokenType.FUNCTION : TokenType.VARIABLE;
 				}
-				token.type = ch == '(' ? isFunctionOrOperator(token.surface) : TokenType.VARIABLE;
 			} else if (ch == '(' || ch == ')' || ch == ',') {
 				if (ch == '(') {
-					token.type = TokenType.OPEN_BRACKET;
+					type = TokenType.OPEN_BRACKET;
 				} else if (ch == ')') {
-					token.type = TokenType.CLOSE_BRACKET;
+					type = TokenType.CLOSE_BRACKET;
 				} else {
-					token.type = TokenType.COMMA;
+					type = TokenType.COMMA;
 				}
-				token.append(ch);
-				actualPosition++;
+				end = ++actualPosition;
 			} else {
-				String greedyMatch = "";
-				int initialPos = actualPosition;
-				ch = input.charAt(actualPosition);
-				int validOperatorSeenUntil = -1;
-				while (!Character.isLetter(ch) && !Character.isDigit(ch) && firstVarChars.indexOf(ch) < 0
-						&& !Character.isWhitespace(ch) && ch != '(' && ch != ')' && ch != ','
-						&& (actualPosition < input.length())) {
-					greedyMatch += ch;
-					actualPosition++;
-					if (operators.containsKey(greedyMatch)) {
-						validOperatorSeenUntil = actualPosition;
-					}
-					ch = actualPosition == input.length() ? 0 : input.charAt(actualPosition);
+				while (actualPosition < input.length() && lexicon.isOperatorCharacter(ch)) {
+					ch = charAt(++actualPosition);
 				}
-				if (validOperatorSeenUntil != -1) {
-					token.append(input.substring(initialPos, validOperatorSeenUntil));
-					actualPosition = validOperatorSeenUntil;
-				} else {
-					token.append(greedyMatch);
-				}
-				if (previousToken == null || previousToken.type == TokenType.OPERATOR
-						|| previousToken.type == TokenType.OPEN_BRACKET || previousToken.type == TokenType.COMMA) {
-					token.surface += "u";
-					token.type = TokenType.UNARY_OPERATOR;
-				} else {
-					token.type = TokenType.OPERATOR;
+				end = actualPosition;
+				int operatorEnd = lexicon.matchOperator(input, start, end);
+				if (operatorEnd != -1) {
+					end = operatorEnd;
 				}
+				actualPosition = end;
+				type = followsOperand() ? TokenType.OPERATOR : TokenType.UNARY_OPERATOR;
 			}
-			return previousToken = token;
+			return previousToken = new Token(type, input, start, end);
 		}
 
-		private TokenType isFunctionOrOperator(String name) {
-			return operators.containsKey(name) ? TokenType.OPERATOR : TokenType.FUNCTION;
+		private boolean followsOperand() {
+			return previousToken != null && previousToken.type != TokenType.OPERATOR
+					&& previousToken.type != TokenType.UNARY_OPERATOR && previousToken.type != TokenType.OPEN_BRACKET
+					&& previousToken.type != TokenType.COMMA && previousToken.type != TokenType.FUNCTION;
 		}
 
 		@Override
@@ -249,369 +237,31 @@ public class Expression {
 	}
 
 	public Expression(String expression) {
-		this.originalExpression = expression;
-		initializeVariable();
-		initializeFunction();
-		initializeOperator();
-		initializeUnaryOperator();
-	}
-
-	protected void initializeVariable() {
-		setVariable("false", BigDecimal.ZERO);
-		setVariable("true", BigDecimal.ONE);
-		setVariable("pi", BigDecimal.valueOf(Math.PI));
-		setVariable("e", BigDecimal.valueOf(Math.E));
-	}
-
-	protected void initializeFunction() {
-		initializeBooleanFunction();
-		initializeMathematicalFunction();
-		initializeTrigonometricFunction();
-	}
-
-	protected void initializeBooleanFunction() {
-		addFunction(new AbstractFunction(this, "if", 3) {
-			@Override
-			protected Object doEval(List<Operand> operands) {
-				return Utils.getAndAssertNotNullOperandAtIndex(this, operands, 0, Boolean.class)
-						? operands.get(1).getValue()
-						: operands.get(2).getValue();
-			}
-		});
-		addFunction(new AbstractFunction(this, "not", 1) {
-			@Override
-			protected Object doEval(List<Operand> operands) {
-				return !Utils.getAndAssertNotNullOperandAtIndex(this, operands, 0, Boolean.class);
-			}
-		});
-	}
-
-	protected void initializeMathematicalFunction() {
-		addFunction(new AbstractFunction(this, "max", -1) {
-			@Override
-			protected Object doEval(List<Operand> operands) {
-				Utils.assertAtLeastOneOperand(this, operands);
-				return IntStream.range(0, operands.size()).mapToObj(
-						index -> Utils.getAndAssertNotNullOperandAtIndex(this, operands, index, BigDecimal.class))
-						.max(Comparator.naturalOrder()).get();
-			}
-		});
-		addFunction(new AbstractFunction(this, "min", -1) {
-			@Override
-			protected Object doEval(List<Operand> operands) {
-				Utils.assertAtLeastOneOperand(this, operands);
-				return IntStream.range(0, operands.size()).mapToObj(
-						index -> Utils.getAndAssertNotNullOperandAtIndex(this, operands, index, BigDecimal.class))
-						.min(Comparator.naturalOrder()).get();
-			}
-		});
-	}
-
-	protected void initializeTrigonometricFunction() {
-		addFunction(new AbstractFunction(this, "sin", 1) {
-			@Override
-			protected Object doEval(List<Operand> operands) {
-				return new BigDecimal(Math.sin(
-						Utils.getAndAssertNotNullOperandAtIndex(this, operands, 0, BigDecimal.class).doubleValue()));
-			}
-		});
-	}
-
-	protected void initializeOperator() {
-		addOperator(new AbstractOperator(this, "+", OPERATOR_PRECEDENCE_ADDITIVE, true) {
-			@Override
-			public Object doEval(Operand leftOperand, Operand rightOperand) {
-				return leftOperand.getValue(BigDecimal.class).add(rightOperand.getValue(BigDecimal.class));
-			}
-		});
-		addOperator(new AbstractOperator(this, "-", OPERATOR_PRECEDENCE_ADDITIVE, true) {
-			@Override
-			protected Object doEval(Operand leftOperand, Operand rightOperand) {
-				return leftOperand.getValue(BigDecimal.class).subtract(rightOperand.getValue(BigDecimal.class));
-			}
-		});
-		addOperator(new AbstractOperator(this, "*", OPERATOR_PRECEDENCE_MULTIPLICATIVE, true) {
-			@Override
-			protected Object doEval(Operand leftOperand, Operand rightOperand) {
-				return leftOperand.getValue(BigDecimal.class).multiply(rightOperand.getValue(BigDecimal.class));
-			}
-		});
-		addOperator(new AbstractOperator(this, "/", OPERATOR_PRECEDENCE_MULTIPLICATIVE, true) {
-			@Override
-			protected Object doEval(Operand leftOperand, Operand rightOperand) {
-				return leftOperand.getValue(BigDecimal.class).divide(rightOperand.getValue(BigDecimal.class));
-			}
-		});
-		// addOperator(new AbstractOperator<BigDecimal>("/",
-		// OPERATOR_PRECEDENCE_MULTIPLICATIVE, true) {
-		//
-		// @Override
-		// public BigDecimal doEval(Operand<?> leftOperand, Operand<?> rightOperand) {
-		// return
-		// leftOperand.getValue(BigDecimal.class).divide(rightOperand.getValue(BigDecimal.class));
-		// }
-		//
-		// });
-		// addOperator(new AbstractOperator<BigDecimal>("%",
-		// OPERATOR_PRECEDENCE_MULTIPLICATIVE, true) {
-		//
-		// @Override
-		// public BigDecimal doEval(Operand<?> leftOperand, Operand<?> rightOperand) {
-		// return
-		// leftOperand.getValue(BigDecimal.class).remainder(rightOperand.getValue(BigDecimal.class));
-		// }
-		//
-		// });
-		// addOperator(new AbstractOperator<BigDecimal>("^", OPERATOR_PRECEDENCE_POWER,
-		// false) {
-		//
-		// @Override
-		// public BigDecimal doEval(Operand<?> leftOperand, Operand<?> rightOperand) {
-		// /*-
-		// * Thanks to Gene Marin:
-		// *
-		// http://stackoverflow.com/questions/3579779/how-to-do-a-fractional-power-on-bigdecimal-in-java
-		// */
-		// BigDecimal v1 = leftOperand.getValue(BigDecimal.class);
-		// BigDecimal v2 = leftOperand.getValue(BigDecimal.class);
-		// int signOf2 = v2.signum();
-		// double dn1 = v1.doubleValue();
-		// v2 = v2.multiply(new BigDecimal(signOf2)); // n2 is now positive
-		// BigDecimal remainderOf2 = v2.remainder(BigDecimal.ONE);
-		// BigDecimal n2IntPart = v2.subtract(remainderOf2);
-		// BigDecimal intPow = v1.pow(n2IntPart.intValueExact());
-		// BigDecimal doublePow = new BigDecimal(Math.pow(dn1,
-		// remainderOf2.doubleValue()));
-		//
-		// BigDecimal result = intPow.multiply(doublePow);
-		// if (signOf2 == -1) {
-		// result = BigDecimal.ONE.divide(result, RoundingMode.HALF_UP);
-		// }
-		// return result;
-		// }
-		// });
-		// addOperator(new AbstractOperator<Boolean>("and", OPERATOR_PRECEDENCE_AND,
-		// false) {
-		//
-		// @Override
-		// public Operand<Boolean> lazyEval(Operand<?> leftLazyOperand, Operand<?>
-		// rightLazyOperand) {
-		// Boolean result = Boolean.TRUE.equals(leftLazyOperand.getValue(Boolean.class))
-		// && Boolean.TRUE.equals(rightLazyOperand.getValue(Boolean.class));
-		// return operandFactory.createOperand(this, leftLazyOperand, rightLazyOperand,
-		// result);
-		// }
-		//
-		// });
-		// addOperator(new AbstractOperator<Boolean>("&&", OPERATOR_PRECEDENCE_AND,
-		// false) {
-		//
-		// @Override
-		// public Operand<Boolean> lazyEval(Operand<?> leftLazyOperand, Operand<?>
-		// rightLazyOperand) {
-		// return (Operand<Boolean>) operators.get("and").lazyEval(leftLazyOperand,
-		// rightLazyOperand);
-		// }
-		//
-		// });
-		// addOperator(new AbstractOperator<Boolean>("or", OPERATOR_PRECEDENCE_OR,
-		// false) {
-		//
-		// @Override
-		// public Operand<Boolean> lazyEval(Operand<?> leftLazyOperand, Operand<?>
-		// rightLazyOperand) {
-		// Boolean result = Boolean.TRUE.equals(leftLazyOperand.getValue(Boolean.class))
-		// || Boolean.TRUE.equals(rightLazyOperand.getValue(Boolean.class));
-		// return operandFactory.createOperand(this, leftLazyOperand, rightLazyOperand,
-		// result);
-		// }
-		//
-		// });
-		// addOperator(new AbstractOperator<Boolean>("||", OPERATOR_PRECEDENCE_AND,
-		// false) {
-		//
-		// @Override
-		// public Operand<Boolean> lazyEval(Operand<?> leftLazyOperand, Operand<?>
-		// rightLazyOperand) {
-		// return (Operand<Boolean>) operators.get("or").lazyEval(leftLazyOperand,
-		// rightLazyOperand);
-		// }
-		//
-		// });
-		// addOperator(new AbstractOperator<Boolean>("==", OPERATOR_PRECEDENCE_EQUALITY,
-		// false) {
-		//
-		// @Override
-		// public Operand<Boolean> eval(Operand<?> leftOperand, Operand<?> rightOperand)
-		// {
-		// return (Operand<Boolean>) operators.get("=").eval(leftOperand, rightOperand);
-		// }
-		//
-		// });
-		// addOperator(new AbstractOperator<Boolean>("!=", OPERATOR_PRECEDENCE_EQUALITY,
-		// false) {
-		//
-		// @Override
-		// public Operand<Boolean> eval(Operand<?> leftOperand, Operand<?> rightOperand)
-		// {
-		// BigDecimal v1 = leftOperand.getValue(BigDecimal.class);
-		// BigDecimal v2 = rightOperand.getValue(BigDecimal.class);
-		// Boolean result = null;
-		// if (v1 == v2) {
-		// result = Boolean.FALSE;
-		// } else if (v1 == null || v2 == null) {
-		// result = Boolean.TRUE;
-		// } else {
-		// result = Boolean.valueOf(v1.compareTo(v2) != 0);
-		// }
-		// return operandFactory.createOperand(this, leftOperand, rightOperand, result);
-		// }
-		//
-		// });
-		// addOperator(new AbstractOperator<Boolean>("<>", OPERATOR_PRECEDENCE_EQUALITY,
-		// false) {
-		//
-		// @Override
-		// public Operand<Boolean> eval(Operand<?> leftOperand, Operand<?> rightOperand)
-		// {
-		// return (Operand<Boolean>) operators.get("!=").eval(leftOperand,
-		// rightOperand);
-		// }
-		//
-		// });
-		// addOperator(new AbstractOperator<Boolean>(">",
-		// OPERATOR_PRECEDENCE_COMPARISON, false) {
-		// @Override
-		// public Operand<Boolean> eval(Operand<?> leftOperand, Operand<?> rightOperand)
-		// {
-		// BigDecimal v1 = leftOperand.getValue(BigDecimal.class);
-		// BigDecimal v2 = rightOperand.getValue(BigDecimal.class);
-		// Boolean result = Boolean.valueOf(v1.compareTo(v2) == 1);
-		// return operandFactory.createOperand(this, leftOperand, rightOperand, result);
-		// }
-		// });
-		// addOperator(new AbstractOperator<Boolean>(">=",
-		// OPERATOR_PRECEDENCE_COMPARISON, false) {
-		// @Override
-		// public Operand<Boolean> eval(Operand<?> leftOperand, Operand<?> rightOperand)
-		// {
-		// BigDecimal v1 = leftOperand.getValue(BigDecimal.class);
-		// BigDecimal v2 = rightOperand.getValue(BigDecimal.class);
-		// Boolean result = Boolean.valueOf(v1.compareTo(v2) >= 0);
-		// return operandFactory.createOperand(this, leftOperand, rightOperand, result);
-		// }
-		// });
-		// addOperator(new AbstractOperator<Boolean>("<",
-		// OPERATOR_PRECEDENCE_COMPARISON, false) {
-		// @Override
-		// public Operand<Boolean> eval(Operand<?> leftOperand, Operand<?> rightOperand)
-		// {
-		// BigDecimal v1 = leftOperand.getValue(BigDecimal.class);
-		// BigDecimal v2 = rightOperand.getValue(BigDecimal.class);
-		// Boolean result = Boolean.valueOf(v1.compareTo(v2) == -1);
-		// return operandFactory.createOperand(this, leftOperand, rightOperand, result);
-		// }
-		// });
-		// addOperator(new AbstractOperator<Boolean>("<=",
-		// OPERATOR_PRECEDENCE_COMPARISON, false) {
-		// @Override
-		// public Operand<Boolean> eval(Operand<?> leftOperand, Operand<?> rightOperand)
-		// {
-		// BigDecimal v1 = leftOperand.getValue(BigDecimal.class);
-		// BigDecimal v2 = rightOperand.getValue(BigDecimal.class);
-		// Boolean result = Boolean.valueOf(v1.compareTo(v2) <= 0);
-		// return operandFactory.createOperand(this, leftOperand, rightOperand, result);
-		// }
-		// });
-		initializeBooleanOperator();
+		this(expression, ExpressionContext.DEFAULT);
 	}
 
-	protected void initializeBooleanOperator() {
-		addOperator(new AbstractOperator(this, "=", OPERATOR_PRECEDENCE_EQUALITY, false) {
-			@Override
-			protected Object doEval(Operand leftOperand, Operand rightOperand) {
-				return Utils.equals(leftOperand, rightOperand);
-			}
-		});
-		addOperator(new ProxyOperator("==", operators.get("=")));
-		addOperator(new AbstractOperator(this, "!=", OPERATOR_PRECEDENCE_EQUALITY, false) {
-			@Override
-			protected Object doEval(Operand leftOperand, Operand rightOperand) {
-				return !Utils.equals(leftOperand, rightOperand);
-			}
-		});
-		addOperator(new ProxyOperator("<>", operators.get("!=")));
-		addOperator(new AbstractOperator(this, "&&", OPERATOR_PRECEDENCE_AND, false) {
-			@Override
-			protected Object doEval(Operand leftOperand, Operand rightOperand) {
-				Boolean leftValue = Utils.getAndAssertNotNullLeftOperand(this, leftOperand, Boolean.class);
-				Boolean rightValue = Utils.getAndAssertNotNullRightOperand(this, rightOperand, Boolean.class);
-				return leftValue.booleanValue() && rightValue.booleanValue();
-			}
-		});
-		addOperator(new ProxyOperator("and", operators.get("&&")));
-		addOperator(new AbstractOperator(this, "||", OPERATOR_PRECEDENCE_OR, false) {
-			@Override
-			protected Object doEval(Operand leftOperand, Operand rightOperand) {
-				Boolean leftValue = Utils.getAndAssertNotNullLeftOperand(this, leftOperand, Boolean.class);
-				Boolean rightValue = Utils.getAndAssertNotNullRightOperand(this, rightOperand, Boolean.class);
-				return leftValue.booleanValue() || rightValue.booleanValue();
-			}
-		});
-		addOperator(new ProxyOperator("or", operators.get("&&")));
-		addOperator(new AbstractOperator(this, "<", OPERATOR_PRECEDENCE_COMPARISON, false) {
-			@Override
-			protected Object doEval(Operand leftOperand, Operand rightOperand) {
-				BigDecimal leftValue = Utils.getAndAssertNotNullLeftOperand(this, leftOperand, BigDecimal.class);
-				BigDecimal rightValue = Utils.getAndAssertNotNullRightOperand(this, rightOperand, BigDecimal.class);
-				return leftValue.compareTo(rightValue) == -1;
-			}
-		});
-		addOperator(new AbstractOperator(this, ">", OPERATOR_PRECEDENCE_COMPARISON, false) {
-			@Override
-			protected Object doEval(Operand leftOperand, Operand rightOperand) {
-				BigDecimal leftValue = Utils.getAndAssertNotNullLeftOperand(this, leftOperand, BigDecimal.class);
-				BigDecimal rightValue = Utils.getAndAssertNotNullRightOperand(this, rightOperand, BigDecimal.class);
-				return leftValue.compareTo(rightValue) == 1;
-			}
-		});
-		addOperator(new AbstractOperator(this, "<=", OPERATOR_PRECEDENCE_COMPARISON, false) {
-			@Override
-			protected Object doEval(Operand leftOperand, Operand rightOperand) {
-				BigDecimal leftValue = Utils.getAndAssertNotNullLeftOperand(this, leftOperand, BigDecimal.class);
-				BigDecimal rightValue = Utils.getAndAssertNotNullRightOperand(this, rightOperand, BigDecimal.class);
-				return leftValue.compareTo(rightValue) != 1;
-			}
-		});
-		addOperator(new AbstractOperator(this, ">=", OPERATOR_PRECEDENCE_COMPARISON, false) {
-			@Override
-			protected Object doEval(Operand leftOperand, Operand rightOperand) {
-				BigDecimal leftValue = Utils.getAndAssertNotNullLeftOperand(this, leftOperand, BigDecimal.class);
-				BigDecimal rightValue = Utils.getAndAssertNotNullRightOperand(this, rightOperand, BigDecimal.class);
-				return leftValue.compareTo(rightValue) != -1;
-			}
-		});
+	public Expression(String expression, ExpressionContext context) {
+		this.originalExpression = expression;
+		this.context = context;
 	}
 
-	protected void initializeUnaryOperator() {
-		addUnaryOperator(new AbstractUnaryOperator(this, "-", OPERATOR_PRECEDENCE_UNARY) {
-			@Override
-			protected Object doEval(Operand operand) {
-				return Utils.getAndAssertNotNullOperand(this, operand, BigDecimal.class).multiply(new BigDecimal(-1));
-			}
-		});
-		addUnaryOperator(new AbstractUnaryOperator(this, "+", OPERATOR_PRECEDENCE_UNARY) {
-			@Override
-			protected Object doEval(Operand operand) {
-				return Utils.getAndAssertNotNullOperand(this, operand, BigDecimal.class);
-			}
-		});
+	/**
+	 * Gives the context this expression is compiled against. The operators,
+	 * functions and constants added to this expression since the context was
+	 * last built are applied first, all at once.
+	 */
+	public ExpressionContext getContext() {
+		if (contextChanges != null) {
+			context = contextChanges.build();
+			contextChanges = null;
+		}
+		return context;
 	}
 
-	private List<Token> shuntingYard(String expression) {
+	static List<Token> shuntingYard(String expression, ExpressionContext context) {
 		List<Token> outputQueue = new ArrayList<>();
 		Stack<Token> stack = new Stack<>();
-		Tokenizer tokenizer = new Tokenizer(expression);
+		Tokenizer tokenizer = new Tokenizer(expression, context);
 		Token lastFunction = null;
 		Token previousToken = null;
 		while (tokenizer.hasNext()) {
@@ -648,12 +298,12 @@ public class Expression {
 					throw new LitExpException(
 							"Missing parameter(s) for operator " + token + " at character position " + token.end);
 				}
-				Operator o1 = operators.get(token.surface);
+				Operator o1 = context.getOperator(token.surface());
 				if (o1 == null) {
 					throw new LitExpException("Unknown operator '" + token + "' at position " + (token.end + 1));
 				}
 
-				shuntOperators(outputQueue, stack, o1);
+				shuntOperators(outputQueue, stack, o1.getPrecedence(), o1.isLeftAssociative(), context);
 				stack.push(token);
 				break;
 			}
@@ -663,14 +313,13 @@ public class Expression {
 					throw new LitExpException(
 							"Invalid position for unary operator " + token + " at character position " + token.end);
 				}
-				UnaryOperator o1 = unaryOperators.get(token.surface);
+				UnaryOperator o1 = context.getUnaryOperator(token.surface());
 				if (o1 == null) {
 					throw new LitExpException(
-							"Unknown unary operator '" + token.surface.substring(0, token.surface.length() - 1)
-									+ "' at position " + (token.end + 1));
+							"Unknown unary operator '" + token.surface() + "' at position " + (token.end + 1));
 				}
 
-				shuntOperators(outputQueue, stack, o1);
+				shuntOperators(outputQueue, stack, o1.getPrecedence(), true, context);
 				stack.push(token);
 				break;
 			}
@@ -679,10 +328,7 @@ public class Expression {
 					if (previousToken.type == TokenType.NUMBER || previousToken.type == TokenType.CLOSE_BRACKET
 							|| previousToken.type == TokenType.VARIABLE) {
 						// Implicit multiplication, e.g. 23(a+b) or (a+b)(a-b)
-						Token multiplication = new Token();
-						multiplication.append("*");
-						multiplication.type = TokenType.OPERATOR;
-						stack.push(multiplication);
+						stack.push(new Token(TokenType.OPERATOR, "*", 0, 1));
 					}
 					// if the ( is preceded by a valid function, then it
 					// denotes the start of a parameter list
@@ -720,95 +366,30 @@ public class Expression {
 		return outputQueue;
 	}
 
-	private void shuntOperators(List<Token> outputQueue, Stack<Token> stack, Operator o1) {
-		Expression.Token nextToken = stack.isEmpty() ? null : stack.peek();
+	private static void shuntOperators(List<Token> outputQueue, Stack<Token> stack, int precedence,
+			boolean leftAssociative, ExpressionContext context) {
+		Token nextToken = stack.isEmpty() ? null : stack.peek();
 		while (nextToken != null
-				&& (nextToken.type == Expression.TokenType.OPERATOR
-						|| nextToken.type == Expression.TokenType.UNARY_OPERATOR)
-				&& ((o1.isLeftAssociative() && o1.getPrecedence() <= operators.get(nextToken.surface).getPrecedence())
-						|| (o1.getPrecedence() < operators.get(nextToken.surface).getPrecedence()))) {
+				&& (nextToken.type == TokenType.OPERATOR || nextToken.type == TokenType.UNARY_OPERATOR)
+				&& ((leftAssociative && precedence <= getPrecedence(nextToken, context))
+						|| (precedence < getPrecedence(nextToken, context)))) {
 			outputQueue.add(stack.pop());
 			nextToken = stack.isEmpty() ? null : stack.peek();
 		}
 	}
 
-	private void shuntOperators(List<Token> outputQueue, Stack<Token> stack, UnaryOperator o1) {
-		Expression.Token nextToken = stack.isEmpty() ? null : stack.peek();
-		while (nextToken != null
-				&& (nextToken.type == Expression.TokenType.OPERATOR
-						|| nextToken.type == Expression.TokenType.UNARY_OPERATOR)
-				&& ((o1.getPrecedence() <= operators.get(nextToken.surface).getPrecedence())
-						|| (o1.getPrecedence() < operators.get(nextToken.surface).getPrecedence()))) {
-			outputQueue.add(stack.pop());
-			nextToken = stack.isEmpty() ? null : stack.peek();
-		}
+	private static int getPrecedence(Token token, ExpressionContext context) {
+		return token.type == TokenType.UNARY_OPERATOR ? context.getUnaryOperator(token.surface()).getPrecedence()
+				: context.getOperator(token.surface()).getPrecedence();
 	}
 
 	/**
-	 * Evaluates the expression.
-	 * 
-	 * @param stripTrailingZeros
-	 *            If set to <code>true</code> trailing zeros in the result are
-	 *            stripped.
+	 * Evaluates the expression against the variables set on this instance.
 	 * 
 	 * @return The result of the expression.
 	 */
 	public Operand eval() {
-		Deque<Operand> stack = new ArrayDeque<>();
-		Operand result = null;
-		for (final Token token : getRPN()) {
-			switch (token.type) {
-			case UNARY_OPERATOR: {
-				Operand value = stack.pop();
-				result = unaryOperators.get(token.surface).eval(value);
-				stack.push(result);
-				break;
-			}
-			case OPERATOR:
-				Operand rightValue = stack.pop();
-				Operand leftValue = stack.pop();
-				result = operators.get(token.surface).eval(leftValue, rightValue);
-				stack.push(result);
-				break;
-			case VARIABLE:
-				result = operandFactory.createOperand(token, () -> {
-					if (!variables.containsKey(token.surface)) {
-						throw new LitExpException("Unknown variable: " + token);
-					}
-					return variables.get(token.surface).getValue();
-				});
-				stack.push(result);
-				break;
-			case FUNCTION:
-				Function function = functions.get(token.surface.toUpperCase(Locale.ROOT));
-				List<Operand> arguments = new ArrayList<>(
-						function.isVariableArguments() ? 0 : function.getNumberArguments());
-				while (!stack.isEmpty() && stack.peek() != PARAMS_START) {
-					arguments.add(0, stack.pop());
-				}
-				if (stack.peek() == PARAMS_START) {
-					stack.pop();
-				}
-				result = function.eval(arguments);
-				stack.push(result);
-				break;
-			case OPEN_BRACKET:
-				stack.push(PARAMS_START);
-				break;
-			case NUMBER:
-				result = operandFactory.createOperand(token, () -> token.surface);
-				stack.push(result);
-				break;
-			case STRING:
-				result = operandFactory.createOperand(token, () -> token.surface);
-				stack.push(result);
-				break;
-			default:
-				throw new LitExpException(
-						"Unexpected token '" + token.surface + "' at character position " + token.end);
-			}
-		}
-		return stack.pop();
+		return compile().eval(variables);
 	}
 
 	public <T> T eval(Class<T> resultClass) {
@@ -816,32 +397,73 @@ public class Expression {
 	}
 
 	public Expression setFirstVariableCharacters(String chars) {
-		this.firstVarChars = chars;
+		changeContext().setFirstVariableCharacters(chars);
 		return this;
 	}
 
+	/**
+	 * Adds an operator to this expression only. Like every other change of the
+	 * context of this expression, it is staged until the expression is next
+	 * compiled, so that configuring an expression builds its context once.
+	 * 
+	 * @return The operator previously registered under the same name, if any.
+	 */
 	public Operator addOperator(Operator operator) {
-		return operators.put(operator.getOperator(), operator);
+		ExpressionContext.Builder changes = changeContext();
+		Operator previous = changes.getOperator(operator.getOperator());
+		changes.addOperator(operator);
+		return previous;
 	}
 
 	public UnaryOperator addUnaryOperator(UnaryOperator unaryOperator) {
-		return unaryOperators.put(unaryOperator.getOperator() + "u", unaryOperator);
+		ExpressionContext.Builder changes = changeContext();
+		UnaryOperator previous = changes.getUnaryOperator(unaryOperator.getOperator());
+		changes.addUnaryOperator(unaryOperator);
+		return previous;
 	}
 
 	public Function addFunction(Function function) {
-		return functions.put(function.getName(), function);
+		ExpressionContext.Builder changes = changeContext();
+		Function previous = changes.getFunction(function.getName());
+		changes.addFunction(function);
+		return previous;
+	}
+
+	public Object addConstant(String name, Object value) {
+		ExpressionContext.Builder changes = changeContext();
+		Object previous = changes.getConstant(name);
+		changes.addConstant(name, value);
+		return previous;
 	}
 
 	public void setOperandFactory(OperandFactory operandFactory) {
-		this.operandFactory = operandFactory;
+		changeContext().setOperandFactory(operandFactory);
 	}
 
 	public OperandFactory getOperandFactory() {
-		return operandFactory;
+		return getContext().getOperandFactory();
 	}
 
+	private ExpressionContext.Builder changeContext() {
+		if (contextChanges == null) {
+			contextChanges = context.toBuilder().setCache(null);
+		}
+		compiledExpression = null;
+		return contextChanges;
+	}
+
+	/**
+	 * Sets the value of a variable. Setting a constant of the context, such as
+	 * <code>pi</code>, overrides it for this expression only: the expression is
+	 * compiled once more, reading the constant like a variable, and any later
+	 * value is a mere binding.
+	 */
 	public Expression setVariable(String variable, Object value) {
-		variables.put(variable, operandFactory.createOperand(() -> value));
+		if ((contextChanges != null ? contextChanges.hasConstant(variable) : context.hasConstant(variable))
+				&& boundConstants.add(ExpressionContext.normalize(variable))) {
+			compiledExpression = null;
+		}
+		variables.set(variable, value);
 		return this;
 	}
 
@@ -850,20 +472,29 @@ public class Expression {
 	}
 
 	public Iterator<Token> getExpressionTokenizer() {
-		return new Tokenizer(originalExpression);
+		return new Tokenizer(originalExpression, getContext());
 	}
 
 	/**
-	 * Cached access to the RPN notation of this expression, ensures only one
+	 * Cached access to the compiled form of this expression, ensures only one
 	 * calculation of the RPN per expression instance. If no cached instance exists,
-	 * a new one will be created and put to the cache.
+	 * a new one will be created and put to the cache. The cache is dropped whenever
+	 * the context of this expression changes.
+	 * <p>
+	 * The returned {@link CompiledExpression} is immutable and can be evaluated by
+	 * any number of threads at once with their own {@link Bindings}.
 	 * 
-	 * @return The cached RPN instance.
+	 * @return The cached compiled expression.
 	 */
-	private List<Token> getRPN() {
-		List<Token> rpn = shuntingYard(originalExpression);
-		validate(rpn);
-		return rpn;
+	public CompiledExpression compile() {
+		CompiledExpression compiled = compiledExpression;
+		if (compiled == null) {
+			ExpressionContext context = getContext();
+			compiled = boundConstants.isEmpty() ? context.compile(originalExpression)
+					: context.parse(originalExpression, boundConstants);
+			compiledExpression = compiled;
+		}
+		return compiled;
 	}
 
 	/**
@@ -871,7 +502,7 @@ public class Expression {
 	 * requirements of the operators and functions, also check for only 1 result
 	 * stored at the end of the evaluation.
 	 */
-	private void validate(List<Token> rpn) {
+	static List<Token> validate(List<Token> rpn, ExpressionContext context) {
 		Stack<Integer> stack = new Stack<>();
 		stack.push(0);
 		for (final Token token : rpn) {
@@ -889,7 +520,7 @@ public class Expression {
 				stack.set(stack.size() - 1, stack.peek() - 2 + 1);
 				break;
 			case FUNCTION:
-				Function function = functions.get(token.surface.toUpperCase(Locale.ROOT));
+				Function function = context.getFunction(token.surface());
 				if (function == null) {
 					throw new LitExpException("Unknown function '" + token + "' at position " + (token.end + 1));
 				}
@@ -919,6 +550,7 @@ public class Expression {
 		} else if (stack.peek() < 1) {
 			throw new LitExpException("Empty expression");
 		}
+		return rpn;
 	}
 
 	/**
@@ -928,18 +560,7 @@ public class Expression {
 	 * @return A string with the RPN representation for this expression.
 	 */
 	public String toRPN() {
-		StringBuilder result = new StringBuilder();
-		for (Token t : getRPN()) {
-			if (result.length() != 0) {
-				result.append(" ");
-			}
-			result.append(t.toString());
-		}
-		return result.toString();
-	}
-
-	private static boolean isSpace(char c) {
-		return ' ' == c || '\u00A0' == c;
+		return compile().toRPN();
 	}
 
 	public static class LitExpException extends RuntimeException {
@@ -1028,6 +649,34 @@ public class Expression {
 
 		Operand eval(List<Operand> operands);
 
+		/**
+		 * Tells whether the function always gives the same result for the same
+		 * operands and has no side effect, in which case it may be evaluated once at
+		 * compile time when its operands are constant.
+		 */
+		default boolean isPure() {
+			return false;
+		}
+
+		/**
+		 * Tells whether the function may leave some of its operands unevaluated,
+		 * as <code>if</code> does. Operands are lazy: their value is only computed
+		 * when {@link Operand#getValue()} is called. A lazy function is given
+		 * operands that are still unevaluated by every evaluation mode, so that
+		 * the ones it does not read cost nothing.
+		 */
+		default boolean isLazy() {
+			return false;
+		}
+
+		/**
+		 * Evaluates the function within the given context, which provides the
+		 * {@link OperandFactory} to use.
+		 */
+		default Operand eval(ExpressionContext context, List<Operand> operands) {
+			return eval(operands);
+		}
+
 	}
 
 	public static class ProxyFunction implements Function {
@@ -1056,11 +705,26 @@ public class Expression {
 			return function.isVariableArguments();
 		}
 
+		@Override
+		public boolean isPure() {
+			return function.isPure();
+		}
+
+		@Override
+		public boolean isLazy() {
+			return function.isLazy();
+		}
+
 		@Override
 		public Operand eval(List<Operand> operands) {
 			return function.eval(operands);
 		}
 
+		@Override
+		public Operand eval(ExpressionContext context, List<Operand> operands) {
+			return function.eval(context, operands);
+		}
+
 	}
 
 	public static abstract class AbstractFunction implements Function {
@@ -1069,6 +733,16 @@ public class Expression {
 
 		private String name;
 		private int numberArguments;
+		private boolean pure;
+
+		public AbstractFunction(String name, int numberArguments) {
+			this(name, numberArguments, false);
+		}
+
+		public AbstractFunction(String name, int numberArguments, boolean pure) {
+			this(null, name, numberArguments);
+			this.pure = pure;
+		}
 
 		public AbstractFunction(Expression litExp, String name, int numberArguments) {
 			this.litExp = litExp;
@@ -1086,9 +760,27 @@ public class Expression {
 			return numberArguments;
 		}
 
+		@Override
+		public boolean isPure() {
+			return pure;
+		}
+
 		@Override
 		public final Operand eval(List<Operand> operands) {
-			return litExp.getOperandFactory().createOperand(this, operands, () -> doEval(operands));
+			return eval(litExp != null ? litExp.getContext() : ExpressionContext.DEFAULT, operands);
+		}
+
+		@Override
+		public final Operand eval(ExpressionContext context, List<Operand> operands) {
+			return context.getOperandFactory().createOperand(this, operands, () -> doEval(context, operands));
+		}
+
+		/**
+		 * Computes the value of the function within the context it is evaluated in,
+		 * which gives the numeric settings to apply.
+		 */
+		protected Object doEval(ExpressionContext context, List<Operand> operands) {
+			return doEval(operands);
 		}
 
 		protected abstract Object doEval(List<Operand> operands);
@@ -1105,6 +797,35 @@ public class Expression {
 
 		Operand eval(Operand leftOperand, Operand rightOperand);
 
+		/**
+		 * Tells whether the operator always gives the same result for the same
+		 * operands and has no side effect, in which case it may be evaluated once at
+		 * compile time when its operands are constant.
+		 */
+		default boolean isPure() {
+			return false;
+		}
+
+		/**
+		 * Tells whether the operator may leave its right operand unevaluated, as
+		 * <code>&amp;&amp;</code> and <code>||</code> do when the left operand
+		 * decides the result. Operands are lazy: their value is only computed when
+		 * {@link Operand#getValue()} is called. A lazy operator is given operands
+		 * that are still unevaluated by every evaluation mode, so that the ones it
+		 * does not read cost nothing.
+		 */
+		default boolean isLazy() {
+			return false;
+		}
+
+		/**
+		 * Evaluates the operator within the given context, which provides the
+		 * {@link OperandFactory} to use.
+		 */
+		default Operand eval(ExpressionContext context, Operand leftOperand, Operand rightOperand) {
+			return eval(leftOperand, rightOperand);
+		}
+
 	}
 
 	public static class ProxyOperator implements Operator {
@@ -1133,11 +854,30 @@ public class Expression {
 			return operator.isLeftAssociative();
 		}
 
+		@Override
+		public boolean isPure() {
+			return operator.isPure();
+		}
+
+		@Override
+		public boolean isLazy() {
+			return operator.isLazy();
+		}
+
 		@Override
 		public Operand eval(Operand leftOperand, Operand rightOperand) {
 			return operator.eval(leftOperand, rightOperand);
 		}
 
+		@Override
+		public Operand eval(ExpressionContext context, Operand leftOperand, Operand rightOperand) {
+			if (operator instanceof AbstractOperator) {
+				// the operand is created for the operator as written, not for its delegate
+				return ((AbstractOperator) operator).eval(context, this, leftOperand, rightOperand);
+			}
+			return operator.eval(context, leftOperand, rightOperand);
+		}
+
 	}
 
 	public static abstract class AbstractOperator implements Operator {
@@ -1147,6 +887,16 @@ public class Expression {
 		private String operator;
 		private int precedence;
 		private boolean leftAssociative;
+		private boolean pure;
+
+		public AbstractOperator(String operator, int precedence, boolean leftAssociative) {
+			this(operator, precedence, leftAssociative, false);
+		}
+
+		public AbstractOperator(String operator, int precedence, boolean leftAssociative, boolean pure) {
+			this(null, operator, precedence, leftAssociative);
+			this.pure = pure;
+		}
 
 		public AbstractOperator(Expression litExp, String operator, int precedence, boolean leftAssociative) {
 			this.expression = litExp;
@@ -1170,10 +920,37 @@ public class Expression {
 			return leftAssociative;
 		}
 
+		@Override
+		public boolean isPure() {
+			return pure;
+		}
+
 		@Override
 		public final Operand eval(Operand leftOperand, Operand rightOperand) {
-			return expression.getOperandFactory().createOperand(this, leftOperand, rightOperand,
-					() -> doEval(leftOperand, rightOperand));
+			return eval(expression != null ? expression.getContext() : ExpressionContext.DEFAULT, leftOperand,
+					rightOperand);
+		}
+
+		@Override
+		public final Operand eval(ExpressionContext context, Operand leftOperand, Operand rightOperand) {
+			return eval(context, this, leftOperand, rightOperand);
+		}
+
+		/**
+		 * Evaluates the operator as the given one, such as a {@link ProxyOperator}
+		 * of it, which the operand is created for.
+		 */
+		final Operand eval(ExpressionContext context, Operator callee, Operand leftOperand, Operand rightOperand) {
+			return context.getOperandFactory().createOperand(callee, leftOperand, rightOperand,
+					() -> doEval(context, leftOperand, rightOperand));
+		}
+
+		/**
+		 * Computes the value of the operator within the context it is evaluated in,
+		 * which gives the numeric settings to apply.
+		 */
+		protected Object doEval(ExpressionContext context, Operand leftOperand, Operand rightOperand) {
+			return doEval(leftOperand, rightOperand);
 		}
 
 		protected abstract Object doEval(Operand leftOperand, Operand rightOperand);
@@ -1188,6 +965,23 @@ public class Expression {
 
 		Operand eval(Operand operand);
 
+		/**
+		 * Tells whether the unary operator always gives the same result for the same
+		 * operands and has no side effect, in which case it may be evaluated once at
+		 * compile time when its operands are constant.
+		 */
+		default boolean isPure() {
+			return false;
+		}
+
+		/**
+		 * Evaluates the unary operator within the given context, which provides the
+		 * {@link OperandFactory} to use.
+		 */
+		default Operand eval(ExpressionContext context, Operand operand) {
+			return eval(operand);
+		}
+
 	}
 
 	public static class ProxyUnaryOperator implements UnaryOperator {
@@ -1211,11 +1005,21 @@ public class Expression {
 			return unaryOperator.getPrecedence();
 		}
 
+		@Override
+		public boolean isPure() {
+			return unaryOperator.isPure();
+		}
+
 		@Override
 		public Operand eval(Operand operand) {
 			return unaryOperator.eval(operand);
 		}
 
+		@Override
+		public Operand eval(ExpressionContext context, Operand operand) {
+			return unaryOperator.eval(context, operand);
+		}
+
 	}
 
 	public static abstract class AbstractUnaryOperator implements UnaryOperator {
@@ -1224,6 +1028,16 @@ public class Expression {
 
 		private String operator;
 		private int precedence;
+		private boolean pure;
+
+		public AbstractUnaryOperator(String operator, int precedence) {
+			this(operator, precedence, false);
+		}
+
+		public AbstractUnaryOperator(String operator, int precedence, boolean pure) {
+			this(null, operator, precedence);
+			this.pure = pure;
+		}
 
 		public AbstractUnaryOperator(Expression litExp, String operator, int precedence) {
 			this.litExp = litExp;
@@ -1241,9 +1055,27 @@ public class Expression {
 			return precedence;
 		}
 
+		@Override
+		public boolean isPure() {
+			return pure;
+		}
+
 		@Override
 		public final Operand eval(Operand operand) {
-			return litExp.getOperandFactory().createOperand(this, operand, () -> doEval(operand));
+			return eval(litExp != null ? litExp.getContext() : ExpressionContext.DEFAULT, operand);
+		}
+
+		@Override
+		public final Operand eval(ExpressionContext context, Operand operand) {
+			return context.getOperandFactory().createOperand(this, operand, () -> doEval(context, operand));
+		}
+
+		/**
+		 * Computes the value of the unary operator within the context it is
+		 * evaluated in, which gives the numeric settings to apply.
+		 */
+		protected Object doEval(ExpressionContext context, Operand operand) {
+			return doEval(operand);
 		}
 
 		protected abstract Object doEval(Operand operand);
@@ -1256,6 +1088,14 @@ public class Expression {
 
 		Operand createOperand(Token token, Supplier<Object> valueSupplier);
 
+		/**
+		 * Creates the operand of a token whose value is already known, such as a
+		 * bound variable.
+		 */
+		default Operand createOperand(Token token, Object value) {
+			return createOperand(token, () -> value);
+		}
+
 		Operand createOperand(Function function, List<Operand> operands, Supplier<Object> valueSupplier);
 
 		Operand createOperand(Operator operator, Operand leftOperand, Operand rightOperand,
@@ -1269,6 +1109,10 @@ public class Expression {
 
 		private Expression expression;
 
+		public DefaultOperandFactory() {
+			this(null);
+		}
+
 		public DefaultOperandFactory(Expression expression) {
 			this.expression = expression;
 		}
@@ -1288,6 +1132,14 @@ public class Expression {
 			return createDefaultLazyOperand(valueSupplier);
 		}
 
+		@Override
+		public Operand createOperand(Token token, Object value) {
+			if (TokenType.VARIABLE == token.type) {
+				return createDefaultOperand(value);
+			}
+			return createOperand(token, () -> value);
+		}
+
 		@Override
 		public Operand createOperand(Function function, List<Operand> operands, Supplier<Object> valueSupplier) {
 			return createDefaultLazyOperand(valueSupplier);
@@ -1305,7 +1157,11 @@ public class Expression {
 		}
 
 		protected Operand createDefaultOperand(Supplier<Object> valueSupplier) {
-			return new AbstractOperand(expression, valueSupplier.get()) {
+			return createDefaultOperand(valueSupplier.get());
+		}
+
+		protected Operand createDefaultOperand(Object value) {
+			return new AbstractOperand(expression, value) {
 				@Override
 				public <U> U getValue(Class<U> valueClass) {
 					return adapt(getValue(), valueClass);
@@ -1339,29 +1195,35 @@ public class Expression {
 
 		public static <U> U getAndAssertNotNullOperandAtIndex(Function function, List<Operand> operands, int index,
 				Class<U> clazz) {
-			return assertNotNull(index >= 0 && index < operands.size() ? operands.get(index).getValue(clazz) : null,
-					"operand %d can't be null for function %s", index, function.getName());
+			U value = index >= 0 && index < operands.size() ? operands.get(index).getValue(clazz) : null;
+			if (value == null)
+				throw new LitExpException(String.format("operand %d can't be null for function %s", index,
+						function.getName()));
+			return value;
 		}
 
 		public static <U> U getAndAssertNotNullLeftOperand(Operator operator, Operand leftOperand, Class<U> clazz) {
-			return assertNotNull(leftOperand.getValue(clazz), "left operand can't be null for operator %s",
-					operator.getOperator());
+			U value = leftOperand.getValue(clazz);
+			if (value == null)
+				throw new LitExpException(
+						String.format("left operand can't be null for operator %s", operator.getOperator()));
+			return value;
 		}
 
 		public static <U> U getAndAssertNotNullRightOperand(Operator operator, Operand rightOperand, Class<U> clazz) {
-			return assertNotNull(rightOperand.getValue(clazz), "right operand can't be null for operator %s",
-					operator.getOperator());
+			U value = rightOperand.getValue(clazz);
+			if (value == null)
+				throw new LitExpException(
+						String.format("right operand can't be null for operator %s", operator.getOperator()));
+			return value;
 		}
 
 		public static <U> U getAndAssertNotNullOperand(UnaryOperator unaryOperator, Operand operand, Class<U> clazz) {
-			return assertNotNull(operand.getValue(clazz), "operand can't be null for unary operator %s",
-					unaryOperator.getOperator());
-		}
-
-		private static <U> U assertNotNull(U u, String message, Object... data) {
-			if (u == null)
-				throw new LitExpException(String.format(message, data));
-			return u;
+			U value = operand.getValue(clazz);
+			if (value == null)
+				throw new LitExpException(String.format("operand can't be null for unary operator %s",
+						unaryOperator.getOperator()));
+			return value;
 		}
 
 		public static <U> U adapt(Object value, Class<U> clazz) {
@@ -1380,6 +1242,12 @@ public class Expression {
 					return (U) (((Boolean) value).booleanValue() ? BigDecimal.ONE : BigDecimal.ZERO);
 				} else if (value instanceof String) {
 					return (U) new BigDecimal((String) value);
+				} else if (value instanceof Number && BigDecimal.class.equals(clazz)) {
+					if ((value instanceof Double || value instanceof Float)
+							&& !Double.isFinite(((Number) value).doubleValue())) {
+						throw new LitExpException(value + " can't be converted to a decimal");
+					}
+					return (U) new BigDecimal(value.toString());
 				}
 			} else if (String.class.equals(clazz)) {
 				return (U) Objects.toString(value);
@@ -0,0 +1,174 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.roisoleil.litexp.Expression.Operand;
+
+/**
+ * Immutable group of related expressions compiled together. The expressions
+ * read the same variable slots, and the subexpressions they have in common are
+ * computed once per evaluation, which gives the result of every expression.
+ */
+public final class ExpressionBatch {
+
+	private final List<String> expressions;
+
+	private final ExpressionContext context;
+
+	private final Node[] roots;
+
+	private final String[] slotNames;
+
+	private final int sharedCount;
+
+	ExpressionBatch(List<String> expressions, ExpressionContext context) {
+		this.expressions = Collections.unmodifiableList(new ArrayList<>(expressions));
+		this.context = context;
+		this.roots = new Node[expressions.size()];
+		Map<String, Integer> slotsByName = new LinkedHashMap<>();
+		for (int i = 0; i < roots.length; i++) {
+			String expression = expressions.get(i);
+			roots[i] = Optimizer.optimize(Node.build(
+					Expression.validate(Expression.shuntingYard(expression, context), context), context, slotsByName),
+					context);
+		}
+		this.sharedCount = CommonSubexpressions.share(roots);
+		this.slotNames = slotsByName.keySet().toArray(new String[slotsByName.size()]);
+	}
+
+	public ExpressionContext getContext() {
+		return context;
+	}
+
+	public List<String> getExpressions() {
+		return expressions;
+	}
+
+	public int size() {
+		return roots.length;
+	}
+
+	/**
+	 * Resolves a variable name to the slot its value is read from by
+	 * {@link #eval(Object[])}.
+	 * 
+	 * @param variable
+	 *            The case insensitive variable name.
+	 * 
+	 * @return The slot of the variable, or -1 if no expression of the batch reads
+	 *         it.
+	 */
+	public int slotOf(String variable) {
+		String name = ExpressionContext.normalize(variable);
+		for (int slot = 0; slot < slotNames.length; slot++) {
+			if (slotNames[slot].equals(name)) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	public int getSlotCount() {
+		return slotNames.length;
+	}
+
+	public List<String> getVariableNames() {
+		return Collections.unmodifiableList(Arrays.asList(slotNames));
+	}
+
+	/**
+	 * Creates a new array of slot values, in which every slot is unbound.
+	 * 
+	 * @return A new array of {@link #getSlotCount()} values.
+	 */
+	public Object[] newValues() {
+		Object[] values = new Object[slotNames.length];
+		Arrays.fill(values, Node.UNBOUND);
+		return values;
+	}
+
+	/**
+	 * Evaluates every expression of the batch.
+	 * 
+	 * @param bindings
+	 *            The variable values of this call.
+	 * 
+	 * @return The result of each expression, in the order of the batch.
+	 */
+	public List<Operand> eval(Bindings bindings) {
+		Object[] values = new Object[slotNames.length];
+		for (int slot = 0; slot < values.length; slot++) {
+			values[slot] = bindings.get(slotNames[slot], Node.UNBOUND);
+		}
+		return eval(values);
+	}
+
+	/**
+	 * Evaluates every expression of the batch against slot values, as given by
+	 * {@link #slotOf(String)}. The results are lazy operands, like those of a
+	 * single expression, and share the operands of their common subexpressions.
+	 * 
+	 * @param values
+	 *            The value of each slot, usually created by {@link #newValues()}.
+	 * 
+	 * @return The result of each expression, in the order of the batch.
+	 */
+	public List<Operand> eval(Object[] values) {
+		Node.Frame frame = new Node.Frame(context, values, sharedCount);
+		Operand[] results = new Operand[roots.length];
+		for (int i = 0; i < results.length; i++) {
+			results[i] = roots[i].eval(frame);
+		}
+		return Arrays.asList(results);
+	}
+
+	public <T> List<T> eval(Bindings bindings, Class<T> resultClass) {
+		return getValues(eval(bindings), resultClass);
+	}
+
+	public <T> List<T> eval(Object[] values, Class<T> resultClass) {
+		return getValues(eval(values), resultClass);
+	}
+
+	private static <T> List<T> getValues(List<Operand> operands, Class<T> resultClass) {
+		List<T> results = new ArrayList<>(operands.size());
+		for (Operand operand : operands) {
+			results.add(operand.getValue(resultClass));
+		}
+		return results;
+	}
+
+	@Override
+	public String toString() {
+		return expressions.toString();
+	}
+
+}
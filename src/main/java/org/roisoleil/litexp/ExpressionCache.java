@@ -0,0 +1,229 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.roisoleil.litexp.Expression.LitExpException;
+
+/**
+ * Thread-safe, size-bounded cache of {@link CompiledExpression}s, keyed by the
+ * expression text and the identity of the {@link ExpressionContext} it is
+ * compiled against. Every context uses {@link #DEFAULT} unless told otherwise,
+ * so that an expression text is parsed once per process however many
+ * {@link Expression}s are created for it. The contexts an {@link Expression}
+ * derives for its own operators, functions and constants use no cache: the
+ * expression keeps its compiled form itself.
+ * <p>
+ * Lookups are lock-free, and an expression is compiled outside of any lock of
+ * the map, so a slow compilation only holds back the callers waiting for the
+ * same expression. The least recently used entries are evicted first, as
+ * approximated by the CLOCK algorithm: an entry read since the eviction pointer
+ * last passed it is given a second chance.
+ */
+public final class ExpressionCache {
+
+	public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+	/**
+	 * The cache shared by the contexts that do not set their own.
+	 */
+	public static final ExpressionCache DEFAULT = new ExpressionCache(DEFAULT_MAXIMUM_SIZE);
+
+	private final int maximumSize;
+
+	private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * The entries in the order the eviction pointer visits them.
+	 */
+	private final ConcurrentLinkedQueue<Entry> clock = new ConcurrentLinkedQueue<>();
+
+	private final LongAdder hitCount = new LongAdder();
+
+	private final LongAdder missCount = new LongAdder();
+
+	private final LongAdder evictionCount = new LongAdder();
+
+	public ExpressionCache(int maximumSize) {
+		if (maximumSize <= 0) {
+			throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+		}
+		this.maximumSize = maximumSize;
+	}
+
+	/**
+	 * Gives the compiled form of an expression, compiling it if it is not cached
+	 * yet. Concurrent calls for the same expression compile it once; an
+	 * expression that fails to compile is not cached.
+	 * 
+	 * @param expression
+	 *            The expression to compile.
+	 * @param context
+	 *            The context to compile the expression against.
+	 * 
+	 * @return The compiled expression.
+	 */
+	public CompiledExpression get(String expression, ExpressionContext context) {
+		Key key = new Key(expression, context);
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			Entry created = new Entry(key, new FutureTask<>(() -> context.parse(expression)));
+			entry = entries.putIfAbsent(key, created);
+			if (entry == null) {
+				// compiled outside of the map, so that other keys are not blocked
+				missCount.increment();
+				created.compilation.run();
+				CompiledExpression compiledExpression = created.get();
+				clock.offer(created);
+				if (entries.size() > maximumSize) {
+					evict();
+				}
+				return compiledExpression;
+			}
+		}
+		entry.referenced = true;
+		hitCount.increment();
+		return entry.get();
+	}
+
+	private void evict() {
+		while (entries.size() > maximumSize) {
+			Entry entry = clock.poll();
+			if (entry == null) {
+				return;
+			}
+			if (entry.referenced) {
+				entry.referenced = false;
+				clock.offer(entry);
+			} else if (entries.remove(entry.key, entry)) {
+				evictionCount.increment();
+			}
+		}
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.sum();
+	}
+
+	/**
+	 * Removes every entry. The counters are left untouched.
+	 */
+	public void clear() {
+		entries.clear();
+		clock.clear();
+	}
+
+	@Override
+	public String toString() {
+		return "ExpressionCache[size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+				+ ", evictions=" + getEvictionCount() + "]";
+	}
+
+	private static final class Key {
+
+		private final String expression;
+
+		private final ExpressionContext context;
+
+		Key(String expression, ExpressionContext context) {
+			this.expression = expression;
+			this.context = context;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * expression.hashCode() + System.identityHashCode(context);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return context == other.context && expression.equals(other.expression);
+		}
+
+	}
+
+	private final class Entry {
+
+		final Key key;
+
+		/**
+		 * The compilation of the expression, run by the first caller while the
+		 * others wait for its result.
+		 */
+		final FutureTask<CompiledExpression> compilation;
+
+		volatile boolean referenced;
+
+		Entry(Key key, FutureTask<CompiledExpression> compilation) {
+			this.key = key;
+			this.compilation = compilation;
+		}
+
+		CompiledExpression get() {
+			try {
+				return compilation.get();
+			} catch (ExecutionException exception) {
+				// an expression that fails to compile is not cached
+				entries.remove(key, this);
+				Throwable cause = exception.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new LitExpException("Failed to compile " + key.expression + ": " + cause);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				throw new LitExpException("Interrupted while compiling " + key.expression);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,667 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.roisoleil.litexp.Expression.Function;
+import org.roisoleil.litexp.Expression.LitExpException;
+import org.roisoleil.litexp.Expression.Operator;
+import org.roisoleil.litexp.Expression.Token;
+import org.roisoleil.litexp.Expression.TokenType;
+import org.roisoleil.litexp.Expression.UnaryOperator;
+
+/**
+ * Compact binary form of compiled expressions, such as the rules of a
+ * {@link RuleNetwork}, read back without lexing, parsing nor validating them
+ * again.
+ * <p>
+ * The expressions written together share a pool of strings, holding their
+ * texts, variable names and operator and function names, and a pool of
+ * constants. Each expression is then its tokens, as offsets into its text, and
+ * its optimized tree as a flat array of nodes, each referring to its children
+ * by their index. Operators and functions are written by name and resolved
+ * against the context the expressions are read with, which must have the same
+ * operators, functions and constants as the one they were compiled with: a
+ * signature of it is checked when reading, as is a checksum of the whole.
+ * 
+ * <pre>
+ * byte[] bytes = ExpressionCodec.writeAll(rules);
+ * Map&lt;String, CompiledExpression&gt; loaded = ExpressionCodec.readAll(bytes, context);
+ * </pre>
+ */
+public final class ExpressionCodec {
+
+	private static final int MAGIC = 0x4C455850;
+
+	/**
+	 * Version of the format, increased on any change of it.
+	 */
+	static final int VERSION = 1;
+
+	private static final int LITERAL = 0;
+	private static final int CONSTANT = 1;
+	private static final int VARIABLE = 2;
+	private static final int COERCION = 3;
+	private static final int SHARED = 4;
+	private static final int UNARY_OPERATION = 5;
+	private static final int BINARY_OPERATION = 6;
+	private static final int FUNCTION_CALL = 7;
+
+	private static final int NULL = 0;
+	private static final int FALSE = 1;
+	private static final int TRUE = 2;
+	private static final int DECIMAL = 3;
+	private static final int BIG_DECIMAL = 4;
+	private static final int STRING = 5;
+	private static final int INTEGER = 6;
+	private static final int LONG = 7;
+	private static final int DOUBLE = 8;
+
+	private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+	private ExpressionCodec() {
+	}
+
+	/**
+	 * Writes one expression.
+	 * 
+	 * @param expression
+	 *            The expression to write.
+	 * 
+	 * @return The binary form of the expression, read by
+	 *         {@link #read(byte[], ExpressionContext)}.
+	 */
+	public static byte[] write(CompiledExpression expression) {
+		return writeAll(Collections.singletonMap(null, expression));
+	}
+
+	/**
+	 * Reads one expression.
+	 * 
+	 * @param bytes
+	 *            The binary form of the expression, as given by
+	 *            {@link #write(CompiledExpression)}.
+	 * @param context
+	 *            The context to resolve operators and functions against.
+	 * 
+	 * @return The compiled expression, the same as the one written.
+	 */
+	public static CompiledExpression read(byte[] bytes, ExpressionContext context) {
+		Map<String, CompiledExpression> expressions = readAll(bytes, context);
+		if (expressions.size() != 1) {
+			throw new LitExpException("Expected one expression, found " + expressions.size());
+		}
+		return expressions.values().iterator().next();
+	}
+
+	/**
+	 * Writes expressions by id, such as the rules of a rule set.
+	 * 
+	 * @param expressions
+	 *            The expressions to write, compiled against contexts of the same
+	 *            signature.
+	 * 
+	 * @return The binary form of the expressions, read by
+	 *         {@link #readAll(byte[], ExpressionContext)}.
+	 */
+	public static byte[] writeAll(Map<String, CompiledExpression> expressions) {
+		Writer body = new Writer();
+		Long signature = null;
+		body.writeInt(expressions.size());
+		for (Map.Entry<String, CompiledExpression> entry : expressions.entrySet()) {
+			long expressionSignature = entry.getValue().getContext().signature();
+			if (signature == null) {
+				signature = expressionSignature;
+			} else if (signature != expressionSignature) {
+				throw new LitExpException("Expression '" + entry.getKey() + "' is compiled against another registry");
+			}
+			body.writeExpression(entry.getKey(), entry.getValue());
+		}
+		Writer result = new Writer();
+		result.writeFixed(MAGIC, 4);
+		result.writeInt(VERSION);
+		result.writeFixed(signature == null ? 0 : signature, 8);
+		result.writeInt(body.strings.size());
+		for (String string : body.strings.keySet()) {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			result.writeInt(bytes.length);
+			result.out.write(bytes, 0, bytes.length);
+		}
+		result.writeInt(body.constantCount);
+		result.out.write(body.constants.toByteArray(), 0, body.constants.size());
+		result.out.write(body.out.toByteArray(), 0, body.out.size());
+		CRC32 checksum = new CRC32();
+		checksum.update(result.out.toByteArray(), 0, result.out.size());
+		result.writeFixed(checksum.getValue(), 4);
+		return result.out.toByteArray();
+	}
+
+	/**
+	 * Reads expressions by id.
+	 * 
+	 * @param bytes
+	 *            The binary form of the expressions, as given by
+	 *            {@link #writeAll(Map)}.
+	 * @param context
+	 *            The context to resolve operators and functions against, of the
+	 *            same signature as the context the expressions were compiled
+	 *            with.
+	 * 
+	 * @return The compiled expressions by id, in the order they were written.
+	 */
+	public static Map<String, CompiledExpression> readAll(byte[] bytes, ExpressionContext context) {
+		if (bytes.length < 4) {
+			throw new LitExpException("Truncated expressions");
+		}
+		CRC32 checksum = new CRC32();
+		checksum.update(bytes, 0, bytes.length - 4);
+		Reader in = new Reader(bytes, bytes.length - 4);
+		if (new Reader(bytes, bytes.length).skip(bytes.length - 4).readFixed(4) != checksum.getValue()) {
+			throw new LitExpException("Corrupted expressions: checksum mismatch");
+		}
+		if (in.readFixed(4) != MAGIC) {
+			throw new LitExpException("Not an expression file");
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new LitExpException("Unsupported expression format version " + version);
+		}
+		long signature = in.readFixed(8);
+		String[] strings = new String[in.readInt()];
+		for (int i = 0; i < strings.length; i++) {
+			int length = in.readInt();
+			strings[i] = new String(bytes, in.skip(length).position - length, length, StandardCharsets.UTF_8);
+		}
+		in.strings = strings;
+		Object[] constants = new Object[in.readInt()];
+		for (int i = 0; i < constants.length; i++) {
+			constants[i] = in.readConstant();
+		}
+		in.constants = constants;
+		int count = in.readInt();
+		if (count > 0 && signature != context.signature()) {
+			throw new LitExpException("Expressions were written against another registry");
+		}
+		Map<String, CompiledExpression> result = new LinkedHashMap<>();
+		for (int i = 0; i < count; i++) {
+			String id = in.readString();
+			result.put(id, in.readExpression(context));
+		}
+		if (in.position != in.limit) {
+			throw new LitExpException("Corrupted expressions: trailing bytes");
+		}
+		return result;
+	}
+
+	private static final class Writer {
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		final Map<String, Integer> strings = new LinkedHashMap<>();
+
+		final Map<Object, Integer> constantIndexes = new HashMap<>();
+
+		final ByteArrayOutputStream constants = new ByteArrayOutputStream();
+
+		int constantCount;
+
+		void writeFixed(long value, int size) {
+			for (int shift = (size - 1) * 8; shift >= 0; shift -= 8) {
+				out.write((int) (value >>> shift));
+			}
+		}
+
+		/**
+		 * Writes a non negative int in as few bytes as its value needs.
+		 */
+		void writeInt(int value) {
+			writeVarLong(out, value);
+		}
+
+		static void writeVarLong(ByteArrayOutputStream out, long value) {
+			while ((value & ~0x7FL) != 0) {
+				out.write((int) (value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			out.write((int) value);
+		}
+
+		static void writeSigned(ByteArrayOutputStream out, long value) {
+			writeVarLong(out, (value << 1) ^ (value >> 63));
+		}
+
+		/**
+		 * Writes the index of a string in the pool plus one, zero being
+		 * <code>null</code>.
+		 */
+		void writeString(String string) {
+			if (string == null) {
+				writeInt(0);
+				return;
+			}
+			Integer index = strings.get(string);
+			if (index == null) {
+				index = strings.size();
+				strings.put(string, index);
+			}
+			writeInt(index + 1);
+		}
+
+		void writeConstant(Object value) {
+			// the class tells 1 from 1L apart, and BigDecimal tells 1 from 1.0
+			Object key = value == null ? null : Collections.singletonMap(value.getClass(), value);
+			Integer index = constantIndexes.get(key);
+			if (index == null) {
+				if (value == null) {
+					constants.write(NULL);
+				} else if (value instanceof Boolean) {
+					constants.write((Boolean) value ? TRUE : FALSE);
+				} else if (value.getClass() == BigDecimal.class) {
+					BigDecimal decimal = (BigDecimal) value;
+					BigInteger unscaled = decimal.unscaledValue();
+					if (unscaled.bitLength() < 64) {
+						constants.write(DECIMAL);
+						writeSigned(constants, unscaled.longValue());
+					} else {
+						constants.write(BIG_DECIMAL);
+						byte[] bytes = unscaled.toByteArray();
+						writeVarLong(constants, bytes.length);
+						constants.write(bytes, 0, bytes.length);
+					}
+					writeSigned(constants, decimal.scale());
+				} else if (value instanceof String) {
+					constants.write(STRING);
+					Integer string = strings.get(value);
+					if (string == null) {
+						string = strings.size();
+						strings.put((String) value, string);
+					}
+					writeVarLong(constants, string);
+				} else if (value instanceof Integer) {
+					constants.write(INTEGER);
+					writeSigned(constants, (Integer) value);
+				} else if (value instanceof Long) {
+					constants.write(LONG);
+					writeSigned(constants, (Long) value);
+				} else if (value instanceof Double) {
+					constants.write(DOUBLE);
+					long bits = Double.doubleToRawLongBits((Double) value);
+					for (int shift = 56; shift >= 0; shift -= 8) {
+						constants.write((int) (bits >>> shift));
+					}
+				} else {
+					throw new LitExpException("Constant of " + value.getClass().getName() + " can't be written");
+				}
+				index = constantCount++;
+				constantIndexes.put(key, index);
+			}
+			writeInt(index);
+		}
+
+		void writeExpression(String id, CompiledExpression expression) {
+			String text = expression.getExpression();
+			List<Node> nodes = new ArrayList<>();
+			Map<Node, Integer> nodeIndexes = new IdentityHashMap<>();
+			collect(expression.getRoot(), nodes, nodeIndexes);
+			List<Token> tokens = new ArrayList<>();
+			Map<Token, Integer> tokenIndexes = new IdentityHashMap<>();
+			for (Token token : expression.getRPN()) {
+				collect(token, tokens, tokenIndexes);
+			}
+			for (Node node : nodes) {
+				collect(node.token, tokens, tokenIndexes);
+			}
+			writeString(id);
+			writeString(text);
+			writeInt(expression.getSlotCount());
+			for (String name : expression.getVariableNames()) {
+				writeString(name);
+			}
+			writeInt(expression.getSharedCount());
+			writeInt(tokens.size());
+			for (Token token : tokens) {
+				writeToken(text, token);
+			}
+			writeInt(expression.getRPN().size());
+			for (Token token : expression.getRPN()) {
+				writeInt(tokenIndexes.get(token));
+			}
+			writeInt(nodes.size());
+			for (Node node : nodes) {
+				writeNode(node, tokenIndexes.get(node.token), nodeIndexes);
+			}
+		}
+
+		/**
+		 * Writes the type and offsets of a token, with the text they are offsets
+		 * into if it is not the one of its expression, as for implicit operators.
+		 */
+		void writeToken(String text, Token token) {
+			writeInt(token.type.ordinal());
+			String surface = token.surface();
+			if (token.start >= 0 && token.end <= text.length() && token.length() == surface.length()
+					&& text.regionMatches(token.start, surface, 0, surface.length())) {
+				writeString(null);
+				writeInt(token.start);
+				writeInt(token.end);
+			} else {
+				writeString(surface);
+				writeInt(0);
+				writeInt(surface.length());
+			}
+		}
+
+		void writeNode(Node node, int token, Map<Node, Integer> nodeIndexes) {
+			if (node instanceof Node.Literal) {
+				writeInt(LITERAL);
+				writeInt(token);
+			} else if (node instanceof Node.Constant) {
+				writeInt(CONSTANT);
+				writeInt(token);
+				writeConstant(((Node.Constant) node).value);
+			} else if (node instanceof Node.Variable) {
+				writeInt(VARIABLE);
+				writeInt(token);
+				writeInt(((Node.Variable) node).slot);
+			} else if (node instanceof Node.Coercion) {
+				Node.Coercion coercion = (Node.Coercion) node;
+				if (coercion.valueClass != BigDecimal.class && coercion.valueClass != Boolean.class) {
+					throw new LitExpException("Conversion to " + coercion.valueClass.getName() + " can't be written");
+				}
+				writeInt(COERCION);
+				writeInt(token);
+				writeInt(coercion.valueClass == Boolean.class ? 2 : 0);
+			} else if (node instanceof Node.Shared) {
+				writeInt(SHARED);
+				writeInt(token);
+				writeInt(((Node.Shared) node).index);
+			} else if (node instanceof Node.UnaryOperation) {
+				writeInt(UNARY_OPERATION);
+				writeInt(token);
+				writeString(node.token.surface());
+			} else if (node instanceof Node.BinaryOperation) {
+				writeInt(BINARY_OPERATION);
+				writeInt(token);
+				writeString(node.token.surface());
+			} else if (node instanceof Node.FunctionCall) {
+				writeInt(FUNCTION_CALL);
+				writeInt(token);
+				writeString(node.token.surface());
+				writeInt(((Node.FunctionCall) node).arguments.length);
+			} else {
+				throw new LitExpException("Node " + node.getClass().getName() + " can't be written");
+			}
+			for (Node child : node.children()) {
+				writeInt(nodeIndexes.get(child));
+			}
+		}
+
+		/**
+		 * Lists the nodes of a tree children first, each shared node once.
+		 */
+		private static void collect(Node node, List<Node> nodes, Map<Node, Integer> nodeIndexes) {
+			if (nodeIndexes.containsKey(node)) {
+				return;
+			}
+			for (Node child : node.children()) {
+				collect(child, nodes, nodeIndexes);
+			}
+			nodeIndexes.put(node, nodes.size());
+			nodes.add(node);
+		}
+
+		private static void collect(Token token, List<Token> tokens, Map<Token, Integer> tokenIndexes) {
+			if (!tokenIndexes.containsKey(token)) {
+				tokenIndexes.put(token, tokens.size());
+				tokens.add(token);
+			}
+		}
+
+	}
+
+	private static final class Reader {
+
+		final byte[] bytes;
+
+		final int limit;
+
+		int position;
+
+		String[] strings;
+
+		Object[] constants;
+
+		Reader(byte[] bytes, int limit) {
+			this.bytes = bytes;
+			this.limit = limit;
+		}
+
+		Reader skip(int count) {
+			if (count < 0 || count > limit - position) {
+				throw new LitExpException("Truncated expressions");
+			}
+			position += count;
+			return this;
+		}
+
+		int readByte() {
+			if (position >= limit) {
+				throw new LitExpException("Truncated expressions");
+			}
+			return bytes[position++] & 0xFF;
+		}
+
+		long readFixed(int size) {
+			long result = 0;
+			for (int i = 0; i < size; i++) {
+				result = (result << 8) | readByte();
+			}
+			return result;
+		}
+
+		long readVarLong() {
+			long result = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = readByte();
+				result |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return result;
+				}
+			}
+			throw new LitExpException("Corrupted expressions: malformed number");
+		}
+
+		long readSigned() {
+			long value = readVarLong();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		int readInt() {
+			long value = readVarLong();
+			if (value > Integer.MAX_VALUE) {
+				throw new LitExpException("Corrupted expressions: malformed number");
+			}
+			return (int) value;
+		}
+
+		/**
+		 * Reads an int lower than a bound, such as an index into a table.
+		 */
+		int readInt(int bound) {
+			int value = readInt();
+			if (value >= bound) {
+				throw new LitExpException("Corrupted expressions: index out of range");
+			}
+			return value;
+		}
+
+		String readString() {
+			int index = readInt(strings.length + 1);
+			return index == 0 ? null : strings[index - 1];
+		}
+
+		String readName() {
+			String name = readString();
+			if (name == null) {
+				throw new LitExpException("Corrupted expressions: missing name");
+			}
+			return name;
+		}
+
+		Object readConstant() {
+			int type = readByte();
+			switch (type) {
+			case NULL:
+				return null;
+			case FALSE:
+				return Boolean.FALSE;
+			case TRUE:
+				return Boolean.TRUE;
+			case DECIMAL: {
+				long unscaled = readSigned();
+				return BigDecimal.valueOf(unscaled, (int) readSigned());
+			}
+			case BIG_DECIMAL: {
+				int length = readInt();
+				BigInteger unscaled = new BigInteger(Arrays.copyOfRange(bytes, skip(length).position - length, position));
+				return new BigDecimal(unscaled, (int) readSigned());
+			}
+			case STRING:
+				return strings[readInt(strings.length)];
+			case INTEGER:
+				return (int) readSigned();
+			case LONG:
+				return readSigned();
+			case DOUBLE:
+				return Double.longBitsToDouble(readFixed(8));
+			default:
+				throw new LitExpException("Corrupted expressions: unknown constant type " + type);
+			}
+		}
+
+		CompiledExpression readExpression(ExpressionContext context) {
+			String text = readName();
+			String[] slotNames = new String[readInt()];
+			for (int slot = 0; slot < slotNames.length; slot++) {
+				slotNames[slot] = readName();
+			}
+			int sharedCount = readInt();
+			Token[] tokens = new Token[readInt()];
+			for (int i = 0; i < tokens.length; i++) {
+				TokenType type = TOKEN_TYPES[readInt(TOKEN_TYPES.length)];
+				String input = readString();
+				if (input == null) {
+					input = text;
+				}
+				int start = readInt();
+				int end = readInt(input.length() + 1);
+				if (start > end) {
+					throw new LitExpException("Corrupted expressions: malformed token");
+				}
+				tokens[i] = new Token(type, input, start, end);
+			}
+			List<Token> rpn = new ArrayList<>();
+			for (int i = readInt(); i > 0; i--) {
+				rpn.add(tokens[readInt(tokens.length)]);
+			}
+			Node[] nodes = new Node[readInt()];
+			if (nodes.length == 0) {
+				throw new LitExpException("Corrupted expressions: empty tree");
+			}
+			for (int i = 0; i < nodes.length; i++) {
+				nodes[i] = readNode(context, tokens, nodes, i, slotNames.length, sharedCount);
+			}
+			return new CompiledExpression(text, rpn, nodes[nodes.length - 1], slotNames, sharedCount, context);
+		}
+
+		/**
+		 * Reads a node, whose children are among the nodes read before it.
+		 */
+		Node readNode(ExpressionContext context, Token[] tokens, Node[] nodes, int index, int slotCount,
+				int sharedCount) {
+			int kind = readInt();
+			Token token = tokens[readInt(tokens.length)];
+			switch (kind) {
+			case LITERAL:
+				return new Node.Literal(token);
+			case CONSTANT:
+				return new Node.Constant(token, constants[readInt(constants.length)]);
+			case VARIABLE:
+				return new Node.Variable(token, readInt(slotCount));
+			case COERCION: {
+				int flags = readInt(4);
+				return new Node.Coercion(token, nodes[readInt(index)], (flags & 2) != 0 ? Boolean.class
+						: BigDecimal.class);
+			}
+			case SHARED: {
+				int shared = readInt(sharedCount);
+				return new Node.Shared(token, shared, nodes[readInt(index)]);
+			}
+			case UNARY_OPERATION: {
+				UnaryOperator unaryOperator = context.getUnaryOperator(readName());
+				if (unaryOperator == null) {
+					throw new LitExpException("Unknown unary operator " + token);
+				}
+				return new Node.UnaryOperation(token, unaryOperator, nodes[readInt(index)]);
+			}
+			case BINARY_OPERATION: {
+				Operator operator = context.getOperator(readName());
+				if (operator == null) {
+					throw new LitExpException("Unknown operator " + token);
+				}
+				Node left = nodes[readInt(index)];
+				return new Node.BinaryOperation(token, operator, left, nodes[readInt(index)]);
+			}
+			case FUNCTION_CALL: {
+				Function function = context.getFunction(readName());
+				if (function == null) {
+					throw new LitExpException("Unknown function " + token);
+				}
+				Node[] arguments = new Node[readInt(index + 1)];
+				for (int i = 0; i < arguments.length; i++) {
+					arguments[i] = nodes[readInt(index)];
+				}
+				return new Node.FunctionCall(token, function, arguments);
+			}
+			default:
+				throw new LitExpException("Corrupted expressions: unknown node kind " + kind);
+			}
+		}
+
+	}
+
+}
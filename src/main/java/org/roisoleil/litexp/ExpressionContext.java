@@ -0,0 +1,697 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import static org.roisoleil.litexp.Expression.OPERATOR_PRECEDENCE_ADDITIVE;
+import static org.roisoleil.litexp.Expression.OPERATOR_PRECEDENCE_AND;
+import static org.roisoleil.litexp.Expression.OPERATOR_PRECEDENCE_COMPARISON;
+import static org.roisoleil.litexp.Expression.OPERATOR_PRECEDENCE_EQUALITY;
+import static org.roisoleil.litexp.Expression.OPERATOR_PRECEDENCE_MULTIPLICATIVE;
+import static org.roisoleil.litexp.Expression.OPERATOR_PRECEDENCE_OR;
+import static org.roisoleil.litexp.Expression.OPERATOR_PRECEDENCE_UNARY;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.stream.IntStream;
+
+import org.roisoleil.litexp.DoubleExpression.DoubleFunction;
+import org.roisoleil.litexp.Expression.AbstractFunction;
+import org.roisoleil.litexp.Expression.AbstractOperator;
+import org.roisoleil.litexp.Expression.AbstractUnaryOperator;
+import org.roisoleil.litexp.Expression.DefaultOperandFactory;
+import org.roisoleil.litexp.Expression.Function;
+import org.roisoleil.litexp.Expression.Operand;
+import org.roisoleil.litexp.Expression.OperandFactory;
+import org.roisoleil.litexp.Expression.Operator;
+import org.roisoleil.litexp.Expression.ProxyOperator;
+import org.roisoleil.litexp.Expression.UnaryOperator;
+import org.roisoleil.litexp.Expression.Utils;
+
+/**
+ * Immutable registry of the operators, unary operators, functions and
+ * constants an expression is compiled against. A context is built once with a
+ * {@link Builder} and can then be shared by every expression compiled against
+ * it, from any thread.
+ * <p>
+ * Names are normalized when they are registered, so lookups are plain hash
+ * lookups.
+ */
+public final class ExpressionContext {
+
+	/**
+	 * The context holding the built-in constants, operators and functions.
+	 */
+	public static final ExpressionContext DEFAULT = builder().withDefaults().build();
+
+	private final Map<String, Operator> operators;
+
+	private final Map<String, UnaryOperator> unaryOperators;
+
+	private final Map<String, Function> functions;
+
+	private final Map<String, Object> constants;
+
+	private final Map<String, DoubleBinaryOperator> doubleOperators;
+
+	private final Map<String, DoubleUnaryOperator> doubleUnaryOperators;
+
+	private final Map<String, DoubleFunction> doubleFunctions;
+
+	private final String firstVariableCharacters;
+
+	private final OperandFactory operandFactory;
+
+	private final ExpressionCache cache;
+
+	private final MathContext mathContext;
+
+	private final int maximumScale;
+
+	private final Lexicon lexicon;
+
+	/**
+	 * The signature, computed on first use.
+	 */
+	private volatile Long signature;
+
+	private ExpressionContext(Builder builder) {
+		this.operators = Collections.unmodifiableMap(new HashMap<>(builder.operators));
+		this.unaryOperators = Collections.unmodifiableMap(new HashMap<>(builder.unaryOperators));
+		this.functions = Collections.unmodifiableMap(new HashMap<>(builder.functions));
+		this.constants = Collections.unmodifiableMap(new HashMap<>(builder.constants));
+		this.doubleOperators = Collections.unmodifiableMap(new HashMap<>(builder.doubleOperators));
+		this.doubleUnaryOperators = Collections.unmodifiableMap(new HashMap<>(builder.doubleUnaryOperators));
+		this.doubleFunctions = Collections.unmodifiableMap(new HashMap<>(builder.doubleFunctions));
+		this.firstVariableCharacters = builder.firstVariableCharacters;
+		this.operandFactory = builder.operandFactory;
+		this.cache = builder.cache;
+		this.mathContext = builder.mathContext;
+		this.maximumScale = builder.maximumScale;
+		this.lexicon = new Lexicon(operators.keySet(), firstVariableCharacters);
+	}
+
+	static String normalize(String name) {
+		return name.toLowerCase(Locale.ROOT);
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public Builder toBuilder() {
+		Builder builder = new Builder();
+		builder.operators.putAll(operators);
+		builder.unaryOperators.putAll(unaryOperators);
+		builder.functions.putAll(functions);
+		builder.constants.putAll(constants);
+		builder.doubleOperators.putAll(doubleOperators);
+		builder.doubleUnaryOperators.putAll(doubleUnaryOperators);
+		builder.doubleFunctions.putAll(doubleFunctions);
+		builder.firstVariableCharacters = firstVariableCharacters;
+		builder.operandFactory = operandFactory;
+		builder.cache = cache;
+		builder.mathContext = mathContext;
+		builder.maximumScale = maximumScale;
+		return builder;
+	}
+
+	/**
+	 * Parses and validates the given expression against this context. The result
+	 * is looked up in the {@link ExpressionCache} of the context first, if any.
+	 * 
+	 * @param expression
+	 *            The expression to compile.
+	 * 
+	 * @return The immutable compiled expression.
+	 */
+	public CompiledExpression compile(String expression) {
+		return cache != null ? cache.get(expression, this) : parse(expression);
+	}
+
+	CompiledExpression parse(String expression) {
+		return parse(expression, Collections.emptySet());
+	}
+
+	/**
+	 * Parses and validates an expression in which the given constants are read
+	 * from variable slots instead of being bound at compile time. The result is
+	 * not cached.
+	 * 
+	 * @param boundConstants
+	 *            The normalized names of the constants.
+	 */
+	CompiledExpression parse(String expression, Set<String> boundConstants) {
+		return new CompiledExpression(expression, Expression.validate(Expression.shuntingYard(expression, this), this),
+				this, boundConstants);
+	}
+
+	/**
+	 * Parses and validates several related expressions against this context, so
+	 * that they can be evaluated together while computing their common
+	 * subexpressions once.
+	 * 
+	 * @param expressions
+	 *            The expressions to compile.
+	 * 
+	 * @return The immutable batch of compiled expressions.
+	 */
+	public ExpressionBatch compileBatch(String... expressions) {
+		return new ExpressionBatch(Arrays.asList(expressions), this);
+	}
+
+	public Operator getOperator(String operator) {
+		return operators.get(normalize(operator));
+	}
+
+	public UnaryOperator getUnaryOperator(String operator) {
+		return unaryOperators.get(normalize(operator));
+	}
+
+	public Function getFunction(String name) {
+		return functions.get(normalize(name));
+	}
+
+	/**
+	 * @return The primitive implementation of the operator used by
+	 *         {@link DoubleExpression}, or <code>null</code> if it has none.
+	 */
+	public DoubleBinaryOperator getDoubleOperator(String operator) {
+		return doubleOperators.get(normalize(operator));
+	}
+
+	public DoubleUnaryOperator getDoubleUnaryOperator(String operator) {
+		return doubleUnaryOperators.get(normalize(operator));
+	}
+
+	public DoubleFunction getDoubleFunction(String name) {
+		return doubleFunctions.get(normalize(name));
+	}
+
+	public boolean hasConstant(String name) {
+		return constants.containsKey(normalize(name));
+	}
+
+	public Object getConstant(String name) {
+		return constants.get(normalize(name));
+	}
+
+	public String getFirstVariableCharacters() {
+		return firstVariableCharacters;
+	}
+
+	public OperandFactory getOperandFactory() {
+		return operandFactory;
+	}
+
+	public ExpressionCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * @return The precision and rounding of the results of the built-in
+	 *         arithmetic operators and functions.
+	 */
+	public MathContext getMathContext() {
+		return mathContext;
+	}
+
+	/**
+	 * @return The number of digits after the decimal point the results of the
+	 *         built-in arithmetic operators and functions are rounded to, if they
+	 *         have more.
+	 */
+	public int getMaximumScale() {
+		return maximumScale;
+	}
+
+	Lexicon getLexicon() {
+		return lexicon;
+	}
+
+	/**
+	 * Gives a hash of what compiled trees depend on: the name and traits of every
+	 * operator and function and whether it has a primitive implementation, the
+	 * value of every constant, the characters variables may start with and the
+	 * bounds of the arithmetic constant folding used. Contexts of the same
+	 * signature compile an expression to the same tree.
+	 * 
+	 * @return The first 64 bits of the SHA-256 hash of these entries.
+	 */
+	long signature() {
+		Long result = signature;
+		if (result == null) {
+			result = computeSignature();
+			signature = result;
+		}
+		return result;
+	}
+
+	private long computeSignature() {
+		Map<String, String> entries = new TreeMap<>();
+		operators.forEach((name, operator) -> entries.put("operator " + name,
+				operator.getPrecedence() + " " + operator.isLeftAssociative() + " " + operator.isPure() + " "
+						+ operator.isLazy() + " " + doubleOperators.containsKey(name)));
+		unaryOperators.forEach((name, operator) -> entries.put("unary operator " + name,
+				operator.getPrecedence() + " " + operator.isPure() + " " + doubleUnaryOperators.containsKey(name)));
+		functions.forEach((name, function) -> entries.put("function " + name, function.getNumberArguments() + " "
+				+ function.isPure() + " " + function.isLazy() + " " + doubleFunctions.containsKey(name)));
+		constants.forEach((name, value) -> entries.put("constant " + name, String.valueOf(value)));
+		entries.put("first variable characters", firstVariableCharacters);
+		entries.put("math context", mathContext + " " + maximumScale);
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform implements SHA-256
+			throw new IllegalStateException(e);
+		}
+		entries.forEach((key, value) -> digest.update((key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8)));
+		return ByteBuffer.wrap(digest.digest()).getLong();
+	}
+
+	public static class Builder {
+
+		private final Map<String, Operator> operators = new HashMap<>();
+
+		private final Map<String, UnaryOperator> unaryOperators = new HashMap<>();
+
+		private final Map<String, Function> functions = new HashMap<>();
+
+		private final Map<String, Object> constants = new HashMap<>();
+
+		private final Map<String, DoubleBinaryOperator> doubleOperators = new HashMap<>();
+
+		private final Map<String, DoubleUnaryOperator> doubleUnaryOperators = new HashMap<>();
+
+		private final Map<String, DoubleFunction> doubleFunctions = new HashMap<>();
+
+		private String firstVariableCharacters = "_";
+
+		private OperandFactory operandFactory = new DefaultOperandFactory();
+
+		private ExpressionCache cache = ExpressionCache.DEFAULT;
+
+		private MathContext mathContext = MathContext.UNLIMITED;
+
+		private int maximumScale = Integer.MAX_VALUE;
+
+		private Builder() {
+		}
+
+		public Builder addOperator(Operator operator) {
+			return addOperator(operator, null);
+		}
+
+		/**
+		 * Registers an operator along with its primitive implementation, used by
+		 * {@link DoubleExpression}.
+		 */
+		public Builder addOperator(Operator operator, DoubleBinaryOperator doubleOperator) {
+			String name = normalize(operator.getOperator());
+			operators.put(name, operator);
+			putOrRemove(doubleOperators, name, doubleOperator);
+			return this;
+		}
+
+		public Builder addUnaryOperator(UnaryOperator unaryOperator) {
+			return addUnaryOperator(unaryOperator, null);
+		}
+
+		public Builder addUnaryOperator(UnaryOperator unaryOperator, DoubleUnaryOperator doubleUnaryOperator) {
+			String name = normalize(unaryOperator.getOperator());
+			unaryOperators.put(name, unaryOperator);
+			putOrRemove(doubleUnaryOperators, name, doubleUnaryOperator);
+			return this;
+		}
+
+		public Builder addFunction(Function function) {
+			return addFunction(function, null);
+		}
+
+		public Builder addFunction(Function function, DoubleFunction doubleFunction) {
+			String name = normalize(function.getName());
+			functions.put(name, function);
+			putOrRemove(doubleFunctions, name, doubleFunction);
+			return this;
+		}
+
+		Operator getOperator(String operator) {
+			return operators.get(normalize(operator));
+		}
+
+		UnaryOperator getUnaryOperator(String operator) {
+			return unaryOperators.get(normalize(operator));
+		}
+
+		Function getFunction(String name) {
+			return functions.get(normalize(name));
+		}
+
+		boolean hasConstant(String name) {
+			return constants.containsKey(normalize(name));
+		}
+
+		Object getConstant(String name) {
+			return constants.get(normalize(name));
+		}
+
+		private static <V> void putOrRemove(Map<String, V> map, String name, V value) {
+			if (value == null) {
+				map.remove(name);
+			} else {
+				map.put(name, value);
+			}
+		}
+
+		public Builder addConstant(String name, Object value) {
+			constants.put(normalize(name), value);
+			return this;
+		}
+
+		public Builder setFirstVariableCharacters(String chars) {
+			this.firstVariableCharacters = chars;
+			return this;
+		}
+
+		public Builder setOperandFactory(OperandFactory operandFactory) {
+			this.operandFactory = operandFactory;
+			return this;
+		}
+
+		/**
+		 * Sets the cache the compiled expressions of the context are kept in,
+		 * {@link ExpressionCache#DEFAULT} unless set.
+		 * 
+		 * @param cache
+		 *            The cache to use, or <code>null</code> to compile every
+		 *            expression again.
+		 */
+		public Builder setCache(ExpressionCache cache) {
+			this.cache = cache;
+			return this;
+		}
+
+		/**
+		 * Sets the precision and rounding of the built-in arithmetic,
+		 * {@link MathContext#UNLIMITED} unless set. With it, results are exact and
+		 * a division with no exact result is rounded to the maximum scale, or
+		 * fails if there is none. {@link MathContext#DECIMAL128} rounds every
+		 * result to 34 digits instead.
+		 */
+		public Builder setMathContext(MathContext mathContext) {
+			this.mathContext = mathContext;
+			return this;
+		}
+
+		/**
+		 * Sets the number of digits after the decimal point the results of the
+		 * built-in arithmetic are rounded to, with the rounding mode of the
+		 * {@link MathContext}. Unbounded unless set.
+		 */
+		public Builder setMaximumScale(int maximumScale) {
+			this.maximumScale = maximumScale;
+			return this;
+		}
+
+		public Builder withDefaults() {
+			withDefaultConstants();
+			withDefaultFunctions();
+			withDefaultOperators();
+			withDefaultUnaryOperators();
+			return this;
+		}
+
+		public Builder withDefaultConstants() {
+			addConstant("false", BigDecimal.ZERO);
+			addConstant("true", BigDecimal.ONE);
+			addConstant("pi", BigDecimal.valueOf(Math.PI));
+			addConstant("e", BigDecimal.valueOf(Math.E));
+			return this;
+		}
+
+		public Builder withDefaultFunctions() {
+			withDefaultBooleanFunctions();
+			withDefaultMathematicalFunctions();
+			withDefaultTrigonometricFunctions();
+			return this;
+		}
+
+		public Builder withDefaultBooleanFunctions() {
+			addFunction(new AbstractFunction("if", 3, true) {
+				@Override
+				public boolean isLazy() {
+					return true;
+				}
+
+				@Override
+				protected Object doEval(List<Operand> operands) {
+					return Utils.getAndAssertNotNullOperandAtIndex(this, operands, 0, Boolean.class)
+							? operands.get(1).getValue()
+							: operands.get(2).getValue();
+				}
+			}, DoubleExpression.IF);
+			addFunction(new AbstractFunction("not", 1, true) {
+				@Override
+				protected Object doEval(List<Operand> operands) {
+					return !Utils.getAndAssertNotNullOperandAtIndex(this, operands, 0, Boolean.class);
+				}
+			}, DoubleExpression.NOT);
+			return this;
+		}
+
+		public Builder withDefaultMathematicalFunctions() {
+			addFunction(new AbstractFunction("max", -1, true) {
+				@Override
+				protected Object doEval(List<Operand> operands) {
+					Utils.assertAtLeastOneOperand(this, operands);
+					return IntStream.range(0, operands.size()).mapToObj(
+							index -> Utils.getAndAssertNotNullOperandAtIndex(this, operands, index, BigDecimal.class))
+							.max(Comparator.naturalOrder()).get();
+				}
+			}, DoubleExpression.MAX);
+			addFunction(new AbstractFunction("min", -1, true) {
+				@Override
+				protected Object doEval(List<Operand> operands) {
+					Utils.assertAtLeastOneOperand(this, operands);
+					return IntStream.range(0, operands.size()).mapToObj(
+							index -> Utils.getAndAssertNotNullOperandAtIndex(this, operands, index, BigDecimal.class))
+							.min(Comparator.naturalOrder()).get();
+				}
+			}, DoubleExpression.MIN);
+			return this;
+		}
+
+		public Builder withDefaultTrigonometricFunctions() {
+			addFunction(new AbstractFunction("sin", 1, true) {
+				@Override
+				protected Object doEval(List<Operand> operands) {
+					return doEval(DEFAULT, operands);
+				}
+
+				@Override
+				protected Object doEval(ExpressionContext context, List<Operand> operands) {
+					return Arithmetic.valueOf(Math.sin(
+							Utils.getAndAssertNotNullOperandAtIndex(this, operands, 0, BigDecimal.class).doubleValue()),
+							context);
+				}
+			}, DoubleExpression.SIN);
+			return this;
+		}
+
+		public Builder withDefaultOperators() {
+			addOperator(new AbstractOperator("+", OPERATOR_PRECEDENCE_ADDITIVE, true, true) {
+				@Override
+				protected Object doEval(Operand leftOperand, Operand rightOperand) {
+					return doEval(DEFAULT, leftOperand, rightOperand);
+				}
+
+				@Override
+				protected Object doEval(ExpressionContext context, Operand leftOperand, Operand rightOperand) {
+					return Arithmetic.add(leftOperand.getValue(BigDecimal.class), rightOperand.getValue(BigDecimal.class),
+							context);
+				}
+			}, DoubleExpression.ADD);
+			addOperator(new AbstractOperator("-", OPERATOR_PRECEDENCE_ADDITIVE, true, true) {
+				@Override
+				protected Object doEval(Operand leftOperand, Operand rightOperand) {
+					return doEval(DEFAULT, leftOperand, rightOperand);
+				}
+
+				@Override
+				protected Object doEval(ExpressionContext context, Operand leftOperand, Operand rightOperand) {
+					return Arithmetic.subtract(leftOperand.getValue(BigDecimal.class), rightOperand.getValue(BigDecimal.class),
+							context);
+				}
+			}, DoubleExpression.SUBTRACT);
+			addOperator(new AbstractOperator("*", OPERATOR_PRECEDENCE_MULTIPLICATIVE, true, true) {
+				@Override
+				protected Object doEval(Operand leftOperand, Operand rightOperand) {
+					return doEval(DEFAULT, leftOperand, rightOperand);
+				}
+
+				@Override
+				protected Object doEval(ExpressionContext context, Operand leftOperand, Operand rightOperand) {
+					return Arithmetic.multiply(leftOperand.getValue(BigDecimal.class), rightOperand.getValue(BigDecimal.class),
+							context);
+				}
+			}, DoubleExpression.MULTIPLY);
+			addOperator(new AbstractOperator("/", OPERATOR_PRECEDENCE_MULTIPLICATIVE, true, true) {
+				@Override
+				protected Object doEval(Operand leftOperand, Operand rightOperand) {
+					return doEval(DEFAULT, leftOperand, rightOperand);
+				}
+
+				@Override
+				protected Object doEval(ExpressionContext context, Operand leftOperand, Operand rightOperand) {
+					return Arithmetic.divide(leftOperand.getValue(BigDecimal.class), rightOperand.getValue(BigDecimal.class),
+							context);
+				}
+			}, DoubleExpression.DIVIDE);
+			withDefaultBooleanOperators();
+			return this;
+		}
+
+		public Builder withDefaultBooleanOperators() {
+			Operator equals = new AbstractOperator("=", OPERATOR_PRECEDENCE_EQUALITY, false, true) {
+				@Override
+				protected Object doEval(Operand leftOperand, Operand rightOperand) {
+					return Utils.equals(leftOperand, rightOperand);
+				}
+			};
+			addOperator(equals, DoubleExpression.EQUAL);
+			addOperator(new ProxyOperator("==", equals), DoubleExpression.EQUAL);
+			Operator notEquals = new AbstractOperator("!=", OPERATOR_PRECEDENCE_EQUALITY, false, true) {
+				@Override
+				protected Object doEval(Operand leftOperand, Operand rightOperand) {
+					return !Utils.equals(leftOperand, rightOperand);
+				}
+			};
+			addOperator(notEquals, DoubleExpression.NOT_EQUAL);
+			addOperator(new ProxyOperator("<>", notEquals), DoubleExpression.NOT_EQUAL);
+			Operator and = new AbstractOperator("&&", OPERATOR_PRECEDENCE_AND, false, true) {
+				@Override
+				public boolean isLazy() {
+					return true;
+				}
+
+				@Override
+				protected Object doEval(Operand leftOperand, Operand rightOperand) {
+					return Utils.getAndAssertNotNullLeftOperand(this, leftOperand, Boolean.class)
+							&& Utils.getAndAssertNotNullRightOperand(this, rightOperand, Boolean.class);
+				}
+			};
+			addOperator(and, DoubleExpression.AND);
+			addOperator(new ProxyOperator("and", and), DoubleExpression.AND);
+			Operator or = new AbstractOperator("||", OPERATOR_PRECEDENCE_OR, false, true) {
+				@Override
+				public boolean isLazy() {
+					return true;
+				}
+
+				@Override
+				protected Object doEval(Operand leftOperand, Operand rightOperand) {
+					return Utils.getAndAssertNotNullLeftOperand(this, leftOperand, Boolean.class)
+							|| Utils.getAndAssertNotNullRightOperand(this, rightOperand, Boolean.class);
+				}
+			};
+			addOperator(or, DoubleExpression.OR);
+			addOperator(new ProxyOperator("or", or), DoubleExpression.OR);
+			addOperator(new AbstractOperator("<", OPERATOR_PRECEDENCE_COMPARISON, false, true) {
+				@Override
+				protected Object doEval(Operand leftOperand, Operand rightOperand) {
+					BigDecimal leftValue = Utils.getAndAssertNotNullLeftOperand(this, leftOperand, BigDecimal.class);
+					BigDecimal rightValue = Utils.getAndAssertNotNullRightOperand(this, rightOperand, BigDecimal.class);
+					return leftValue.compareTo(rightValue) == -1;
+				}
+			}, DoubleExpression.LESS);
+			addOperator(new AbstractOperator(">", OPERATOR_PRECEDENCE_COMPARISON, false, true) {
+				@Override
+				protected Object doEval(Operand leftOperand, Operand rightOperand) {
+					BigDecimal leftValue = Utils.getAndAssertNotNullLeftOperand(this, leftOperand, BigDecimal.class);
+					BigDecimal rightValue = Utils.getAndAssertNotNullRightOperand(this, rightOperand, BigDecimal.class);
+					return leftValue.compareTo(rightValue) == 1;
+				}
+			}, DoubleExpression.GREATER);
+			addOperator(new AbstractOperator("<=", OPERATOR_PRECEDENCE_COMPARISON, false, true) {
+				@Override
+				protected Object doEval(Operand leftOperand, Operand rightOperand) {
+					BigDecimal leftValue = Utils.getAndAssertNotNullLeftOperand(this, leftOperand, BigDecimal.class);
+					BigDecimal rightValue = Utils.getAndAssertNotNullRightOperand(this, rightOperand, BigDecimal.class);
+					return leftValue.compareTo(rightValue) != 1;
+				}
+			}, DoubleExpression.LESS_OR_EQUAL);
+			addOperator(new AbstractOperator(">=", OPERATOR_PRECEDENCE_COMPARISON, false, true) {
+				@Override
+				protected Object doEval(Operand leftOperand, Operand rightOperand) {
+					BigDecimal leftValue = Utils.getAndAssertNotNullLeftOperand(this, leftOperand, BigDecimal.class);
+					BigDecimal rightValue = Utils.getAndAssertNotNullRightOperand(this, rightOperand, BigDecimal.class);
+					return leftValue.compareTo(rightValue) != -1;
+				}
+			}, DoubleExpression.GREATER_OR_EQUAL);
+			return this;
+		}
+
+		public Builder withDefaultUnaryOperators() {
+			addUnaryOperator(new AbstractUnaryOperator("-", OPERATOR_PRECEDENCE_UNARY, true) {
+				@Override
+				protected Object doEval(Operand operand) {
+					return doEval(DEFAULT, operand);
+				}
+
+				@Override
+				protected Object doEval(ExpressionContext context, Operand operand) {
+					return Arithmetic.negate(Utils.getAndAssertNotNullOperand(this, operand, BigDecimal.class), context);
+				}
+			}, DoubleExpression.NEGATE);
+			addUnaryOperator(new AbstractUnaryOperator("+", OPERATOR_PRECEDENCE_UNARY, true) {
+				@Override
+				protected Object doEval(Operand operand) {
+					return Utils.getAndAssertNotNullOperand(this, operand, BigDecimal.class);
+				}
+			}, DoubleExpression.PLUS);
+			return this;
+		}
+
+		public ExpressionContext build() {
+			return new ExpressionContext(this);
+		}
+
+	}
+
+}
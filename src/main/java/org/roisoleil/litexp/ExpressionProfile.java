@@ -0,0 +1,304 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.roisoleil.litexp.Expression.Operand;
+import org.roisoleil.litexp.Expression.TokenType;
+import org.roisoleil.litexp.Node.Coercion;
+import org.roisoleil.litexp.Node.Constant;
+import org.roisoleil.litexp.Node.Frame;
+import org.roisoleil.litexp.Node.FunctionCall;
+import org.roisoleil.litexp.Node.Shared;
+
+/**
+ * Profiling evaluation of a {@link CompiledExpression}, recording for each node
+ * of its tree how many times its operand was created, how many times it was
+ * forced, and the time spent computing it. A lazy operand created but never
+ * forced is counted as skipped, so that dead branches show up as well as
+ * expensive ones.
+ * 
+ * <pre>
+ * ExpressionProfile profile = compiledExpression.profile();
+ * profile.eval(bindings).getValue();
+ * System.out.println(profile.explain());
+ * </pre>
+ * 
+ * The tree profiled is the optimized one: folded constants and shared
+ * subexpressions appear as such in {@link #explain()}. Counters are
+ * {@link LongAdder}s, so a profile can be evaluated by several threads at once.
+ */
+public final class ExpressionProfile {
+
+	private final CompiledExpression expression;
+
+	private final Node root;
+
+	private final List<Profiled> nodes = new ArrayList<>();
+
+	/**
+	 * The time spent in the operands forced by the operand being timed on each
+	 * thread.
+	 */
+	private final ThreadLocal<long[]> childNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+	ExpressionProfile(CompiledExpression expression) {
+		this.expression = expression;
+		this.root = profile(expression.getRoot(), new IdentityHashMap<>());
+	}
+
+	/**
+	 * Mirrors a tree with every node wrapped in a {@link Profiled} one. A
+	 * {@link Shared} node is mirrored once, and its operand is wrapped rather than
+	 * itself so that the shared computation is recorded once per evaluation.
+	 */
+	private Node profile(Node node, Map<Node, Node> profiled) {
+		Node result = profiled.get(node);
+		if (result == null) {
+			Node[] children = node.children();
+			for (int i = 0; i < children.length; i++) {
+				children[i] = profile(children[i], profiled);
+			}
+			result = node.withChildren(children);
+			if (!(node instanceof Shared)) {
+				Profiled wrapper = new Profiled(result);
+				nodes.add(wrapper);
+				result = wrapper;
+			}
+			profiled.put(node, result);
+		}
+		return result;
+	}
+
+	public CompiledExpression getExpression() {
+		return expression;
+	}
+
+	/**
+	 * Evaluates the expression, recording the evaluation into this profile as its
+	 * operands are forced.
+	 * 
+	 * @see CompiledExpression#eval(Bindings)
+	 */
+	public Operand eval(Bindings bindings) {
+		return eval(expression.valuesOf(bindings));
+	}
+
+	/**
+	 * Evaluates the expression against slot values, recording the evaluation
+	 * into this profile as its operands are forced.
+	 * 
+	 * @see CompiledExpression#eval(Object[])
+	 */
+	public Operand eval(Object[] values) {
+		return root.eval(expression.newFrame(values));
+	}
+
+	public void reset() {
+		for (Profiled node : nodes) {
+			node.reset();
+		}
+	}
+
+	/**
+	 * Gives the tree of the expression annotated with what was recorded for each
+	 * node, one node per line, indented under its parent. A shared subexpression
+	 * is detailed where it is first met and referenced by its number afterwards.
+	 * 
+	 * @return The annotated tree.
+	 */
+	public String explain() {
+		StringBuilder result = new StringBuilder();
+		explain(root, 0, "", new BitSet(), result);
+		return result.toString();
+	}
+
+	private void explain(Node node, int depth, String prefix, BitSet sharedSeen, StringBuilder result) {
+		if (node instanceof Shared) {
+			Shared shared = (Shared) node;
+			if (sharedSeen.get(shared.index)) {
+				indent(depth, result).append("shared #").append(shared.index).append('\n');
+			} else {
+				sharedSeen.set(shared.index);
+				explain(shared.operand, depth, "shared #" + shared.index + ": ", sharedSeen, result);
+			}
+			return;
+		}
+		Profiled profiled = (Profiled) node;
+		long evaluated = profiled.evaluated.sum();
+		long forced = profiled.forced.sum();
+		indent(depth, result).append(prefix).append(label(profiled.node))
+				.append(String.format(Locale.ROOT, "  evaluated=%d forced=%d skipped=%d", evaluated, forced,
+						evaluated - forced));
+		long failed = profiled.failed.sum();
+		if (failed > 0) {
+			result.append(" failed=").append(failed);
+		}
+		result.append(String.format(Locale.ROOT, " total=%.3fms self=%.3fms\n", profiled.totalNanos.sum() / 1e6,
+				profiled.selfNanos.sum() / 1e6));
+		for (Node child : profiled.node.children()) {
+			explain(child, depth + 1, "", sharedSeen, result);
+		}
+	}
+
+	private static StringBuilder indent(int depth, StringBuilder result) {
+		for (int i = 0; i < depth; i++) {
+			result.append("  ");
+		}
+		return result;
+	}
+
+	private static String label(Node node) {
+		String surface = node.token.surface();
+		if (node instanceof Constant && node.token.type != TokenType.VARIABLE) {
+			return surface + " (folded to " + ((Constant) node).value + ")";
+		}
+		if (node instanceof Coercion) {
+			return surface + " (identity)";
+		}
+		if (node instanceof FunctionCall) {
+			return surface + "()";
+		}
+		return surface;
+	}
+
+	/**
+	 * Node recording the operands of the node it wraps.
+	 */
+	private final class Profiled extends Node {
+
+		final Node node;
+
+		final LongAdder evaluated = new LongAdder();
+
+		final LongAdder forced = new LongAdder();
+
+		final LongAdder failed = new LongAdder();
+
+		final LongAdder totalNanos = new LongAdder();
+
+		final LongAdder selfNanos = new LongAdder();
+
+		Profiled(Node node) {
+			super(node.token);
+			this.node = node;
+		}
+
+		@Override
+		Operand eval(Frame frame) {
+			evaluated.increment();
+			return new ProfiledOperand(this, node.eval(frame));
+		}
+
+		void reset() {
+			evaluated.reset();
+			forced.reset();
+			failed.reset();
+			totalNanos.reset();
+			selfNanos.reset();
+		}
+
+	}
+
+	/**
+	 * Operand timing the first call forcing the operand it wraps. Later calls
+	 * read the memoized value and are not recorded.
+	 */
+	private final class ProfiledOperand implements Operand {
+
+		private final Profiled node;
+
+		private final Operand delegate;
+
+		private boolean forced;
+
+		ProfiledOperand(Profiled node, Operand delegate) {
+			this.node = node;
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Object getValue() {
+			if (forced) {
+				return delegate.getValue();
+			}
+			long[] children = start();
+			long outerChildren = children[0];
+			children[0] = 0;
+			long start = System.nanoTime();
+			boolean failed = true;
+			try {
+				Object value = delegate.getValue();
+				failed = false;
+				return value;
+			} finally {
+				stop(children, outerChildren, start, failed);
+			}
+		}
+
+		@Override
+		public <U> U getValue(Class<U> valueClass) {
+			if (forced) {
+				return delegate.getValue(valueClass);
+			}
+			long[] children = start();
+			long outerChildren = children[0];
+			children[0] = 0;
+			long start = System.nanoTime();
+			boolean failed = true;
+			try {
+				U value = delegate.getValue(valueClass);
+				failed = false;
+				return value;
+			} finally {
+				stop(children, outerChildren, start, failed);
+			}
+		}
+
+		private long[] start() {
+			forced = true;
+			node.forced.increment();
+			return childNanos.get();
+		}
+
+		private void stop(long[] children, long outerChildren, long start, boolean failed) {
+			long elapsed = System.nanoTime() - start;
+			node.totalNanos.add(elapsed);
+			node.selfNanos.add(elapsed - children[0]);
+			if (failed) {
+				node.failed.increment();
+			}
+			children[0] = outerChildren + elapsed;
+		}
+
+	}
+
+}
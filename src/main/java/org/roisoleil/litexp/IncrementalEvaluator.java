@@ -0,0 +1,377 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.roisoleil.litexp.Expression.LitExpException;
+import org.roisoleil.litexp.Expression.Operand;
+import org.roisoleil.litexp.Expression.Token;
+import org.roisoleil.litexp.Expression.Utils;
+
+/**
+ * Spreadsheet-like evaluation of a set of expressions whose variables change a
+ * few at a time. Every node of the registered expressions is a cell that caches
+ * its value and knows the variables it depends on. Updating variables dirties
+ * the cells depending on them, and only those are computed again, and only if
+ * an expression still reads them. Identical sub-trees of pure operators and
+ * functions are a single cell, even across expressions.
+ * 
+ * <pre>
+ * IncrementalEvaluator evaluator = new IncrementalEvaluator(ExpressionContext.DEFAULT);
+ * evaluator.register("total", "price * quantity + shipping");
+ * evaluator.register("free", "price * quantity &gt; 100");
+ * evaluator.update(initialValues);
+ * Map&lt;String, Object&gt; changed = evaluator.update(Collections.singletonMap("shipping", 5));
+ * </pre>
+ * 
+ * Nodes that are not pure are computed again on every update. An evaluator is
+ * not thread-safe.
+ */
+public final class IncrementalEvaluator {
+
+	private static final Object NOT_COMPUTED = new Object();
+
+	private final ExpressionContext context;
+
+	private final Map<String, Integer> slotsByName = new HashMap<>();
+
+	private Object[] values = new Object[0];
+
+	/**
+	 * The cells depending on each variable slot.
+	 */
+	private final List<List<Cell>> cellsBySlot = new ArrayList<>();
+
+	/**
+	 * The registered expressions depending on each variable slot.
+	 */
+	private final List<List<Registration>> registrationsBySlot = new ArrayList<>();
+
+	private final Map<List<Object>, Cell> cellsByKey = new HashMap<>();
+
+	private final Map<String, Registration> registrations = new LinkedHashMap<>();
+
+	/**
+	 * The registrations to compute on the next update: the new ones and the ones
+	 * that are not pure.
+	 */
+	private final Set<Registration> pending = new LinkedHashSet<>();
+
+	private final List<Registration> impure = new ArrayList<>();
+
+	private Node.Frame frame;
+
+	/**
+	 * The number of the current update, so that cells that are not pure are
+	 * computed once per update.
+	 */
+	private long update;
+
+	public IncrementalEvaluator(ExpressionContext context) {
+		this.context = context;
+	}
+
+	public ExpressionContext getContext() {
+		return context;
+	}
+
+	/**
+	 * Registers an expression, computed on the next {@link #update(Map)}.
+	 * 
+	 * @param id
+	 *            The id the results of the expression are given under.
+	 * @param expression
+	 *            The expression, compiled against the context of this evaluator.
+	 */
+	public void register(String id, String expression) {
+		if (registrations.containsKey(id)) {
+			throw new LitExpException("Expression '" + id + "' is already registered");
+		}
+		CompiledExpression compiled = context.compile(expression);
+		int[] slots = new int[compiled.getSlotCount()];
+		for (int slot = 0; slot < slots.length; slot++) {
+			slots[slot] = slotOf(compiled.getVariableNames().get(slot));
+		}
+		Registration registration = new Registration(id, cell(compiled.getRoot(), slots));
+		registrations.put(id, registration);
+		for (int slot = registration.root.slots.nextSetBit(0); slot >= 0; slot = registration.root.slots
+				.nextSetBit(slot + 1)) {
+			registrationsBySlot.get(slot).add(registration);
+		}
+		if (!registration.root.pure) {
+			impure.add(registration);
+		}
+		pending.add(registration);
+	}
+
+	public Set<String> getIds() {
+		return Collections.unmodifiableSet(registrations.keySet());
+	}
+
+	/**
+	 * Gives the number of distinct cells of the registered expressions.
+	 */
+	public int getCellCount() {
+		return cellsByKey.size();
+	}
+
+	/**
+	 * Changes the value of variables and computes the expressions depending on
+	 * them again.
+	 * 
+	 * @param changes
+	 *            The new value of each changed variable, by case insensitive name.
+	 *            A value equal to the current one changes nothing.
+	 * 
+	 * @return The new result of each expression whose result changed, in
+	 *         registration order. The result of an expression whose evaluation
+	 *         fails is <code>null</code>, and its failure is given by
+	 *         {@link #getFailure(String)}.
+	 */
+	public Map<String, Object> update(Map<String, ?> changes) {
+		Set<Registration> affected = new LinkedHashSet<>(pending);
+		pending.clear();
+		for (Map.Entry<String, ?> change : changes.entrySet()) {
+			int slot = slotOf(change.getKey());
+			if (Objects.equals(values[slot], change.getValue())) {
+				continue;
+			}
+			values[slot] = change.getValue();
+			for (Cell cell : cellsBySlot.get(slot)) {
+				cell.dirty = true;
+			}
+			affected.addAll(registrationsBySlot.get(slot));
+		}
+		affected.addAll(impure);
+		Map<String, Object> result = new LinkedHashMap<>();
+		frame = new Node.Frame(context, values);
+		update++;
+		try {
+			for (Registration registration : registrations.values()) {
+				if (affected.contains(registration) && registration.compute()) {
+					result.put(registration.id, registration.value);
+				}
+			}
+		} finally {
+			frame = null;
+		}
+		return result;
+	}
+
+	/**
+	 * Gives the result of an expression as of the last update.
+	 * 
+	 * @return The result, or <code>null</code> if the expression failed or was
+	 *         registered since.
+	 */
+	public Object getValue(String id) {
+		Object value = registration(id).value;
+		return value == NOT_COMPUTED ? null : value;
+	}
+
+	/**
+	 * Gives the failure of an expression on the last update.
+	 * 
+	 * @return The exception thrown by the evaluation of the expression, or
+	 *         <code>null</code> if it did not fail.
+	 */
+	public RuntimeException getFailure(String id) {
+		return registration(id).failure;
+	}
+
+	private Registration registration(String id) {
+		Registration registration = registrations.get(id);
+		if (registration == null) {
+			throw new LitExpException("Unknown expression '" + id + "'");
+		}
+		return registration;
+	}
+
+	private int slotOf(String variable) {
+		String name = ExpressionContext.normalize(variable);
+		Integer slot = slotsByName.get(name);
+		if (slot == null) {
+			slot = slotsByName.size();
+			slotsByName.put(name, slot);
+			values = Arrays.copyOf(values, slot + 1);
+			values[slot] = Node.UNBOUND;
+			cellsBySlot.add(new ArrayList<>());
+			registrationsBySlot.add(new ArrayList<>());
+		}
+		return slot;
+	}
+
+	/**
+	 * Gives the cell of a node, creating it and the cells of its children if no
+	 * identical one exists.
+	 * 
+	 * @param slots
+	 *            The slot of this evaluator of each slot of the compiled
+	 *            expression.
+	 */
+	private Cell cell(Node node, int[] slots) {
+		if (node instanceof Node.Shared) {
+			return cell(((Node.Shared) node).operand, slots);
+		}
+		if (node instanceof Node.Variable) {
+			node = new Node.Variable(node.token, slots[((Node.Variable) node).slot]);
+		}
+		Node[] children = node.children();
+		Cell[] cells = new Cell[children.length];
+		boolean pure = Node.isPure(node);
+		for (int i = 0; i < children.length; i++) {
+			cells[i] = cell(children[i], slots);
+			children[i] = new Reference(children[i].token, cells[i]);
+			pure &= cells[i].pure;
+		}
+		List<Object> key = new ArrayList<>();
+		key.add(node.getClass());
+		key.add(pure ? Node.operation(node) : node);
+		key.addAll(Arrays.asList(cells));
+		Cell cell = cellsByKey.get(key);
+		if (cell == null) {
+			cell = new Cell(node.withChildren(children), pure);
+			for (Cell child : cells) {
+				cell.slots.or(child.slots);
+			}
+			if (node instanceof Node.Variable) {
+				cell.slots.set(((Node.Variable) node).slot);
+			}
+			for (int slot = cell.slots.nextSetBit(0); slot >= 0; slot = cell.slots.nextSetBit(slot + 1)) {
+				cellsBySlot.get(slot).add(cell);
+			}
+			cellsByKey.put(key, cell);
+		}
+		return cell;
+	}
+
+	/**
+	 * Node whose value is cached between updates, and computed again only once
+	 * dirtied by a variable it depends on.
+	 */
+	private final class Cell implements Operand {
+
+		/**
+		 * The node of the cell, whose children are references to their cells.
+		 */
+		private final Node node;
+
+		private final boolean pure;
+
+		/**
+		 * The variable slots the cell depends on.
+		 */
+		private final BitSet slots = new BitSet();
+
+		private boolean dirty = true;
+
+		private long computedIn;
+
+		private Object value;
+
+		Cell(Node node, boolean pure) {
+			this.node = node;
+			this.pure = pure;
+		}
+
+		@Override
+		public Object getValue() {
+			if (dirty || !pure && computedIn != update) {
+				value = node.eval(frame).getValue();
+				dirty = false;
+				computedIn = update;
+			}
+			return value;
+		}
+
+		@Override
+		public <U> U getValue(Class<U> valueClass) {
+			return Utils.adapt(getValue(), valueClass);
+		}
+
+	}
+
+	/**
+	 * Child of the node of a cell, standing for the cell of the child.
+	 */
+	private static final class Reference extends Node {
+
+		private final Cell cell;
+
+		Reference(Token token, Cell cell) {
+			super(token);
+			this.cell = cell;
+		}
+
+		@Override
+		Operand eval(Node.Frame frame) {
+			return cell;
+		}
+
+	}
+
+	private static final class Registration {
+
+		private final String id;
+
+		private final Cell root;
+
+		private Object value = NOT_COMPUTED;
+
+		private RuntimeException failure;
+
+		Registration(String id, Cell root) {
+			this.id = id;
+			this.root = root;
+		}
+
+		/**
+		 * @return Whether the result changed.
+		 */
+		boolean compute() {
+			Object previous = value;
+			try {
+				value = root.getValue();
+				failure = null;
+			} catch (RuntimeException exception) {
+				value = null;
+				failure = exception;
+			}
+			return !Objects.equals(previous, value);
+		}
+
+	}
+
+}
@@ -0,0 +1,209 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lexing tables of an {@link ExpressionContext}: the class of every ASCII
+ * character and a trie of the operator names, so that the {@link Expression.Tokenizer}
+ * classifies characters and finds the longest operator in a single pass,
+ * without building strings or looking names up in maps. The tables are built
+ * with the context, so any change to the operators or to the first variable
+ * characters, which builds a new context, gives new tables.
+ */
+final class Lexicon {
+
+	private static final int ASCII = 128;
+
+	private static final byte DIGIT = 1;
+
+	private static final byte LETTER = 2;
+
+	private static final byte WHITESPACE = 4;
+
+	private static final byte SPACE = 8;
+
+	private static final byte FIRST_VARIABLE = 16;
+
+	private static final byte OPERATOR = 32;
+
+	private final String firstVariableCharacters;
+
+	private final byte[] classes = new byte[ASCII];
+
+	private final TrieNode operators = new TrieNode();
+
+	Lexicon(Iterable<String> operatorNames, String firstVariableCharacters) {
+		this.firstVariableCharacters = firstVariableCharacters;
+		for (char ch = 0; ch < ASCII; ch++) {
+			classes[ch] = classify(ch);
+		}
+		for (String name : operatorNames) {
+			TrieNode node = operators;
+			for (int i = 0; i < name.length(); i++) {
+				node = node.getOrCreate(name.charAt(i));
+			}
+			node.terminal = true;
+		}
+	}
+
+	private byte classify(char ch) {
+		int result = 0;
+		if (Character.isDigit(ch)) {
+			result |= DIGIT;
+		}
+		if (Character.isLetter(ch)) {
+			result |= LETTER;
+		}
+		if (Character.isWhitespace(ch)) {
+			result |= WHITESPACE;
+		}
+		if (ch == ' ' || ch == '\u00A0') {
+			result |= SPACE;
+		}
+		if (firstVariableCharacters.indexOf(ch) >= 0) {
+			result |= FIRST_VARIABLE;
+		}
+		if ((result & (DIGIT | LETTER | WHITESPACE | FIRST_VARIABLE)) == 0 && ch != '(' && ch != ')' && ch != ',') {
+			result |= OPERATOR;
+		}
+		return (byte) result;
+	}
+
+	private boolean is(char ch, byte characterClass) {
+		return ((ch < ASCII ? classes[ch] : classify(ch)) & characterClass) != 0;
+	}
+
+	boolean isDigit(char ch) {
+		return is(ch, DIGIT);
+	}
+
+	boolean isLetter(char ch) {
+		return is(ch, LETTER);
+	}
+
+	boolean isLetterOrDigit(char ch) {
+		return is(ch, (byte) (LETTER | DIGIT));
+	}
+
+	boolean isWhitespace(char ch) {
+		return is(ch, WHITESPACE);
+	}
+
+	/**
+	 * Tells whether the character is a space allowed between a function name and
+	 * its opening bracket.
+	 */
+	boolean isSpace(char ch) {
+		return is(ch, SPACE);
+	}
+
+	boolean isFirstVariableCharacter(char ch) {
+		return is(ch, FIRST_VARIABLE);
+	}
+
+	/**
+	 * Tells whether the character may be part of a symbol operator such as
+	 * <code>&lt;=</code>: not a letter, digit, blank, bracket, comma or first
+	 * variable character.
+	 */
+	boolean isOperatorCharacter(char ch) {
+		return is(ch, OPERATOR);
+	}
+
+	/**
+	 * Finds the longest operator starting at the given position, ignoring case.
+	 * 
+	 * @return The end of the operator, or -1 if no operator starts there.
+	 */
+	int matchOperator(CharSequence input, int start, int end) {
+		int result = -1;
+		TrieNode node = operators;
+		for (int position = start; position < end; position++) {
+			node = node.get(input.charAt(position));
+			if (node == null) {
+				break;
+			}
+			if (node.terminal) {
+				result = position + 1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Tells whether the given characters are exactly an operator name.
+	 */
+	boolean isOperator(CharSequence input, int start, int end) {
+		return matchOperator(input, start, end) == end;
+	}
+
+	private static final class TrieNode {
+
+		private TrieNode[] ascii;
+
+		private Map<Character, TrieNode> others;
+
+		private boolean terminal;
+
+		TrieNode get(char ch) {
+			ch = toLowerCase(ch);
+			if (ch < ASCII) {
+				return ascii == null ? null : ascii[ch];
+			}
+			return others == null ? null : others.get(ch);
+		}
+
+		TrieNode getOrCreate(char ch) {
+			TrieNode result = get(ch);
+			if (result == null) {
+				result = new TrieNode();
+				ch = toLowerCase(ch);
+				if (ch < ASCII) {
+					if (ascii == null) {
+						ascii = new TrieNode[ASCII];
+					}
+					ascii[ch] = result;
+				} else {
+					if (others == null) {
+						others = new HashMap<>();
+					}
+					others.put(ch, result);
+				}
+			}
+			return result;
+		}
+
+		private static char toLowerCase(char ch) {
+			if (ch < ASCII) {
+				return ch >= 'A' && ch <= 'Z' ? (char) (ch + ('a' - 'A')) : ch;
+			}
+			return Character.toLowerCase(ch);
+		}
+
+	}
+
+}
@@ -0,0 +1,477 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.roisoleil.litexp.Expression.AbstractLazyOperand;
+import org.roisoleil.litexp.Expression.Function;
+import org.roisoleil.litexp.Expression.LitExpException;
+import org.roisoleil.litexp.Expression.Operand;
+import org.roisoleil.litexp.Expression.Operator;
+import org.roisoleil.litexp.Expression.Token;
+import org.roisoleil.litexp.Expression.TokenType;
+import org.roisoleil.litexp.Expression.UnaryOperator;
+import org.roisoleil.litexp.Expression.Utils;
+
+/**
+ * Node of the tree a {@link CompiledExpression} is evaluated with. The tree is
+ * built once from the validated RPN: operators, functions and variable slots
+ * are resolved and the arity of every function call is known, so evaluation is
+ * a plain recursive call.
+ * <p>
+ * Evaluating a node creates its operand without computing its value, like the
+ * RPN evaluation did, so operators and functions still receive lazy operands.
+ */
+abstract class Node {
+
+	/**
+	 * Marks a variable slot with no value.
+	 */
+	static final Object UNBOUND = new Object();
+
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	final Token token;
+
+	Node(Token token) {
+		this.token = token;
+	}
+
+	abstract Operand eval(Frame frame);
+
+	/**
+	 * Gives the operands of the node, in evaluation order.
+	 */
+	Node[] children() {
+		return NO_CHILDREN;
+	}
+
+	/**
+	 * Gives a node of the same operation with other operands, or this node if
+	 * the operands are the same.
+	 */
+	Node withChildren(Node[] children) {
+		return this;
+	}
+
+	/**
+	 * Gives what tells two nodes of the same class with the same children apart.
+	 */
+	static Object operation(Node node) {
+		if (node instanceof Literal) {
+			return Arrays.asList(node.token.type, node.token.surface());
+		} else if (node instanceof Constant) {
+			return ((Constant) node).value;
+		} else if (node instanceof Variable) {
+			return ((Variable) node).slot;
+		} else if (node instanceof Coercion) {
+			return ((Coercion) node).valueClass;
+		} else if (node instanceof UnaryOperation) {
+			return ((UnaryOperation) node).unaryOperator;
+		} else if (node instanceof BinaryOperation) {
+			return ((BinaryOperation) node).operator;
+		} else if (node instanceof FunctionCall) {
+			return ((FunctionCall) node).function;
+		}
+		return node;
+	}
+
+	/**
+	 * Tells whether the operation of a node, not counting its children, always
+	 * gives the same result for the same operands.
+	 */
+	static boolean isPure(Node node) {
+		if (node instanceof UnaryOperation) {
+			return ((UnaryOperation) node).unaryOperator.isPure();
+		} else if (node instanceof BinaryOperation) {
+			return ((BinaryOperation) node).operator.isPure();
+		} else if (node instanceof FunctionCall) {
+			return ((FunctionCall) node).function.isPure();
+		}
+		return true;
+	}
+
+	static boolean same(Node[] left, Node[] right) {
+		for (int i = 0; i < left.length; i++) {
+			if (left[i] != right[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Per-call evaluation state.
+	 */
+	static final class Frame {
+
+		final ExpressionContext context;
+
+		final Object[] values;
+
+		/**
+		 * The operand of each {@link Shared} node, once created.
+		 */
+		final Operand[] shared;
+
+		Frame(ExpressionContext context, Object[] values) {
+			this(context, values, 0);
+		}
+
+		Frame(ExpressionContext context, Object[] values, int sharedCount) {
+			this.context = context;
+			this.values = values;
+			this.shared = new Operand[sharedCount];
+		}
+
+	}
+
+	/**
+	 * Builds the tree of a validated RPN.
+	 * 
+	 * @param slotsByName
+	 *            The slot of each normalized variable name, completed with the
+	 *            variables met. Constants of the context are not variables and
+	 *            get no slot.
+	 */
+	static Node build(List<Token> rpn, ExpressionContext context, Map<String, Integer> slotsByName) {
+		return build(rpn, context, slotsByName, Collections.emptySet());
+	}
+
+	/**
+	 * Builds the tree of a validated RPN, in which the given constants of the
+	 * context are read from slots like variables.
+	 */
+	static Node build(List<Token> rpn, ExpressionContext context, Map<String, Integer> slotsByName,
+			Set<String> boundConstants) {
+		Deque<Node> stack = new ArrayDeque<>();
+		Deque<Integer> parameterStarts = new ArrayDeque<>();
+		for (Token token : rpn) {
+			switch (token.type) {
+			case NUMBER:
+			case STRING:
+				stack.push(new Literal(token));
+				break;
+			case VARIABLE: {
+				String name = ExpressionContext.normalize(token.surface());
+				if (context.hasConstant(name) && !boundConstants.contains(name)) {
+					stack.push(new Constant(token, context.getConstant(name)));
+					break;
+				}
+				Integer slot = slotsByName.get(name);
+				if (slot == null) {
+					slot = slotsByName.size();
+					slotsByName.put(name, slot);
+				}
+				stack.push(new Variable(token, slot));
+				break;
+			}
+			case UNARY_OPERATOR:
+				stack.push(new UnaryOperation(token, context.getUnaryOperator(token.surface()), stack.pop()));
+				break;
+			case OPERATOR: {
+				Node right = stack.pop();
+				Node left = stack.pop();
+				stack.push(new BinaryOperation(token, context.getOperator(token.surface()), left, right));
+				break;
+			}
+			case OPEN_BRACKET:
+				parameterStarts.push(stack.size());
+				break;
+			case FUNCTION: {
+				Node[] arguments = new Node[stack.size() - parameterStarts.pop()];
+				for (int i = arguments.length - 1; i >= 0; i--) {
+					arguments[i] = stack.pop();
+				}
+				stack.push(new FunctionCall(token, context.getFunction(token.surface()), arguments));
+				break;
+			}
+			default:
+				throw new LitExpException(
+						"Unexpected token '" + token.surface() + "' at character position " + token.end);
+			}
+		}
+		return stack.pop();
+	}
+
+	static final class Literal extends Node {
+
+		private final Supplier<Object> surface;
+
+		Literal(Token token) {
+			super(token);
+			String value = token.surface();
+			this.surface = () -> value;
+		}
+
+		boolean isNumber() {
+			return token.type == TokenType.NUMBER;
+		}
+
+		@Override
+		Operand eval(Frame frame) {
+			return frame.context.getOperandFactory().createOperand(token, surface);
+		}
+
+	}
+
+	/**
+	 * Node whose value is known at compile time: a constant of the context or
+	 * the result of constant folding.
+	 */
+	static final class Constant extends Node {
+
+		final Object value;
+
+		private final Supplier<Object> supplier;
+
+		Constant(Token token, Object value) {
+			super(token);
+			this.value = value;
+			this.supplier = () -> value;
+		}
+
+		@Override
+		Operand eval(Frame frame) {
+			return frame.context.getOperandFactory().createOperand(supplier);
+		}
+
+	}
+
+	static final class Variable extends Node {
+
+		final int slot;
+
+		private final Supplier<Object> unknown;
+
+		Variable(Token token, int slot) {
+			super(token);
+			this.slot = slot;
+			this.unknown = () -> {
+				throw new LitExpException("Unknown variable: " + token);
+			};
+		}
+
+		@Override
+		Operand eval(Frame frame) {
+			Object value = frame.values[slot];
+			if (value == UNBOUND) {
+				return frame.context.getOperandFactory().createOperand(token, unknown);
+			}
+			return frame.context.getOperandFactory().createOperand(token, value);
+		}
+
+	}
+
+	/**
+	 * Node that only converts the value of its operand, as left by the
+	 * simplification of an identity such as <code>true &amp;&amp; x</code>.
+	 */
+	static final class Coercion extends Node {
+
+		final Node operand;
+
+		final Class<?> valueClass;
+
+		Coercion(Token token, Node operand, Class<?> valueClass) {
+			super(token);
+			this.operand = operand;
+			this.valueClass = valueClass;
+		}
+
+		@Override
+		Node[] children() {
+			return new Node[] { operand };
+		}
+
+		@Override
+		Node withChildren(Node[] children) {
+			return children[0] == operand ? this : new Coercion(token, children[0], valueClass);
+		}
+
+		@Override
+		Operand eval(Frame frame) {
+			Operand value = operand.eval(frame);
+			return new AbstractLazyOperand(null) {
+				@Override
+				protected Object doEval() {
+					Object result = value.getValue(valueClass);
+					if (result == null) {
+						throw new LitExpException("operand can't be null for " + token.surface());
+					}
+					return result;
+				}
+
+				@Override
+				protected <U> U doGetValue(Class<U> valueClass) {
+					return Utils.adapt(getValue(), valueClass);
+				}
+			};
+		}
+
+	}
+
+	/**
+	 * Sub-tree met several times, as found by {@link CommonSubexpressions}. Its
+	 * operand is created on first use and then reused for the rest of the
+	 * evaluation, so that its value is computed at most once.
+	 */
+	static final class Shared extends Node {
+
+		final int index;
+
+		final Node operand;
+
+		Shared(Token token, int index, Node operand) {
+			super(token);
+			this.index = index;
+			this.operand = operand;
+		}
+
+		@Override
+		Node[] children() {
+			return new Node[] { operand };
+		}
+
+		@Override
+		Node withChildren(Node[] children) {
+			return children[0] == operand ? this : new Shared(token, index, children[0]);
+		}
+
+		@Override
+		Operand eval(Frame frame) {
+			Operand result = frame.shared[index];
+			if (result == null) {
+				result = operand.eval(frame);
+				frame.shared[index] = result;
+			}
+			return result;
+		}
+
+	}
+
+	static final class UnaryOperation extends Node {
+
+		final UnaryOperator unaryOperator;
+
+		final Node operand;
+
+		UnaryOperation(Token token, UnaryOperator unaryOperator, Node operand) {
+			super(token);
+			this.unaryOperator = unaryOperator;
+			this.operand = operand;
+		}
+
+		@Override
+		Node[] children() {
+			return new Node[] { operand };
+		}
+
+		@Override
+		Node withChildren(Node[] children) {
+			return children[0] == operand ? this : new UnaryOperation(token, unaryOperator, children[0]);
+		}
+
+		@Override
+		Operand eval(Frame frame) {
+			return unaryOperator.eval(frame.context, operand.eval(frame));
+		}
+
+	}
+
+	static final class BinaryOperation extends Node {
+
+		final Operator operator;
+
+		final Node left;
+
+		final Node right;
+
+		BinaryOperation(Token token, Operator operator, Node left, Node right) {
+			super(token);
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		Node[] children() {
+			return new Node[] { left, right };
+		}
+
+		@Override
+		Node withChildren(Node[] children) {
+			return children[0] == left && children[1] == right ? this
+					: new BinaryOperation(token, operator, children[0], children[1]);
+		}
+
+		@Override
+		Operand eval(Frame frame) {
+			return operator.eval(frame.context, left.eval(frame), right.eval(frame));
+		}
+
+	}
+
+	static final class FunctionCall extends Node {
+
+		final Function function;
+
+		final Node[] arguments;
+
+		FunctionCall(Token token, Function function, Node[] arguments) {
+			super(token);
+			this.function = function;
+			this.arguments = arguments;
+		}
+
+		@Override
+		Node[] children() {
+			return arguments.clone();
+		}
+
+		@Override
+		Node withChildren(Node[] children) {
+			return same(children, arguments) ? this : new FunctionCall(token, function, children);
+		}
+
+		@Override
+		Operand eval(Frame frame) {
+			Operand[] operands = new Operand[arguments.length];
+			for (int i = 0; i < operands.length; i++) {
+				operands[i] = arguments[i].eval(frame);
+			}
+			return function.eval(frame.context, Arrays.asList(operands));
+		}
+
+	}
+
+}
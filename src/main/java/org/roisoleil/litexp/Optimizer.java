@@ -0,0 +1,164 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.util.function.DoubleBinaryOperator;
+
+import org.roisoleil.litexp.DoubleExpression.DoubleFunction;
+import org.roisoleil.litexp.Node.BinaryOperation;
+import org.roisoleil.litexp.Node.Coercion;
+import org.roisoleil.litexp.Node.Constant;
+import org.roisoleil.litexp.Node.Frame;
+import org.roisoleil.litexp.Node.FunctionCall;
+import org.roisoleil.litexp.Node.Literal;
+import org.roisoleil.litexp.Node.UnaryOperation;
+
+/**
+ * Optimization pass run on the tree of a {@link CompiledExpression}:
+ * <ul>
+ * <li>sub-trees made only of literals and constants, whose operators and
+ * functions are all pure, are evaluated once at compile time,</li>
+ * <li><code>if</code> calls whose condition is constant are replaced by the
+ * branch they select,</li>
+ * <li>boolean identities such as <code>true &amp;&amp; x</code> or
+ * <code>x || false</code> are replaced by a mere conversion of
+ * <code>x</code>.</li>
+ * </ul>
+ * Arithmetic identities such as <code>x * 1</code> are kept: the scale of the
+ * result, which <code>=</code> compares, and the rounding of the context both
+ * depend on the operation actually being applied.
+ * The built-in operators and functions are recognized by the primitive
+ * implementation they registered in the {@link ExpressionContext}. A sub-tree
+ * whose evaluation fails is left as is, so that it fails when evaluated.
+ */
+final class Optimizer {
+
+	private static final Object[] NO_VALUES = new Object[0];
+
+	private final ExpressionContext context;
+
+	private Optimizer(ExpressionContext context) {
+		this.context = context;
+	}
+
+	static Node optimize(Node node, ExpressionContext context) {
+		return new Optimizer(context).optimize(node);
+	}
+
+	private Node optimize(Node node) {
+		if (node instanceof UnaryOperation) {
+			UnaryOperation unaryOperation = (UnaryOperation) node;
+			Node operand = optimize(unaryOperation.operand);
+			if (operand != unaryOperation.operand) {
+				unaryOperation = new UnaryOperation(node.token, unaryOperation.unaryOperator, operand);
+			}
+			return unaryOperation.unaryOperator.isPure() && isConstant(operand) ? fold(unaryOperation)
+					: unaryOperation;
+		} else if (node instanceof BinaryOperation) {
+			BinaryOperation binaryOperation = (BinaryOperation) node;
+			Node left = optimize(binaryOperation.left);
+			Node right = optimize(binaryOperation.right);
+			if (left != binaryOperation.left || right != binaryOperation.right) {
+				binaryOperation = new BinaryOperation(node.token, binaryOperation.operator, left, right);
+			}
+			if (binaryOperation.operator.isPure() && isConstant(left) && isConstant(right)) {
+				return fold(binaryOperation);
+			}
+			return simplify(binaryOperation);
+		} else if (node instanceof FunctionCall) {
+			FunctionCall functionCall = (FunctionCall) node;
+			Node[] arguments = functionCall.arguments.clone();
+			boolean changed = false;
+			boolean constant = true;
+			for (int i = 0; i < arguments.length; i++) {
+				arguments[i] = optimize(arguments[i]);
+				changed |= arguments[i] != functionCall.arguments[i];
+				constant &= isConstant(arguments[i]);
+			}
+			if (changed) {
+				functionCall = new FunctionCall(node.token, functionCall.function, arguments);
+			}
+			if (functionCall.function.isPure() && constant) {
+				return fold(functionCall);
+			}
+			DoubleFunction kernel = context.getDoubleFunction(node.token.surface());
+			if (kernel == DoubleExpression.IF && isConstant(arguments[0])) {
+				Boolean condition = valueOf(arguments[0], Boolean.class);
+				if (condition != null) {
+					return condition ? arguments[1] : arguments[2];
+				}
+			}
+			return functionCall;
+		}
+		return node;
+	}
+
+	private Node simplify(BinaryOperation node) {
+		DoubleBinaryOperator kernel = context.getDoubleOperator(node.token.surface());
+		if (kernel == DoubleExpression.AND) {
+			if (isConstant(node.left, false)) {
+				// the right operand is never evaluated
+				return new Constant(node.token, Boolean.FALSE);
+			} else if (isConstant(node.left, true)) {
+				return new Coercion(node.token, node.right, Boolean.class);
+			} else if (isConstant(node.right, true)) {
+				return new Coercion(node.token, node.left, Boolean.class);
+			}
+		} else if (kernel == DoubleExpression.OR) {
+			if (isConstant(node.left, true)) {
+				return new Constant(node.token, Boolean.TRUE);
+			} else if (isConstant(node.left, false)) {
+				return new Coercion(node.token, node.right, Boolean.class);
+			} else if (isConstant(node.right, false)) {
+				return new Coercion(node.token, node.left, Boolean.class);
+			}
+		}
+		return node;
+	}
+
+	private static boolean isConstant(Node node) {
+		return node instanceof Constant || node instanceof Literal;
+	}
+
+	private boolean isConstant(Node node, boolean value) {
+		return isConstant(node) && Boolean.valueOf(value).equals(valueOf(node, Boolean.class));
+	}
+
+	private <U> U valueOf(Node node, Class<U> valueClass) {
+		try {
+			return node.eval(new Frame(context, NO_VALUES)).getValue(valueClass);
+		} catch (RuntimeException exception) {
+			return null;
+		}
+	}
+
+	private Node fold(Node node) {
+		try {
+			return new Constant(node.token, node.eval(new Frame(context, NO_VALUES)).getValue());
+		} catch (RuntimeException exception) {
+			return node;
+		}
+	}
+
+}
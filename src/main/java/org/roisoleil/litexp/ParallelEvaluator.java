@@ -0,0 +1,126 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.roisoleil.litexp.DoubleExpression.ColumnBuffers;
+
+/**
+ * Evaluates large batches of rows on the threads of a {@link ForkJoinPool}.
+ * The range of rows is split in halves until parts are no larger than the
+ * chunk size, and each part is evaluated by a worker thread against the shared
+ * immutable expression, with scratch state of its own. That state is
+ * allocated once per part, amortized over its rows, and released with the task
+ * rather than kept alive by the worker thread. Every row writes its result at
+ * its own index, so results are in the order of the rows.
+ */
+public final class ParallelEvaluator {
+
+	public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+
+	private final ForkJoinPool pool;
+
+	private final int chunkSize;
+
+	/**
+	 * Creates an evaluator running on the common pool, with the default chunk
+	 * size.
+	 */
+	public ParallelEvaluator() {
+		this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param pool
+	 *            The pool the rows are evaluated on.
+	 * @param chunkSize
+	 *            The largest number of rows evaluated by a single task.
+	 */
+	public ParallelEvaluator(ForkJoinPool pool, int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+		}
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Parallel form of {@link DoubleExpression#evalColumns(Columns, double[])}.
+	 */
+	public void evalColumns(DoubleExpression expression, Columns columns, double[] results) {
+		columns.checkResults(results.length);
+		Object[] slotColumns = columns.resolve(expression.getCompiledExpression().getVariableNames());
+		pool.invoke(new Task((from, to) -> expression.evalColumns(slotColumns, from, to, results,
+				new ColumnBuffers(slotColumns.length)), 0, columns.getRowCount()));
+	}
+
+	private interface RangeEvaluator {
+
+		void eval(int from, int to);
+
+	}
+
+	/**
+	 * Task evaluating a range of rows, split into subtasks while larger than the
+	 * chunk size.
+	 */
+	private final class Task extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final RangeEvaluator evaluator;
+
+		private final int from;
+
+		private final int to;
+
+		Task(RangeEvaluator evaluator, int from, int to) {
+			this.evaluator = evaluator;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= chunkSize) {
+				evaluator.eval(from, to);
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Task(evaluator, from, middle), new Task(evaluator, middle, to));
+			}
+		}
+
+	}
+
+}
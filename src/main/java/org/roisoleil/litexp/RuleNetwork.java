@@ -0,0 +1,784 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+import org.roisoleil.litexp.Expression.DefaultOperandFactory;
+import org.roisoleil.litexp.Expression.LitExpException;
+import org.roisoleil.litexp.Expression.TokenType;
+import org.roisoleil.litexp.Expression.Utils;
+
+/**
+ * Network matching events against many boolean rules at once. Rules are split
+ * into conditions, <code>&amp;&amp;</code>, <code>||</code> and
+ * <code>not</code> being the joins between them, and identical conditions are
+ * a single node of the network whichever rules they come from. Each condition
+ * is evaluated at most once per event; the conditions a rule requires then
+ * count towards the rule, which matches once all of them hold. Matching an
+ * event thus costs one evaluation per distinct condition, plus one count per
+ * rule requiring a condition that holds, whatever the number of rules.
+ * <p>
+ * The conditions comparing a variable to a constant with <code>&lt;</code>,
+ * <code>&lt;=</code>, <code>&gt;</code>, <code>&gt;=</code>, <code>=</code>
+ * or <code>!=</code> are not evaluated one by one: they are indexed by
+ * variable, in sorted maps by constant for the ranges and in hash maps for the
+ * equalities, and the value of each variable of an event gives those holding
+ * with one probe of each map. The rules whose indexed conditions all hold are
+ * the candidates, and only for them are the remaining conditions evaluated.
+ * 
+ * <pre>
+ * RuleNetwork network = new RuleNetwork(ExpressionContext.DEFAULT);
+ * network.addRule("large-eu", "region = \"EU\" &amp;&amp; amount &gt; 500");
+ * network.addRule("eu", "region = \"EU\"");
+ * Set&lt;String&gt; matching = network.match(event);
+ * </pre>
+ * 
+ * A condition whose evaluation fails, such as one reading a variable the event
+ * does not have, is unknown: it holds neither true nor false, so that neither
+ * it nor its negation makes a rule match. Rules are added before matching;
+ * matching may then be done by any number of threads at once.
+ */
+public final class RuleNetwork {
+
+	private final ExpressionContext context;
+
+	/**
+	 * Whether variables are read as the indexes compare them, which other operand
+	 * factories may not do.
+	 */
+	private final boolean indexing;
+
+	private final Map<String, Integer> slotsByName = new HashMap<>();
+
+	private final Map<List<Object>, Condition> conditionsByKey = new HashMap<>();
+
+	private final List<Condition> conditions = new ArrayList<>();
+
+	private final Map<Integer, VariableIndex> indexesBySlot = new HashMap<>();
+
+	private final List<VariableIndex> indexes = new ArrayList<>();
+
+	private final List<Rule> rules = new ArrayList<>();
+
+	/**
+	 * The rules requiring no indexed condition, candidates to every event.
+	 */
+	private final List<Rule> unindexed = new ArrayList<>();
+
+	private final Map<String, Rule> rulesById = new HashMap<>();
+
+	private final ThreadLocal<State> states = new ThreadLocal<>();
+
+	public RuleNetwork(ExpressionContext context) {
+		this.context = context;
+		this.indexing = context.getOperandFactory().getClass() == DefaultOperandFactory.class;
+	}
+
+	public ExpressionContext getContext() {
+		return context;
+	}
+
+	public int getRuleCount() {
+		return rules.size();
+	}
+
+	/**
+	 * Gives the number of distinct conditions and joins of the network.
+	 */
+	public int getConditionCount() {
+		return conditions.size();
+	}
+
+	/**
+	 * Adds a rule to the network.
+	 * 
+	 * @param id
+	 *            The id the rule is matched under.
+	 * @param expression
+	 *            The boolean expression of the rule, compiled against the context
+	 *            of this network.
+	 */
+	public void addRule(String id, String expression) {
+		if (rulesById.containsKey(id)) {
+			throw new LitExpException("Rule '" + id + "' is already added");
+		}
+		addRule(id, context.compile(expression));
+	}
+
+	/**
+	 * Adds a rule already compiled, such as one read by {@link ExpressionCodec}.
+	 * 
+	 * @param id
+	 *            The id the rule is matched under.
+	 * @param compiled
+	 *            The boolean expression of the rule, compiled against the context
+	 *            of this network.
+	 */
+	public void addRule(String id, CompiledExpression compiled) {
+		if (rulesById.containsKey(id)) {
+			throw new LitExpException("Rule '" + id + "' is already added");
+		}
+		if (compiled.getContext() != context) {
+			throw new LitExpException("Rule '" + id + "' is compiled against another context");
+		}
+		int[] slots = new int[compiled.getSlotCount()];
+		for (int slot = 0; slot < slots.length; slot++) {
+			slots[slot] = slotOf(compiled.getVariableNames().get(slot));
+		}
+		Set<Condition> conjuncts = new LinkedHashSet<>();
+		for (Node conjunct : operands(compiled.getRoot(), DoubleExpression.AND)) {
+			conjuncts.add(condition(conjunct, slots));
+		}
+		int indexed = 0;
+		List<Condition> residual = new ArrayList<>();
+		for (Condition conjunct : conjuncts) {
+			if (!(conjunct instanceof Comparison)) {
+				residual.add(conjunct);
+			} else if (((Comparison) conjunct).kernel != DoubleExpression.NOT_EQUAL) {
+				indexed++;
+			}
+		}
+		Rule rule = new Rule(rules.size(), id, indexed, residual.toArray(new Condition[residual.size()]));
+		rules.add(rule);
+		rulesById.put(id, rule);
+		if (indexed == 0) {
+			unindexed.add(rule);
+		}
+		for (Condition conjunct : conjuncts) {
+			if (conjunct instanceof Comparison) {
+				Comparison comparison = (Comparison) conjunct;
+				if (comparison.rules.isEmpty()) {
+					indexOf(comparison.slot).add(comparison);
+				}
+				comparison.rules.add(rule);
+			}
+		}
+	}
+
+	/**
+	 * Matches an event against every rule.
+	 * 
+	 * @param event
+	 *            The value of each variable, by case insensitive name.
+	 * 
+	 * @return The ids of the rules matching the event, in the order they were
+	 *         added.
+	 */
+	public Set<String> match(Map<String, ?> event) {
+		State state = states.get();
+		if (state == null || state.values.length != slotsByName.size() || state.results.length != conditions.size()
+				|| state.counts.length != rules.size()) {
+			state = new State(context, slotsByName.size(), conditions.size(), rules.size());
+			states.set(state);
+		}
+		state.reset();
+		for (Map.Entry<String, ?> entry : event.entrySet()) {
+			Integer slot = slotsByName.get(ExpressionContext.normalize(entry.getKey()));
+			if (slot != null) {
+				state.values[slot] = entry.getValue();
+			}
+		}
+		List<Rule> candidates = new ArrayList<>(unindexed);
+		for (VariableIndex index : indexes) {
+			index.probe(state, candidates);
+		}
+		List<Rule> matching = new ArrayList<>();
+		for (Rule rule : candidates) {
+			if (state.vetoEvents[rule.index] != state.event && holds(rule.residual, state)) {
+				matching.add(rule);
+			}
+		}
+		matching.sort((left, right) -> Integer.compare(left.index, right.index));
+		Set<String> result = new LinkedHashSet<>();
+		for (Rule rule : matching) {
+			result.add(rule.id);
+		}
+		return result;
+	}
+
+	private static boolean holds(Condition[] conditions, State state) {
+		for (Condition condition : conditions) {
+			if (!Boolean.TRUE.equals(condition.eval(state))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private VariableIndex indexOf(int slot) {
+		VariableIndex index = indexesBySlot.get(slot);
+		if (index == null) {
+			index = new VariableIndex(slot);
+			indexesBySlot.put(slot, index);
+			indexes.add(index);
+		}
+		return index;
+	}
+
+	private int slotOf(String variable) {
+		String name = ExpressionContext.normalize(variable);
+		Integer slot = slotsByName.get(name);
+		if (slot == null) {
+			slot = slotsByName.size();
+			slotsByName.put(name, slot);
+		}
+		return slot;
+	}
+
+	/**
+	 * Flattens the operands of nested joins of the same kind.
+	 */
+	private List<Node> operands(Node node, Object kernel) {
+		List<Node> result = new ArrayList<>();
+		collect(node, kernel, result);
+		return result;
+	}
+
+	private void collect(Node node, Object kernel, List<Node> result) {
+		node = unshared(node);
+		if (node instanceof Node.BinaryOperation && context.getDoubleOperator(node.token.surface()) == kernel) {
+			collect(((Node.BinaryOperation) node).left, kernel, result);
+			collect(((Node.BinaryOperation) node).right, kernel, result);
+		} else {
+			result.add(node);
+		}
+	}
+
+	private static Node unshared(Node node) {
+		while (node instanceof Node.Shared) {
+			node = ((Node.Shared) node).operand;
+		}
+		return node;
+	}
+
+	/**
+	 * Gives the condition of a node, creating it and the conditions it joins if
+	 * no identical one exists.
+	 */
+	private Condition condition(Node node, int[] slots) {
+		node = unshared(node);
+		Object kernel = node instanceof Node.BinaryOperation ? context.getDoubleOperator(node.token.surface()) : null;
+		if (kernel == DoubleExpression.AND || kernel == DoubleExpression.OR) {
+			List<Node> operands = operands(node, kernel);
+			Condition[] children = new Condition[operands.size()];
+			for (int i = 0; i < children.length; i++) {
+				children[i] = condition(operands.get(i), slots);
+			}
+			// joins are commutative, so their operands are ordered for them to be shared
+			Arrays.sort(children, (left, right) -> Integer.compare(left.index, right.index));
+			List<Object> key = new ArrayList<>();
+			key.add(kernel);
+			key.addAll(Arrays.asList(children));
+			return intern(key, index -> kernel == DoubleExpression.AND ? new And(index, children)
+					: new Or(index, children));
+		}
+		if (node instanceof Node.FunctionCall && context.getDoubleFunction(node.token.surface()) == DoubleExpression.NOT
+				&& ((Node.FunctionCall) node).arguments.length == 1) {
+			Condition operand = condition(((Node.FunctionCall) node).arguments[0], slots);
+			return intern(Arrays.asList(DoubleExpression.NOT, operand), index -> new Not(index, operand));
+		}
+		Node test = remap(node, slots);
+		return intern(Arrays.asList(Test.class, key(test)), index -> test(index, test));
+	}
+
+	/**
+	 * Gives the test of a node, a comparison if it compares a variable to a
+	 * constant the indexes can hold.
+	 */
+	private Test test(int index, Node node) {
+		Object kernel = node instanceof Node.BinaryOperation ? context.getDoubleOperator(node.token.surface()) : null;
+		if (!indexing || kernel == null) {
+			return new Test(index, node);
+		}
+		Node left = ((Node.BinaryOperation) node).left;
+		Node right = ((Node.BinaryOperation) node).right;
+		if (left instanceof Node.Variable && constantValue(right) != null) {
+			return comparison(index, node, kernel, ((Node.Variable) left).slot, constantValue(right));
+		} else if (right instanceof Node.Variable && constantValue(left) != null) {
+			return comparison(index, node, reverse(kernel), ((Node.Variable) right).slot, constantValue(left));
+		}
+		return new Test(index, node);
+	}
+
+	private static Test comparison(int index, Node node, Object kernel, int slot, Object constant) {
+		if ((kernel == DoubleExpression.EQUAL || kernel == DoubleExpression.NOT_EQUAL)
+				&& !(constant instanceof Boolean)) {
+			return new Comparison(index, node, kernel, slot, constant);
+		} else if ((kernel == DoubleExpression.LESS || kernel == DoubleExpression.LESS_OR_EQUAL
+				|| kernel == DoubleExpression.GREATER || kernel == DoubleExpression.GREATER_OR_EQUAL)
+				&& constant instanceof BigDecimal) {
+			return new Comparison(index, node, kernel, slot, constant);
+		}
+		return new Test(index, node);
+	}
+
+	/**
+	 * Gives the kernel comparing the operands of another one the other way round.
+	 */
+	private static Object reverse(Object kernel) {
+		if (kernel == DoubleExpression.LESS) {
+			return DoubleExpression.GREATER;
+		} else if (kernel == DoubleExpression.GREATER) {
+			return DoubleExpression.LESS;
+		} else if (kernel == DoubleExpression.LESS_OR_EQUAL) {
+			return DoubleExpression.GREATER_OR_EQUAL;
+		} else if (kernel == DoubleExpression.GREATER_OR_EQUAL) {
+			return DoubleExpression.LESS_OR_EQUAL;
+		}
+		return kernel;
+	}
+
+	/**
+	 * Gives the value of a literal or constant node, <code>null</code> for any
+	 * other node.
+	 */
+	private static Object constantValue(Node node) {
+		if (node instanceof Node.Constant) {
+			return ((Node.Constant) node).value;
+		} else if (node instanceof Node.Literal && node.token.type == TokenType.STRING) {
+			return node.token.surface();
+		} else if (node instanceof Node.Literal && node.token.type == TokenType.NUMBER) {
+			try {
+				return new BigDecimal(node.token.surface());
+			} catch (NumberFormatException exception) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gives the key of a value in the equality indexes, equal for any two values
+	 * <code>=</code> finds equal, numbers being keyed by their numeric value.
+	 */
+	static Object equalityKey(Object value) {
+		String string = value.toString();
+		try {
+			return new BigDecimal(string).stripTrailingZeros();
+		} catch (NumberFormatException exception) {
+			return string;
+		}
+	}
+
+	private Condition intern(List<Object> key, IntFunction<Condition> factory) {
+		Condition condition = conditionsByKey.get(key);
+		if (condition == null) {
+			condition = factory.apply(conditions.size());
+			conditions.add(condition);
+			conditionsByKey.put(key, condition);
+		}
+		return condition;
+	}
+
+	/**
+	 * Gives a copy of a tree reading the slots of this network, without the
+	 * shared nodes of its expression.
+	 */
+	private static Node remap(Node node, int[] slots) {
+		node = unshared(node);
+		if (node instanceof Node.Variable) {
+			return new Node.Variable(node.token, slots[((Node.Variable) node).slot]);
+		}
+		Node[] children = node.children();
+		for (int i = 0; i < children.length; i++) {
+			children[i] = remap(children[i], slots);
+		}
+		return node.withChildren(children);
+	}
+
+	/**
+	 * Gives the structure of a tree, equal for identical trees of pure nodes.
+	 */
+	static List<Object> key(Node node) {
+		List<Object> key = new ArrayList<>();
+		key.add(node.getClass());
+		key.add(Node.isPure(node) ? Node.operation(node) : node);
+		for (Node child : node.children()) {
+			key.add(key(child));
+		}
+		return key;
+	}
+
+	/**
+	 * Per-thread state of a match: the values of the event, the result of each
+	 * condition and the count of each rule, valid for the current event only.
+	 * It holds no reference to the network, which would otherwise be kept alive
+	 * by every thread that matched an event against it.
+	 */
+	private static final class State {
+
+		final Object[] values;
+
+		final Node.Frame frame;
+
+		final Boolean[] results;
+
+		final int[] resultEvents;
+
+		final int[] counts;
+
+		final int[] countEvents;
+
+		/**
+		 * The event in which each rule was last found not to match.
+		 */
+		final int[] vetoEvents;
+
+		int event;
+
+		State(ExpressionContext context, int slotCount, int conditionCount, int ruleCount) {
+			values = new Object[slotCount];
+			frame = new Node.Frame(context, values);
+			results = new Boolean[conditionCount];
+			resultEvents = new int[conditionCount];
+			counts = new int[ruleCount];
+			countEvents = new int[ruleCount];
+			vetoEvents = new int[ruleCount];
+		}
+
+		void reset() {
+			Arrays.fill(values, Node.UNBOUND);
+			event++;
+		}
+
+		int count(Rule rule) {
+			if (countEvents[rule.index] != event) {
+				countEvents[rule.index] = event;
+				counts[rule.index] = 0;
+			}
+			return ++counts[rule.index];
+		}
+
+	}
+
+	private static final class Rule {
+
+		final int index;
+
+		final String id;
+
+		/**
+		 * The number of distinct indexed conditions, other than inequalities, the
+		 * rule requires.
+		 */
+		final int indexed;
+
+		/**
+		 * The conditions the rule requires that are not indexed.
+		 */
+		final Condition[] residual;
+
+		Rule(int index, String id, int indexed, Condition[] residual) {
+			this.index = index;
+			this.id = id;
+			this.indexed = indexed;
+			this.residual = residual;
+		}
+
+	}
+
+	/**
+	 * Node of the network, whose result is <code>null</code> when unknown.
+	 */
+	private static abstract class Condition {
+
+		final int index;
+
+		Condition(int index) {
+			this.index = index;
+		}
+
+		final Boolean eval(State state) {
+			if (state.resultEvents[index] != state.event) {
+				state.results[index] = compute(state);
+				state.resultEvents[index] = state.event;
+			}
+			return state.results[index];
+		}
+
+		final void set(State state, Boolean result) {
+			state.results[index] = result;
+			state.resultEvents[index] = state.event;
+		}
+
+		abstract Boolean compute(State state);
+
+	}
+
+	private static class Test extends Condition {
+
+		private final Node node;
+
+		Test(int index, Node node) {
+			super(index);
+			this.node = node;
+		}
+
+		@Override
+		Boolean compute(State state) {
+			try {
+				return node.eval(state.frame).getValue(Boolean.class);
+			} catch (RuntimeException exception) {
+				return null;
+			}
+		}
+
+	}
+
+	/**
+	 * Test comparing a variable to a constant, found by the index of the variable.
+	 */
+	private static final class Comparison extends Test {
+
+		final Object kernel;
+
+		final int slot;
+
+		final Object constant;
+
+		/**
+		 * The rules requiring the comparison.
+		 */
+		final List<Rule> rules = new ArrayList<>();
+
+		Comparison(int index, Node node, Object kernel, int slot, Object constant) {
+			super(index, node);
+			this.kernel = kernel;
+			this.slot = slot;
+			this.constant = constant;
+		}
+
+	}
+
+	/**
+	 * Comparisons of a variable, by kind and constant.
+	 */
+	private static final class VariableIndex {
+
+		final int slot;
+
+		final List<Comparison> comparisons = new ArrayList<>();
+
+		final List<Comparison> inequalities = new ArrayList<>();
+
+		final Map<Object, List<Comparison>> equal = new HashMap<>();
+
+		final Map<Object, List<Comparison>> notEqual = new HashMap<>();
+
+		final NavigableMap<BigDecimal, List<Comparison>> less = new TreeMap<>();
+
+		final NavigableMap<BigDecimal, List<Comparison>> lessOrEqual = new TreeMap<>();
+
+		final NavigableMap<BigDecimal, List<Comparison>> greater = new TreeMap<>();
+
+		final NavigableMap<BigDecimal, List<Comparison>> greaterOrEqual = new TreeMap<>();
+
+		VariableIndex(int slot) {
+			this.slot = slot;
+		}
+
+		void add(Comparison comparison) {
+			comparisons.add(comparison);
+			Object kernel = comparison.kernel;
+			if (kernel == DoubleExpression.EQUAL) {
+				equal.computeIfAbsent(equalityKey(comparison.constant), key -> new ArrayList<>()).add(comparison);
+			} else if (kernel == DoubleExpression.NOT_EQUAL) {
+				inequalities.add(comparison);
+				notEqual.computeIfAbsent(equalityKey(comparison.constant), key -> new ArrayList<>()).add(comparison);
+			} else {
+				NavigableMap<BigDecimal, List<Comparison>> map = kernel == DoubleExpression.LESS ? less
+						: kernel == DoubleExpression.LESS_OR_EQUAL ? lessOrEqual
+								: kernel == DoubleExpression.GREATER ? greater : greaterOrEqual;
+				map.computeIfAbsent((BigDecimal) comparison.constant, key -> new ArrayList<>()).add(comparison);
+			}
+		}
+
+		/**
+		 * Counts the comparisons holding for the value of the variable towards the
+		 * rules requiring them, adding the rules whose indexed comparisons then all
+		 * hold to the candidates, and vetoes the rules requiring an inequality that
+		 * does not hold.
+		 */
+		void probe(State state, List<Rule> candidates) {
+			Object value = state.values[slot];
+			if (value == Node.UNBOUND) {
+				// every comparison is unknown, so that only inequalities matter
+				for (Comparison comparison : inequalities) {
+					veto(state, comparison);
+				}
+				return;
+			}
+			if (value == null || value instanceof Boolean || isNonFinite(value)) {
+				// booleans are equal to any non-zero number, unlike their keys, and
+				// comparisons of NaN or infinities are unknown, inequalities included
+				for (Comparison comparison : comparisons) {
+					Boolean result = comparison.eval(state);
+					if (comparison.kernel == DoubleExpression.NOT_EQUAL) {
+						if (!Boolean.TRUE.equals(result)) {
+							veto(state, comparison);
+						}
+					} else if (Boolean.TRUE.equals(result)) {
+						count(state, comparison, candidates);
+					}
+				}
+				return;
+			}
+			Object key = equalityKey(value);
+			// values of the same key may still differ, as 1.0 and 1.00 do
+			for (Comparison comparison : equal.getOrDefault(key, Collections.emptyList())) {
+				if (Boolean.TRUE.equals(comparison.eval(state))) {
+					count(state, comparison, candidates);
+				}
+			}
+			for (Comparison comparison : notEqual.getOrDefault(key, Collections.emptyList())) {
+				if (!Boolean.TRUE.equals(comparison.eval(state))) {
+					veto(state, comparison);
+				}
+			}
+			BigDecimal number;
+			try {
+				number = Utils.adapt(value, BigDecimal.class);
+			} catch (RuntimeException exception) {
+				// not a number, so that no range holds
+				number = null;
+			}
+			if (number != null) {
+				hold(state, less.tailMap(number, false).values(), candidates);
+				hold(state, lessOrEqual.tailMap(number, true).values(), candidates);
+				hold(state, greater.headMap(number, false).values(), candidates);
+				hold(state, greaterOrEqual.headMap(number, true).values(), candidates);
+			}
+		}
+
+		private static boolean isNonFinite(Object value) {
+			return (value instanceof Double || value instanceof Float)
+					&& !Double.isFinite(((Number) value).doubleValue());
+		}
+
+		private static void hold(State state, Collection<List<Comparison>> holding, List<Rule> candidates) {
+			for (List<Comparison> comparisons : holding) {
+				for (Comparison comparison : comparisons) {
+					comparison.set(state, Boolean.TRUE);
+					count(state, comparison, candidates);
+				}
+			}
+		}
+
+		private static void count(State state, Comparison comparison, List<Rule> candidates) {
+			for (Rule rule : comparison.rules) {
+				if (state.count(rule) == rule.indexed) {
+					candidates.add(rule);
+				}
+			}
+		}
+
+		private static void veto(State state, Comparison comparison) {
+			for (Rule rule : comparison.rules) {
+				state.vetoEvents[rule.index] = state.event;
+			}
+		}
+
+	}
+
+	private static final class And extends Condition {
+
+		private final Condition[] operands;
+
+		And(int index, Condition[] operands) {
+			super(index);
+			this.operands = operands;
+		}
+
+		@Override
+		Boolean compute(State state) {
+			Boolean result = Boolean.TRUE;
+			for (Condition operand : operands) {
+				Boolean value = operand.eval(state);
+				if (Boolean.FALSE.equals(value)) {
+					return Boolean.FALSE;
+				} else if (value == null) {
+					result = null;
+				}
+			}
+			return result;
+		}
+
+	}
+
+	private static final class Or extends Condition {
+
+		private final Condition[] operands;
+
+		Or(int index, Condition[] operands) {
+			super(index);
+			this.operands = operands;
+		}
+
+		@Override
+		Boolean compute(State state) {
+			Boolean result = Boolean.FALSE;
+			for (Condition operand : operands) {
+				Boolean value = operand.eval(state);
+				if (Boolean.TRUE.equals(value)) {
+					return Boolean.TRUE;
+				} else if (value == null) {
+					result = null;
+				}
+			}
+			return result;
+		}
+
+	}
+
+	private static final class Not extends Condition {
+
+		private final Condition operand;
+
+		Not(int index, Condition operand) {
+			super(index);
+			this.operand = operand;
+		}
+
+		@Override
+		Boolean compute(State state) {
+			Boolean value = operand.eval(state);
+			return value == null ? null : !value;
+		}
+
+	}
+
+}
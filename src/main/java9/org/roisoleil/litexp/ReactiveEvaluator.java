@@ -0,0 +1,256 @@
+/*
+ * MIT License
+ * 
+ * Copyright (c) 2018 Udo Klimaschewski, Hélios GILLES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.roisoleil.litexp;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluation of the expressions of an {@link IncrementalEvaluator} driven by
+ * {@link Flow.Publisher}s of variable values.
+ * <p>
+ * The values received are held until the end of a batch window, opened by the
+ * first value after an evaluation: only the last value of each variable is
+ * then applied, in one update, and only the expressions reading a variable
+ * that changed are computed again. The results that changed are published as
+ * one map per batch to the subscribers of {@link #results()}. Evaluations run
+ * on the given executor, one at a time; a virtual thread executor may be used.
+ * <p>
+ * Publishing to subscribers that are slow blocks the evaluation, while the
+ * values received meanwhile keep being merged into the next batch, so that a
+ * slow subscriber makes batches larger rather than the buffers unbounded.
+ * Results are published once every source has completed, and the results
+ * publisher is closed. A source failing closes it exceptionally.
+ * <p>
+ * Unlike the rest of the library, this class needs Java 9.
+ */
+public final class ReactiveEvaluator implements AutoCloseable {
+
+	private final IncrementalEvaluator evaluator;
+
+	private final Executor batchExecutor;
+
+	private final SubmissionPublisher<Map<String, Object>> results;
+
+	/**
+	 * The last value received for each variable since the last batch.
+	 */
+	private final Map<String, Object> received = new ConcurrentHashMap<>();
+
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	private final List<Source> sources = new ArrayList<>();
+
+	private final AtomicInteger activeSources = new AtomicInteger();
+
+	private volatile boolean closed;
+
+	/**
+	 * Creates a reactive evaluator of the expressions registered to an
+	 * incremental evaluator, which should no longer be used directly.
+	 * 
+	 * @param evaluator
+	 *            The expressions to evaluate.
+	 * @param executor
+	 *            The executor evaluations and publications run on.
+	 * @param batchWindow
+	 *            The time values are merged for before being evaluated, or zero
+	 *            to merge only the values received until the evaluation starts.
+	 */
+	public ReactiveEvaluator(IncrementalEvaluator evaluator, Executor executor, Duration batchWindow) {
+		this.evaluator = evaluator;
+		this.batchExecutor = batchWindow.isZero() ? executor
+				: CompletableFuture.delayedExecutor(batchWindow.toNanos(), TimeUnit.NANOSECONDS, executor);
+		this.results = new SubmissionPublisher<>(executor, Flow.defaultBufferSize());
+	}
+
+	/**
+	 * Binds a variable to a source of values. The source is subscribed to at
+	 * once.
+	 * 
+	 * @param variable
+	 *            The case insensitive variable name.
+	 * @param source
+	 *            The publisher of the successive values of the variable.
+	 */
+	public ReactiveEvaluator bind(String variable, Flow.Publisher<?> source) {
+		Source subscriber = new Source(variable);
+		synchronized (sources) {
+			sources.add(subscriber);
+		}
+		activeSources.incrementAndGet();
+		source.subscribe(subscriber);
+		return this;
+	}
+
+	/**
+	 * Gives the publisher of the results: a map, in registration order, of the
+	 * new result of each expression whose result changed in a batch. Subscribers
+	 * receive the results of the batches evaluated after they subscribed.
+	 */
+	public Flow.Publisher<Map<String, Object>> results() {
+		return results;
+	}
+
+	private void receive(String variable, Object value) {
+		received.put(variable, value);
+		schedule();
+	}
+
+	private void schedule() {
+		if (!closed && scheduled.compareAndSet(false, true)) {
+			try {
+				batchExecutor.execute(this::evaluate);
+			} catch (RuntimeException exception) {
+				scheduled.set(false);
+				fail(exception);
+			}
+		}
+	}
+
+	/**
+	 * Applies the values received so far and publishes the results that changed.
+	 * Batches are evaluated one at a time, so that the values of a batch are
+	 * never applied before the ones of an earlier batch.
+	 */
+	private synchronized void evaluate() {
+		scheduled.set(false);
+		if (closed) {
+			return;
+		}
+		Map<String, Object> batch = new HashMap<>();
+		for (Iterator<Map.Entry<String, Object>> iterator = received.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry<String, Object> entry = iterator.next();
+			batch.put(entry.getKey(), entry.getValue());
+			iterator.remove();
+		}
+		try {
+			Map<String, Object> changed = evaluator.update(batch);
+			if (!changed.isEmpty()) {
+				results.submit(changed);
+			}
+		} catch (RuntimeException exception) {
+			fail(exception);
+		}
+	}
+
+	private void complete() {
+		if (activeSources.decrementAndGet() == 0) {
+			batchExecutor.execute(() -> {
+				evaluate();
+				close();
+			});
+		}
+	}
+
+	private void fail(Throwable throwable) {
+		cancelSources();
+		closed = true;
+		results.closeExceptionally(throwable);
+	}
+
+	private void cancelSources() {
+		synchronized (sources) {
+			for (Source source : sources) {
+				source.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Cancels the subscriptions to the sources and closes the results publisher.
+	 */
+	@Override
+	public void close() {
+		cancelSources();
+		closed = true;
+		results.close();
+	}
+
+	private final class Source implements Flow.Subscriber<Object> {
+
+		private final String variable;
+
+		private volatile Flow.Subscription subscription;
+
+		private volatile boolean cancelled;
+
+		Source(String variable) {
+			this.variable = variable;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			if (cancelled) {
+				subscription.cancel();
+			} else {
+				subscription.request(1);
+			}
+		}
+
+		/**
+		 * Receiving a value only records it, so values are requested one at a
+		 * time as soon as the previous one is recorded.
+		 */
+		@Override
+		public void onNext(Object value) {
+			receive(variable, Objects.requireNonNull(value));
+			subscription.request(1);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			fail(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			complete();
+		}
+
+		void cancel() {
+			cancelled = true;
+			Flow.Subscription current = subscription;
+			if (current != null) {
+				current.cancel();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,131 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.roisoleil.litexp.TestUtils.assertStriclyEquals;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+
+import org.junit.Test;
+import org.roisoleil.litexp.Expression.AbstractFunction;
+import org.roisoleil.litexp.Expression.AbstractOperator;
+import org.roisoleil.litexp.Expression.Operand;
+
+public class TestExpression_caseBytecode {
+
+	private static DoubleExpression compile(String expression) {
+		DoubleExpression bytecode = new Expression(expression).compile().toDoubleExpression().toBytecode();
+		assertTrue(bytecode.isBytecode());
+		return bytecode;
+	}
+
+	private static double evalBytecode(String expression) {
+		return compile(expression).evalDouble();
+	}
+
+	@Test
+	public void testArithmetic() {
+		assertStriclyEquals(14, evalBytecode("5 + 9"));
+		assertStriclyEquals(-4, evalBytecode("5 - 9"));
+		assertStriclyEquals(10.5, evalBytecode("1.5 * 7"));
+		assertStriclyEquals(0.25, evalBytecode("1 / 4"));
+		assertStriclyEquals(-2, evalBytecode("-5 + +3"));
+	}
+
+	@Test
+	public void testBoolean() {
+		assertStriclyEquals(1, evalBytecode("2 > 1 && 1 <= 1"));
+		assertStriclyEquals(0, evalBytecode("2 < 1"));
+		assertStriclyEquals(1, evalBytecode("1 >= 1"));
+		assertStriclyEquals(0, evalBytecode("1 = 2"));
+		assertStriclyEquals(1, evalBytecode("1 != 2"));
+		assertStriclyEquals(1, evalBytecode("not(TRUE == FALSE)"));
+		assertStriclyEquals(1, evalBytecode("(2>3)||(1=0)||(1&&1)"));
+		assertStriclyEquals(0, evalBytecode("(2>3)||(1=0)"));
+	}
+
+	@Test
+	public void testFunctions() {
+		assertStriclyEquals(15, evalBytecode("max(1,9,6,4,15)"));
+		assertStriclyEquals(-45, evalBytecode("min(-45,9,6,4,\"15\")"));
+		assertStriclyEquals(5, evalBytecode("if(TRUE, 5, 3)"));
+		assertStriclyEquals(3, evalBytecode("if(FALSE, 5, 3)"));
+		assertStriclyEquals(1, evalBytecode("sin(pi/2)"));
+	}
+
+	@Test
+	public void testVariables() {
+		DoubleExpression expression = compile("if(a > b, a - b, b - a) * 2");
+		double[] vars = expression.newValues();
+		vars[expression.slotOf("a")] = 1;
+		vars[expression.slotOf("b")] = 4;
+		assertStriclyEquals(6, expression.evalDouble(vars));
+		vars[expression.slotOf("a")] = 10;
+		assertStriclyEquals(12, expression.evalDouble(vars));
+	}
+
+	@Test
+	public void testCustomOperator() {
+		DoubleBinaryOperator average = (left, right) -> (left + right) / 2;
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder()
+				.addOperator(new AbstractOperator("~", Expression.OPERATOR_PRECEDENCE_ADDITIVE, true) {
+					@Override
+					protected Object doEval(Operand leftOperand, Operand rightOperand) {
+						throw new UnsupportedOperationException();
+					}
+				}, average).build();
+		DoubleExpression expression = context.compile("x ~ 4").toDoubleExpression().toBytecode();
+		double[] vars = expression.newValues();
+		vars[expression.slotOf("x")] = 2;
+		assertStriclyEquals(3, expression.evalDouble(vars));
+	}
+
+	@Test
+	public void testCustomFunctionFallback() {
+		Expression expression = new Expression("1 + twice(a)");
+		expression.addFunction(new AbstractFunction("twice", 1) {
+			@Override
+			protected Object doEval(List<Operand> operands) {
+				return operands.get(0).getValue(BigDecimal.class).multiply(new BigDecimal(2));
+			}
+		});
+		DoubleExpression bytecode = expression.compile().toDoubleExpression().toBytecode();
+		double[] vars = bytecode.newValues();
+		vars[bytecode.slotOf("a")] = 1.5;
+		assertStriclyEquals(4, bytecode.evalDouble(vars));
+	}
+
+	@Test
+	public void testLargeExpression() {
+		StringBuilder expression = new StringBuilder("0");
+		for (int i = 0; i < 2000; i++) {
+			expression.append(" + a * ").append(i % 7);
+		}
+		DoubleExpression interpreted = new Expression(expression.toString()).compile().toDoubleExpression();
+		DoubleExpression bytecode = interpreted.toBytecode();
+		double[] vars = interpreted.newValues();
+		vars[interpreted.slotOf("a")] = 0.5;
+		assertStriclyEquals(interpreted.evalDouble(vars), bytecode.evalDouble(vars));
+	}
+
+	@Test
+	public void testDeepExpression() {
+		StringBuilder expression = new StringBuilder();
+		for (int i = 0; i < 1500; i++) {
+			expression.append("a + (");
+		}
+		expression.append("a");
+		for (int i = 0; i < 1500; i++) {
+			expression.append(")");
+		}
+		DoubleExpression interpreted = new Expression(expression.toString()).compile().toDoubleExpression();
+		DoubleExpression bytecode = interpreted.toBytecode();
+		assertFalse(bytecode.isBytecode());
+		double[] vars = interpreted.newValues();
+		vars[interpreted.slotOf("a")] = 0.5;
+		assertStriclyEquals(750.5, bytecode.evalDouble(vars));
+	}
+
+}
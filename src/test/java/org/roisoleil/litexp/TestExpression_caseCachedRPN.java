@@ -0,0 +1,52 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.Test;
+import org.roisoleil.litexp.Expression.AbstractFunction;
+import org.roisoleil.litexp.Expression.Operand;
+
+public class TestExpression_caseCachedRPN {
+
+	@Test
+	public void testEvalManyTimes() {
+		Expression expression = new Expression("a * 2 + b");
+		String rpn = expression.toRPN();
+		for (int i = 0; i < 10; i++) {
+			expression.with("a", new BigDecimal(i)).with("b", BigDecimal.ONE);
+			assertEquals(new BigDecimal(2 * i + 1), expression.eval(BigDecimal.class));
+		}
+		assertEquals(rpn, expression.toRPN());
+	}
+
+	@Test
+	public void testAddFunctionInvalidatesRPN() {
+		Expression expression = new Expression("twice(3)");
+		expression.addFunction(new AbstractFunction(expression, "twice", 1) {
+			@Override
+			protected Object doEval(List<Operand> operands) {
+				return operands.get(0).getValue(BigDecimal.class).multiply(new BigDecimal(2));
+			}
+		});
+		assertEquals(new BigDecimal(6), expression.eval(BigDecimal.class));
+		expression.addFunction(new AbstractFunction(expression, "twice", 1) {
+			@Override
+			protected Object doEval(List<Operand> operands) {
+				return operands.get(0).getValue(BigDecimal.class).multiply(new BigDecimal(3));
+			}
+		});
+		assertEquals(new BigDecimal(9), expression.eval(BigDecimal.class));
+	}
+
+	@Test
+	public void testSetFirstVariableCharactersInvalidatesRPN() {
+		Expression expression = new Expression("$a + 1");
+		expression.setFirstVariableCharacters("$");
+		expression.setVariable("$a", BigDecimal.ONE);
+		assertEquals(new BigDecimal(2), expression.eval(BigDecimal.class));
+	}
+
+}
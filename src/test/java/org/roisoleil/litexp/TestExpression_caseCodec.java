@@ -0,0 +1,105 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.roisoleil.litexp.Expression.AbstractFunction;
+import org.roisoleil.litexp.Expression.LitExpException;
+import org.roisoleil.litexp.Expression.Operand;
+
+public class TestExpression_caseCodec {
+
+	private static final String[] EXPRESSIONS = { "1 + 2 * x", "(x + y) * (x + y) - -x", "2(x + 1)",
+			"IF(x > 1, \"big\", \"small\")", "x * 1 + 0", "true && y", "PI * x / 4", "MAX(x, y, 12345678901234567890.5)",
+			"x = \"abc\" || NOT(y <= 0.10)", "SIN(x) + 3 / 8" };
+
+	@Test
+	public void testRoundTrip() {
+		ExpressionContext context = ExpressionContext.DEFAULT;
+		Bindings bindings = new Bindings().with("x", 2).with("y", new BigDecimal("0.5"));
+		for (String expression : EXPRESSIONS) {
+			CompiledExpression compiled = context.compile(expression);
+			CompiledExpression read = ExpressionCodec.read(ExpressionCodec.write(compiled), context);
+			assertEquals(expression, read.getExpression());
+			assertEquals(compiled.getVariableNames(), read.getVariableNames());
+			assertEquals(compiled.toRPN(), read.toRPN());
+			assertEquals(expression, String.valueOf(compiled.eval(bindings).getValue()),
+					String.valueOf(read.eval(bindings).getValue()));
+		}
+	}
+
+	@Test
+	public void testRuleSet() {
+		ExpressionContext context = ExpressionContext.DEFAULT;
+		Map<String, CompiledExpression> rules = new LinkedHashMap<>();
+		for (int i = 0; i < 100; i++) {
+			rules.put("rule" + i, context.compile("region = \"EU\" && amount > " + i * 10));
+		}
+		byte[] bytes = ExpressionCodec.writeAll(rules);
+		Map<String, CompiledExpression> read = ExpressionCodec.readAll(bytes, context);
+		assertEquals(rules.keySet(), read.keySet());
+		RuleNetwork network = new RuleNetwork(context);
+		read.forEach(network::addRule);
+		Map<String, Object> event = new HashMap<>();
+		event.put("region", "EU");
+		event.put("amount", 25);
+		assertEquals(new LinkedHashSet<>(Arrays.asList("rule0", "rule1", "rule2")), network.match(event));
+	}
+
+	@Test(expected = LitExpException.class)
+	public void testChecksum() {
+		byte[] bytes = ExpressionCodec.write(ExpressionContext.DEFAULT.compile("x + 1"));
+		bytes[bytes.length / 2] ^= 1;
+		ExpressionCodec.read(bytes, ExpressionContext.DEFAULT);
+	}
+
+	@Test(expected = LitExpException.class)
+	public void testTruncated() {
+		byte[] bytes = ExpressionCodec.write(ExpressionContext.DEFAULT.compile("x + 1"));
+		ExpressionCodec.read(Arrays.copyOf(bytes, bytes.length - 5), ExpressionContext.DEFAULT);
+	}
+
+	@Test(expected = LitExpException.class)
+	public void testOtherRegistry() {
+		byte[] bytes = ExpressionCodec.write(ExpressionContext.DEFAULT.compile("x + 1"));
+		ExpressionContext other = ExpressionContext.DEFAULT.toBuilder().addFunction(new AbstractFunction("twice", 1) {
+			@Override
+			protected Object doEval(List<Operand> operands) {
+				return operands.get(0).getValue(BigDecimal.class).multiply(BigDecimal.valueOf(2));
+			}
+		}).build();
+		ExpressionCodec.read(bytes, other);
+	}
+
+	@Test(expected = LitExpException.class)
+	public void testOtherVariableCharacters() {
+		byte[] bytes = ExpressionCodec.write(ExpressionContext.DEFAULT.compile("x + 1"));
+		ExpressionContext other = ExpressionContext.DEFAULT.toBuilder().setFirstVariableCharacters("_$").build();
+		ExpressionCodec.read(bytes, other);
+	}
+
+	@Test(expected = LitExpException.class)
+	public void testOtherDoubleFunction() {
+		byte[] bytes = ExpressionCodec.write(ExpressionContext.DEFAULT.compile("x + 1"));
+		ExpressionContext other = ExpressionContext.DEFAULT.toBuilder()
+				.addFunction(ExpressionContext.DEFAULT.getFunction("SIN")).build();
+		ExpressionCodec.read(bytes, other);
+	}
+
+	@Test
+	public void testSameRegistry() {
+		byte[] bytes = ExpressionCodec.write(ExpressionContext.DEFAULT.compile("x + 1"));
+		ExpressionContext other = ExpressionContext.DEFAULT.toBuilder().setCache(null).build();
+		assertEquals(new BigDecimal("3"), ExpressionCodec.read(bytes, other).eval(new Bindings().with("x", 2),
+				BigDecimal.class));
+	}
+
+}
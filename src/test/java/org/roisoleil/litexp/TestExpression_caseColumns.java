@@ -0,0 +1,75 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.Test;
+import org.roisoleil.litexp.Expression.AbstractFunction;
+import org.roisoleil.litexp.Expression.Operand;
+
+public class TestExpression_caseColumns {
+
+	@Test
+	public void testDoubleColumns() {
+		int rowCount = 3000;
+		double[] price = new double[rowCount];
+		double[] quantity = new double[rowCount];
+		boolean[] discounted = new boolean[rowCount];
+		double[] rate = new double[rowCount];
+		for (int i = 0; i < rowCount; i++) {
+			price[i] = i;
+			quantity[i] = i % 5;
+			discounted[i] = i % 2 == 0;
+			rate[i] = 0.5;
+		}
+		DoubleExpression expression = ExpressionContext.DEFAULT
+				.compile("if(discounted && price > 10, price * quantity * rate, -price + max(quantity, 2))")
+				.toDoubleExpression();
+		Columns columns = new Columns(rowCount).with("price", price).with("Quantity", quantity)
+				.with(expression.slotOf("discounted"), discounted).with("rate", rate);
+		double[] results = new double[rowCount];
+		expression.evalColumns(columns, results);
+		double[] expected = new double[rowCount];
+		double[] values = expression.newValues();
+		for (int i = 0; i < rowCount; i++) {
+			values[expression.slotOf("price")] = price[i];
+			values[expression.slotOf("quantity")] = quantity[i];
+			values[expression.slotOf("discounted")] = discounted[i] ? 1 : 0;
+			values[expression.slotOf("rate")] = rate[i];
+			expected[i] = expression.evalDouble(values);
+		}
+		assertArrayEquals(expected, results, 0);
+	}
+
+	@Test
+	public void testFallbackOnlyForSelectedRows() {
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder()
+				.addFunction(new AbstractFunction("inverse", 1) {
+					@Override
+					protected Object doEval(List<Operand> operands) {
+						return BigDecimal.ONE.divide(operands.get(0).getValue(BigDecimal.class));
+					}
+				}).build();
+		DoubleExpression expression = context.compile("if(x != 0, inverse(x), 0)").toDoubleExpression();
+		double[] results = new double[4];
+		expression.evalColumns(new Columns(4).with("x", new double[] { 0, 2, 0, 4 }), results);
+		assertArrayEquals(new double[] { 0, 0.5, 0, 0.25 }, results, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testColumnLength() {
+		new Columns(3).with("x", new double[2]);
+	}
+
+	@Test
+	public void testMissingColumn() {
+		DoubleExpression expression = ExpressionContext.DEFAULT.compile("x + 1").toDoubleExpression();
+		double[] results = new double[2];
+		expression.evalColumns(new Columns(2), results);
+		assertEquals(Double.NaN, results[1], 0);
+	}
+
+}
@@ -0,0 +1,88 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.roisoleil.litexp.Expression.AbstractFunction;
+import org.roisoleil.litexp.Expression.Operand;
+
+public class TestExpression_caseCommonSubexpressions {
+
+	private static ExpressionContext countingContext(AtomicInteger calls, boolean pure) {
+		return ExpressionContext.DEFAULT.toBuilder().addFunction(new AbstractFunction("count", 2, pure) {
+			@Override
+			protected Object doEval(List<Operand> operands) {
+				calls.incrementAndGet();
+				return operands.get(0).getValue(BigDecimal.class).max(operands.get(1).getValue(BigDecimal.class));
+			}
+		}).build();
+	}
+
+	@Test
+	public void testShareWithinExpression() {
+		AtomicInteger calls = new AtomicInteger();
+		CompiledExpression compiled = countingContext(calls, true).compile("count(a, b) * x + count(a, b) * y");
+		Node.BinaryOperation root = (Node.BinaryOperation) compiled.getRoot();
+		assertSame(((Node.BinaryOperation) root.left).left, ((Node.BinaryOperation) root.right).left);
+		Bindings bindings = new Bindings().with("a", 2).with("b", 3).with("x", 4).with("y", 5);
+		assertEquals(new BigDecimal(27), compiled.eval(bindings, BigDecimal.class));
+		assertEquals(1, calls.get());
+		assertEquals(new BigDecimal(27), compiled.eval(bindings, BigDecimal.class));
+		assertEquals(2, calls.get());
+	}
+
+	@Test
+	public void testImpureIsNotShared() {
+		AtomicInteger calls = new AtomicInteger();
+		CompiledExpression compiled = countingContext(calls, false).compile("count(a, b) + count(a, b)");
+		assertEquals(new BigDecimal(6),
+				compiled.eval(new Bindings().with("a", 2).with("b", 3), BigDecimal.class));
+		assertEquals(2, calls.get());
+	}
+
+	@Test
+	public void testSharedStaysLazy() {
+		AtomicInteger calls = new AtomicInteger();
+		CompiledExpression compiled = countingContext(calls, true).compile("if(c, 0, count(a, b) + count(a, b))");
+		assertEquals(BigDecimal.ZERO, compiled.eval(new Bindings().with("c", 1), BigDecimal.class));
+		assertEquals(0, calls.get());
+	}
+
+	@Test
+	public void testBatch() {
+		AtomicInteger calls = new AtomicInteger();
+		ExpressionBatch batch = countingContext(calls, true).compileBatch("count(a, b) * x", "count(a, b) + 1",
+				"x - y");
+		assertEquals(3, batch.size());
+		assertEquals(Arrays.asList("a", "b", "x", "y"), batch.getVariableNames());
+		Object[] values = batch.newValues();
+		values[batch.slotOf("a")] = new BigDecimal(7);
+		values[batch.slotOf("b")] = new BigDecimal(3);
+		values[batch.slotOf("x")] = new BigDecimal(2);
+		values[batch.slotOf("y")] = BigDecimal.ONE;
+		assertEquals(Arrays.asList(new BigDecimal(14), new BigDecimal(8), BigDecimal.ONE),
+				batch.eval(values, BigDecimal.class));
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void testDoubleExpression() {
+		DoubleExpression expression = ExpressionContext.DEFAULT.compile("max(a, b) * x + max(a, b) * y")
+				.toDoubleExpression();
+		double[] values = expression.newValues();
+		values[expression.slotOf("a")] = 2;
+		values[expression.slotOf("b")] = 3;
+		values[expression.slotOf("x")] = 4;
+		values[expression.slotOf("y")] = 5;
+		assertTrue(27 == expression.evalDouble(values));
+		assertTrue(27 == expression.toBytecode().evalDouble(values));
+	}
+
+}
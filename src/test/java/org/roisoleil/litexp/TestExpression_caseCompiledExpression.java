@@ -0,0 +1,61 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.roisoleil.litexp.Expression.LitExpException;
+
+public class TestExpression_caseCompiledExpression {
+
+	@Test
+	public void testEvalWithBindings() {
+		CompiledExpression compiled = new Expression("a * 2 + B").compile();
+		assertEquals(new BigDecimal(5), compiled.eval(new Bindings().with("A", 2).with("b", 1), BigDecimal.class));
+		assertEquals(new BigDecimal(7), compiled.eval(new Bindings().with("a", 3).with("b", 1), BigDecimal.class));
+	}
+
+	@Test
+	public void testConstants() {
+		CompiledExpression compiled = new Expression("if(TRUE, pi, 0)").compile();
+		assertEquals(BigDecimal.valueOf(Math.PI), compiled.eval(BigDecimal.class));
+	}
+
+	@Test(expected = LitExpException.class)
+	public void testUnknownVariable() {
+		new Expression("a + 1").compile().eval(BigDecimal.class);
+	}
+
+	@Test
+	public void testConcurrentEval() throws Exception {
+		CompiledExpression compiled = new Expression("if(a > b, a - b, b - a)").compile();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> futures = new ArrayList<>();
+			for (int thread = 0; thread < 4; thread++) {
+				int offset = thread;
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 1000; i++) {
+						Bindings bindings = new Bindings().with("a", new BigDecimal(i)).with("b", new BigDecimal(offset));
+						if (!new BigDecimal(Math.abs(i - offset)).equals(compiled.eval(bindings, BigDecimal.class))) {
+							return false;
+						}
+					}
+					return true;
+				}));
+			}
+			for (Future<Boolean> future : futures) {
+				assertEquals(Boolean.TRUE, future.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
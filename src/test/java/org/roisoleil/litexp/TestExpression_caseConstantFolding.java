@@ -0,0 +1,131 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.roisoleil.litexp.TestUtils.assertStriclyEquals;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.roisoleil.litexp.Expression.AbstractFunction;
+import org.roisoleil.litexp.Expression.Operand;
+
+public class TestExpression_caseConstantFolding {
+
+	@Test
+	public void testFoldConstants() {
+		CompiledExpression compiled = new Expression("2 * 3600 + pi / 4").compile();
+		assertTrue(compiled.getRoot() instanceof Node.Constant);
+		Bindings bindings = new Bindings().with("a", 2).with("b", 3600).with("c",
+				ExpressionContext.DEFAULT.getConstant("pi")).with("d", 4);
+		assertEquals(new Expression("a * b + c / d").compile().eval(bindings, BigDecimal.class),
+				compiled.eval(BigDecimal.class));
+	}
+
+	@Test
+	public void testFoldPartially() {
+		CompiledExpression compiled = new Expression("x * (2 * 3)").compile();
+		assertTrue(((Node.BinaryOperation) compiled.getRoot()).right instanceof Node.Constant);
+		assertEquals(new BigDecimal(42), compiled.eval(new Bindings().with("x", 7), BigDecimal.class));
+	}
+
+	@Test
+	public void testPruneIf() {
+		CompiledExpression compiled = new Expression("if(1 > 0, x, y)").compile();
+		assertSame(Node.Variable.class, compiled.getRoot().getClass());
+		assertEquals(BigDecimal.ONE, compiled.eval(new Bindings().with("x", 1), BigDecimal.class));
+	}
+
+	@Test
+	public void testIdentities() {
+		assertEquals(new BigDecimal(3), new Expression("x * 1 + 0").with("x", "3").eval(BigDecimal.class));
+		assertEquals(new BigDecimal(4), new Expression("1 * x / 1 - 0").with("x", 4).eval(BigDecimal.class));
+		assertEquals(Boolean.TRUE, new Expression("true && x").with("x", 2).eval(Boolean.class));
+		assertEquals(Boolean.FALSE, new Expression("x || false").with("x", 0).eval(Boolean.class));
+		assertTrue(new Expression("true && x").compile().getRoot() instanceof Node.Coercion);
+		assertTrue(new Expression("x + 0").compile().getRoot() instanceof Node.BinaryOperation);
+	}
+
+	@Test
+	public void testArithmeticIdentitiesKeepScale() {
+		Bindings bindings = new Bindings().with("x", 2).with("y", new BigDecimal("1.0"));
+		assertEquals(Boolean.TRUE, new Expression("(x * y) = 2.0").compile().eval(bindings, Boolean.class));
+		assertEquals(Boolean.TRUE, new Expression("(x * 1.0) = 2.0").compile().eval(bindings, Boolean.class));
+		assertEquals(new BigDecimal("2.0"), new Expression("x * 1.0").compile().eval(bindings, BigDecimal.class));
+	}
+
+	@Test
+	public void testPureFunctionIsFolded() {
+		AtomicInteger calls = new AtomicInteger();
+		Expression expression = new Expression("twice(21) + x");
+		expression.addFunction(new AbstractFunction("twice", 1, true) {
+			@Override
+			protected Object doEval(List<Operand> operands) {
+				calls.incrementAndGet();
+				return operands.get(0).getValue(BigDecimal.class).multiply(new BigDecimal(2));
+			}
+		});
+		CompiledExpression compiled = expression.compile();
+		assertEquals(1, calls.get());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(new BigDecimal(42 + i), compiled.eval(new Bindings().with("x", i), BigDecimal.class));
+		}
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void testImpureFunctionIsNotFolded() {
+		AtomicInteger calls = new AtomicInteger();
+		Expression expression = new Expression("next(1)");
+		expression.addFunction(new AbstractFunction("next", 1) {
+			@Override
+			protected Object doEval(List<Operand> operands) {
+				return new BigDecimal(calls.incrementAndGet());
+			}
+		});
+		CompiledExpression compiled = expression.compile();
+		assertEquals(0, calls.get());
+		assertEquals(BigDecimal.ONE, compiled.eval(BigDecimal.class));
+		assertEquals(new BigDecimal(2), compiled.eval(BigDecimal.class));
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void testErrorIsRaisedAtEvaluation() {
+		CompiledExpression compiled = new Expression("5 / 0").compile();
+		compiled.eval(BigDecimal.class);
+	}
+
+	@Test
+	public void testOverrideConstant() {
+		Expression expression = new Expression("pi * 2");
+		expression.setVariable("pi", 3);
+		assertEquals(new BigDecimal(6), expression.eval(BigDecimal.class));
+	}
+
+	@Test
+	public void testOverrideConstantCompilesOnce() {
+		Expression expression = new Expression("e * 2");
+		expression.setVariable("e", 0);
+		CompiledExpression compiled = expression.compile();
+		for (int i = 1; i < 5; i++) {
+			expression.setVariable("E", i);
+			assertEquals(new BigDecimal(2 * i), expression.eval(BigDecimal.class));
+		}
+		assertSame(compiled, expression.compile());
+		assertSame(ExpressionContext.DEFAULT, expression.getContext());
+		assertTrue(ExpressionContext.DEFAULT.compile("e * 2").getRoot() instanceof Node.Constant);
+	}
+
+	@Test
+	public void testDoubleExpression() {
+		DoubleExpression expression = new Expression("x * 1 + 2 * pi").compile().toDoubleExpression();
+		double[] values = expression.newValues();
+		values[expression.slotOf("x")] = 1;
+		assertStriclyEquals(1 + 2 * Math.PI, expression.evalDouble(values));
+		assertStriclyEquals(1 + 2 * Math.PI, expression.toBytecode().evalDouble(values));
+	}
+
+}
@@ -0,0 +1,99 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.fail;
+import static org.roisoleil.litexp.TestUtils.assertStriclyEquals;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.Test;
+import org.roisoleil.litexp.Expression.AbstractFunction;
+import org.roisoleil.litexp.Expression.LitExpException;
+import org.roisoleil.litexp.Expression.Operand;
+
+public class TestExpression_caseDoubleExpression {
+
+	private static double evalDouble(String expression) {
+		return new Expression(expression).compile().toDoubleExpression().evalDouble();
+	}
+
+	@Test
+	public void testArithmetic() {
+		assertStriclyEquals(14, evalDouble("5 + 9"));
+		assertStriclyEquals(-4, evalDouble("5 - 9"));
+		assertStriclyEquals(10.5, evalDouble("1.5 * 7"));
+		assertStriclyEquals(0.25, evalDouble("1 / 4"));
+		assertStriclyEquals(-2, evalDouble("-5 + 3"));
+		assertStriclyEquals(Double.POSITIVE_INFINITY, evalDouble("1 / 0"));
+	}
+
+	@Test
+	public void testBoolean() {
+		assertStriclyEquals(1, evalDouble("2 > 1 && 1 <= 1"));
+		assertStriclyEquals(0, evalDouble("1 = 2"));
+		assertStriclyEquals(1, evalDouble("not(TRUE == FALSE)"));
+		assertStriclyEquals(1, evalDouble("(2>3)||(1=0)||(1&&1)"));
+	}
+
+	@Test
+	public void testFunctions() {
+		assertStriclyEquals(15, evalDouble("max(1,9,6,4,15)"));
+		assertStriclyEquals(-45, evalDouble("min(-45,9,6,4,\"15\")"));
+		assertStriclyEquals(5, evalDouble("if(TRUE, 5, 3)"));
+		assertStriclyEquals(1, evalDouble("sin(pi/2)"));
+	}
+
+	@Test
+	public void testVariables() {
+		DoubleExpression expression = new Expression("price * quantity").compile().toDoubleExpression();
+		double[] vars = expression.newValues();
+		vars[expression.slotOf("price")] = 2.5;
+		vars[expression.slotOf("quantity")] = 4;
+		assertStriclyEquals(10, expression.evalDouble(vars));
+	}
+
+	@Test
+	public void testCustomFunctionFallback() {
+		Expression expression = new Expression("twice(a) + 1");
+		expression.addFunction(new AbstractFunction("twice", 1) {
+			@Override
+			protected Object doEval(List<Operand> operands) {
+				return operands.get(0).getValue(BigDecimal.class).multiply(new BigDecimal(2));
+			}
+		});
+		DoubleExpression doubleExpression = expression.compile().toDoubleExpression();
+		double[] vars = doubleExpression.newValues();
+		vars[doubleExpression.slotOf("a")] = 1.5;
+		assertStriclyEquals(4, doubleExpression.evalDouble(vars));
+	}
+
+	@Test
+	public void testNonFiniteFallback() {
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder()
+				.addFunction(new AbstractFunction("id", 1) {
+					@Override
+					protected Object doEval(List<Operand> operands) {
+						return operands.get(0).getValue();
+					}
+				}).addFunction(new AbstractFunction("twice", 1) {
+					@Override
+					protected Object doEval(List<Operand> operands) {
+						return operands.get(0).getValue(BigDecimal.class).multiply(new BigDecimal(2));
+					}
+				}).build();
+		DoubleExpression id = context.compile("id(x)").toDoubleExpression();
+		assertStriclyEquals(Double.NaN, id.evalDouble(id.newValues()));
+		DoubleExpression inverse = context.compile("id(1 / x)").toDoubleExpression();
+		double[] vars = inverse.newValues();
+		vars[inverse.slotOf("x")] = 0;
+		assertStriclyEquals(Double.POSITIVE_INFINITY, inverse.evalDouble(vars));
+		DoubleExpression twice = context.compile("twice(x)").toDoubleExpression();
+		try {
+			twice.evalDouble(twice.newValues());
+			fail();
+		} catch (LitExpException e) {
+			// NaN is no decimal
+		}
+	}
+
+}
@@ -0,0 +1,164 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.roisoleil.litexp.Expression.AbstractFunction;
+import org.roisoleil.litexp.Expression.LitExpException;
+import org.roisoleil.litexp.Expression.Operand;
+
+public class TestExpression_caseExpressionCache {
+
+	@Test
+	public void testHitAndMiss() {
+		ExpressionCache cache = new ExpressionCache(10);
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder().setCache(cache).build();
+		CompiledExpression compiled = new Expression("a + b", context).compile();
+		assertSame(compiled, new Expression("a + b", context).compile());
+		assertSame(compiled, context.compile("a + b"));
+		assertEquals(1, cache.getMissCount());
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testKeyedByContext() {
+		ExpressionCache cache = new ExpressionCache(10);
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder().setCache(cache).build();
+		ExpressionContext other = context.toBuilder().build();
+		assertSame(cache, other.getCache());
+		assertNotSame(context.compile("a + b"), other.compile("a + b"));
+		assertEquals(2, cache.getMissCount());
+	}
+
+	@Test
+	public void testEviction() {
+		ExpressionCache cache = new ExpressionCache(2);
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder().setCache(cache).build();
+		CompiledExpression a = context.compile("a");
+		context.compile("b");
+		context.compile("a");
+		context.compile("c");
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		// "a" was read again, so "b" is the one evicted
+		assertSame(a, context.compile("a"));
+		context.compile("b");
+		assertEquals(4, cache.getMissCount());
+	}
+
+	@Test
+	public void testNoCache() {
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder().setCache(null).build();
+		assertNotSame(context.compile("a + b"), context.compile("a + b"));
+	}
+
+	@Test
+	public void testErrorIsNotCached() {
+		ExpressionCache cache = new ExpressionCache(10);
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder().setCache(cache).build();
+		for (int i = 0; i < 2; i++) {
+			try {
+				context.compile("a +");
+			} catch (LitExpException e) {
+				// expected
+			}
+		}
+		assertEquals(0, cache.size());
+		assertEquals(2, cache.getMissCount());
+	}
+
+	@Test
+	public void testConcurrentCompile() throws Exception {
+		ExpressionCache cache = new ExpressionCache(10);
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder().setCache(cache).build();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Callable<CompiledExpression>> tasks = new ArrayList<>();
+			for (int i = 0; i < 100; i++) {
+				tasks.add(() -> context.compile("max(a, b) * 2"));
+			}
+			CompiledExpression first = null;
+			for (Future<CompiledExpression> future : executor.invokeAll(tasks)) {
+				if (first == null) {
+					first = future.get();
+				}
+				assertSame(first, future.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(1, cache.getMissCount());
+		assertEquals(99, cache.getHitCount());
+	}
+
+	@Test
+	public void testCompileOutsideOfTheMap() throws Exception {
+		ExpressionCache cache = new ExpressionCache(10);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ExpressionContext[] context = new ExpressionContext[1];
+		context[0] = ExpressionContext.DEFAULT.toBuilder().setCache(cache)
+				.addFunction(new AbstractFunction("slow", 1, true) {
+					@Override
+					protected Object doEval(List<Operand> operands) {
+						started.countDown();
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							throw new LitExpException("interrupted");
+						}
+						return operands.get(0).getValue();
+					}
+				}).addFunction(new AbstractFunction("nested", 1, true) {
+					@Override
+					protected Object doEval(List<Operand> operands) {
+						return context[0].compile("2 * 3").eval(BigDecimal.class);
+					}
+				}).build();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			// folded at compile time, so slow() runs while compiling
+			Future<CompiledExpression> slow = executor.submit(() -> context[0].compile("slow(1)"));
+			started.await();
+			assertEquals(new BigDecimal(7), context[0].compile("a + 1").eval(new Bindings().with("a", 6),
+					BigDecimal.class));
+			assertEquals(new BigDecimal(6), context[0].compile("nested(1)").eval(BigDecimal.class));
+			release.countDown();
+			assertEquals(BigDecimal.ONE, slow.get().eval(BigDecimal.class));
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+		assertEquals(4, cache.size());
+	}
+
+	@Test
+	public void testExpressionContextIsNotCached() {
+		int size = ExpressionCache.DEFAULT.size();
+		Expression expression = new Expression("twice(x) + 1");
+		expression.addFunction(new AbstractFunction("twice", 1) {
+			@Override
+			protected Object doEval(List<Operand> operands) {
+				return operands.get(0).getValue(BigDecimal.class).multiply(new BigDecimal(2));
+			}
+		});
+		CompiledExpression compiled = expression.compile();
+		assertNull(expression.getContext().getCache());
+		assertSame(compiled, expression.compile());
+		assertEquals(size, ExpressionCache.DEFAULT.size());
+	}
+
+}
@@ -0,0 +1,77 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.Test;
+import org.roisoleil.litexp.Expression.AbstractFunction;
+import org.roisoleil.litexp.Expression.Operand;
+
+public class TestExpression_caseExpressionContext {
+
+	private static final ExpressionContext CONTEXT = ExpressionContext.DEFAULT.toBuilder()
+			.addFunction(new AbstractFunction("Double", 1) {
+				@Override
+				protected Object doEval(List<Operand> operands) {
+					return operands.get(0).getValue(BigDecimal.class).multiply(new BigDecimal(2));
+				}
+			}).addConstant("Answer", new BigDecimal(42)).build();
+
+	@Test
+	public void testCustomContext() {
+		assertEquals(new BigDecimal(84), CONTEXT.compile("DOUBLE(answer)").eval(BigDecimal.class));
+		assertEquals(new BigDecimal(10), new Expression("double(a)", CONTEXT).with("A", 5).eval(BigDecimal.class));
+	}
+
+	@Test
+	public void testDefaultContextIsShared() {
+		Expression expression = new Expression("1 + 1");
+		assertSame(ExpressionContext.DEFAULT, expression.getContext());
+		assertSame(ExpressionContext.DEFAULT, expression.compile().getContext());
+	}
+
+	@Test
+	public void testExpressionChangesDoNotLeakIntoContext() {
+		Expression expression = new Expression("twice(1)");
+		expression.addFunction(new AbstractFunction("twice", 1) {
+			@Override
+			protected Object doEval(List<Operand> operands) {
+				return operands.get(0).getValue(BigDecimal.class).multiply(new BigDecimal(2));
+			}
+		});
+		assertEquals(new BigDecimal(2), expression.eval(BigDecimal.class));
+		assertNull(ExpressionContext.DEFAULT.getFunction("twice"));
+	}
+
+	@Test
+	public void testExpressionChangesAreBuiltOnce() {
+		Expression expression = new Expression("a(1) + b(2)");
+		for (String name : new String[] { "a", "b" }) {
+			assertNull(expression.addFunction(new AbstractFunction(name, 1) {
+				@Override
+				protected Object doEval(List<Operand> operands) {
+					return operands.get(0).getValue(BigDecimal.class);
+				}
+			}));
+		}
+		assertNull(expression.addConstant("c", 1));
+		assertEquals(1, expression.addConstant("c", 2));
+		ExpressionContext context = expression.getContext();
+		assertNotSame(ExpressionContext.DEFAULT, context);
+		assertSame(context, expression.getContext());
+		assertSame(context, expression.compile().getContext());
+		assertEquals(2, context.getConstant("c"));
+		assertEquals(new BigDecimal(3), expression.eval(BigDecimal.class));
+	}
+
+	@Test
+	public void testUnaryOperatorInsideBinaryExpression() {
+		assertEquals(new BigDecimal(-2), ExpressionContext.DEFAULT.compile("-5 + 3").eval(BigDecimal.class));
+	}
+
+}
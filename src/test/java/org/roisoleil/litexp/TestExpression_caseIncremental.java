@@ -0,0 +1,116 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.roisoleil.litexp.Expression.AbstractFunction;
+import org.roisoleil.litexp.Expression.LitExpException;
+import org.roisoleil.litexp.Expression.Operand;
+
+public class TestExpression_caseIncremental {
+
+	private static ExpressionContext counting(AtomicInteger calls, boolean pure) {
+		return ExpressionContext.DEFAULT.toBuilder().setCache(null)
+				.addFunction(new AbstractFunction("counted", 1, pure) {
+					@Override
+					protected Object doEval(List<Operand> operands) {
+						calls.incrementAndGet();
+						return operands.get(0).getValue();
+					}
+				}).build();
+	}
+
+	private static Map<String, Object> values(Object... namesAndValues) {
+		Map<String, Object> result = new HashMap<>();
+		for (int i = 0; i < namesAndValues.length; i += 2) {
+			result.put((String) namesAndValues[i], namesAndValues[i + 1]);
+		}
+		return result;
+	}
+
+	@Test
+	public void testOnlyChangedResults() {
+		IncrementalEvaluator evaluator = new IncrementalEvaluator(ExpressionContext.DEFAULT);
+		evaluator.register("total", "price * quantity + shipping");
+		evaluator.register("free", "price * quantity > 100");
+		evaluator.register("double", "shipping * 2");
+		Map<String, Object> changed = evaluator.update(values("price", 10, "quantity", 5, "shipping", 3));
+		assertEquals(3, changed.size());
+		assertEquals(new BigDecimal(53), changed.get("total"));
+		assertEquals(false, changed.get("free"));
+		changed = evaluator.update(values("quantity", 20));
+		assertEquals(values("total", new BigDecimal(203), "free", true), changed);
+		changed = evaluator.update(values("shipping", 3));
+		assertTrue(changed.isEmpty());
+		changed = evaluator.update(values("SHIPPING", 4));
+		assertEquals(values("total", new BigDecimal(204), "double", new BigDecimal(8)), changed);
+		assertEquals(new BigDecimal(204), evaluator.getValue("total"));
+	}
+
+	@Test
+	public void testOnlyDirtyCellsAreComputed() {
+		AtomicInteger calls = new AtomicInteger();
+		IncrementalEvaluator evaluator = new IncrementalEvaluator(counting(calls, true));
+		evaluator.register("a", "counted(x) + y");
+		evaluator.register("b", "counted(x) * 2 - z");
+		assertEquals(2, evaluator.update(values("x", 1, "y", 2, "z", 3)).size());
+		// the common sub-tree is a single cell
+		assertEquals(1, calls.get());
+		evaluator.update(values("y", 5, "z", 7));
+		assertEquals(1, calls.get());
+		evaluator.update(values("x", 2));
+		assertEquals(2, calls.get());
+	}
+
+	@Test
+	public void testImpureIsAlwaysComputed() {
+		AtomicInteger calls = new AtomicInteger();
+		IncrementalEvaluator evaluator = new IncrementalEvaluator(counting(calls, false));
+		evaluator.register("a", "counted(x) + counted(x)");
+		evaluator.update(values("x", 1));
+		assertEquals(2, calls.get());
+		evaluator.update(Collections.emptyMap());
+		assertEquals(4, calls.get());
+	}
+
+	@Test
+	public void testLazyBranchesStayDirty() {
+		AtomicInteger calls = new AtomicInteger();
+		IncrementalEvaluator evaluator = new IncrementalEvaluator(counting(calls, true));
+		evaluator.register("a", "IF(c, 0, counted(x))");
+		evaluator.update(values("c", 1, "x", 1));
+		evaluator.update(values("x", 2));
+		assertEquals(0, calls.get());
+		assertEquals(values("a", 2), evaluator.update(values("c", 0)));
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void testFailure() {
+		IncrementalEvaluator evaluator = new IncrementalEvaluator(ExpressionContext.DEFAULT);
+		evaluator.register("a", "x + y");
+		Map<String, Object> changed = evaluator.update(values("x", 1));
+		assertTrue(changed.containsKey("a"));
+		assertNull(evaluator.getValue("a"));
+		assertTrue(evaluator.getFailure("a").getMessage().startsWith("Unknown variable"));
+		assertEquals(values("a", new BigDecimal(3)), evaluator.update(values("y", 2)));
+		assertNull(evaluator.getFailure("a"));
+	}
+
+	@Test(expected = LitExpException.class)
+	public void testDuplicateId() {
+		IncrementalEvaluator evaluator = new IncrementalEvaluator(ExpressionContext.DEFAULT);
+		evaluator.register("a", "1");
+		evaluator.register("a", "2");
+	}
+
+}
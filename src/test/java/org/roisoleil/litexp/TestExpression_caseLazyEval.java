@@ -1,9 +1,18 @@
 package org.roisoleil.litexp;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.roisoleil.litexp.TestUtils.assertStriclyEquals;
 import static org.roisoleil.litexp.TestUtils.evalToDouble;
 
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Test;
+import org.roisoleil.litexp.Expression.AbstractFunction;
+import org.roisoleil.litexp.Expression.AbstractOperator;
+import org.roisoleil.litexp.Expression.Operand;
 
 public class TestExpression_caseLazyEval {
 
@@ -13,9 +22,98 @@ public class TestExpression_caseLazyEval {
 		assertStriclyEquals(0, evalToDouble("if(1, 0, A)"));
 	}
 
+	@Test
+	public void testLazyEval_argumentsInOrder() {
+		AtomicInteger calls = new AtomicInteger();
+		Expression expression = new Expression("if(a, count(1, 2), count(3)) - 1");
+		expression.addFunction(new AbstractFunction("count", -1) {
+			@Override
+			protected Object doEval(List<Operand> operands) {
+				calls.incrementAndGet();
+				return operands.get(0).getValue(BigDecimal.class).add(new BigDecimal(operands.size()));
+			}
+		});
+		assertStriclyEquals(2, expression.with("a", 1).eval(BigDecimal.class).doubleValue());
+		assertStriclyEquals(3, expression.with("a", 0).eval(BigDecimal.class).doubleValue());
+		assertEquals(2, calls.get());
+	}
+
 	@Test(expected = ArithmeticException.class)
 	public void testLazyEval_withException() {
 		evalToDouble("if(0, 0, 5/0)");
 	}
 
+	private static ExpressionContext counting(AtomicInteger calls) {
+		return ExpressionContext.DEFAULT.toBuilder().setCache(null).addFunction(new AbstractFunction("expensive", 1) {
+			@Override
+			protected Object doEval(List<Operand> operands) {
+				calls.incrementAndGet();
+				return operands.get(0).getValue();
+			}
+		}).addOperator(new AbstractOperator("??", Expression.OPERATOR_PRECEDENCE_OR, false) {
+			@Override
+			public boolean isLazy() {
+				return true;
+			}
+
+			@Override
+			protected Object doEval(Operand leftOperand, Operand rightOperand) {
+				BigDecimal left = leftOperand.getValue(BigDecimal.class);
+				return left.signum() != 0 ? left : rightOperand.getValue();
+			}
+		}).build();
+	}
+
+	@Test
+	public void testShortCircuit() {
+		AtomicInteger calls = new AtomicInteger();
+		ExpressionContext context = counting(calls);
+		String[] expressions = { "x > 1 && expensive(x)", "x <= 1 || expensive(x)", "x > 1 and expensive(x)",
+				"x <= 1 or expensive(x)" };
+		for (String text : expressions) {
+			CompiledExpression compiled = context.compile(text);
+			Bindings bindings = new Bindings().with("x", 1);
+			assertEquals(text, text.contains("<="), compiled.eval(bindings, Boolean.class));
+			assertEquals(text, text.contains("<="),
+					compiled.newScratch().eval(new Object[] { 1 }, Boolean.class));
+			assertEquals(text, text.contains("<=") ? 1 : 0, compiled.toDoubleExpression().evalDouble(new double[] { 1 }),
+					0);
+			assertEquals(text, 0, calls.get());
+			compiled.eval(new Bindings().with("x", 2), Boolean.class);
+			assertEquals(text, 1, calls.getAndSet(0));
+		}
+	}
+
+	@Test
+	public void testOrIsNotAnd() {
+		assertEquals(true, ExpressionContext.DEFAULT.compile("x or y").eval(new Bindings().with("x", 0).with("y", 1),
+				Boolean.class));
+		assertEquals(1, ExpressionContext.DEFAULT.compile("x or y").toDoubleExpression()
+				.evalDouble(new double[] { 0, 1 }), 0);
+	}
+
+	@Test
+	public void testFoldedShortCircuit() {
+		AtomicInteger calls = new AtomicInteger();
+		CompiledExpression compiled = counting(calls).compile("false && expensive(x) || true || expensive(x)");
+		assertTrue(compiled.getRoot() instanceof Node.Constant);
+		assertEquals(true, compiled.eval(Boolean.class));
+		assertEquals(0, calls.get());
+	}
+
+	@Test
+	public void testLazyCustomOperator() {
+		AtomicInteger calls = new AtomicInteger();
+		CompiledExpression compiled = counting(calls).compile("x ?? expensive(y)");
+		assertEquals(new BigDecimal(2), compiled.eval(new Bindings().with("x", 2).with("y", 3), BigDecimal.class));
+		assertEquals(2, compiled.toDoubleExpression().evalDouble(new double[] { 2, 3 }), 0);
+		double[] results = new double[3];
+		compiled.toDoubleExpression().evalColumns(
+				new Columns(3).with("x", new double[] { 1, 0, 2 }).with("y", new double[] { 4, 5, 6 }), results);
+		assertEquals(1, results[0], 0);
+		assertEquals(5, results[1], 0);
+		assertEquals(2, results[2], 0);
+		assertEquals(1, calls.get());
+	}
+
 }
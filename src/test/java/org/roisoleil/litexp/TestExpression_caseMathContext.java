@@ -0,0 +1,101 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+import org.junit.Test;
+
+public class TestExpression_caseMathContext {
+
+	@Test
+	public void testDivisionIsRounded() {
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder().setMathContext(MathContext.DECIMAL128)
+				.build();
+		assertEquals(new BigDecimal("0.3333333333333333333333333333333333"),
+				context.compile("1 / 3").eval(BigDecimal.class));
+		assertEquals(new BigDecimal("0.25"), context.compile("1 / 4").eval(BigDecimal.class));
+		assertEquals(new BigDecimal(4), context.compile("12 / 3").eval(BigDecimal.class));
+		assertEquals(new BigDecimal("2.5"), context.compile("10 / 4").eval(BigDecimal.class));
+	}
+
+	@Test
+	public void testPrecision() {
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder()
+				.setMathContext(new MathContext(5, RoundingMode.HALF_UP)).build();
+		assertEquals(new BigDecimal("0.66667"), context.compile("2 / 3").eval(BigDecimal.class));
+		assertEquals(new BigDecimal("1.2346E+9"), context.compile("1234567 * 1000").eval(BigDecimal.class));
+		assertEquals(new BigDecimal("123.46"), context.compile("123.4 + 0.056").eval(BigDecimal.class));
+		assertEquals(new BigDecimal(42), context.compile("40 + 2").eval(BigDecimal.class));
+	}
+
+	@Test
+	public void testMaximumScale() {
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder().setMaximumScale(2).build();
+		assertEquals(new BigDecimal("0.33"), context.compile("1 / 3").eval(BigDecimal.class));
+		assertEquals(new BigDecimal("0.02"), context.compile("0.15 * 0.15").eval(BigDecimal.class));
+		assertEquals(new BigDecimal("-0.12"), context.compile("-x").eval(new Bindings().with("x", "0.1234"),
+				BigDecimal.class));
+		assertEquals(2, context.toBuilder().build().getMaximumScale());
+	}
+
+	@Test
+	public void testIdentitiesAreRounded() {
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder().setMaximumScale(2).build();
+		Bindings bindings = new Bindings().with("x", "1.23456").with("zero", 0).with("one", 1);
+		assertEquals(new BigDecimal("1.23"), context.compile("x + zero").eval(bindings, BigDecimal.class));
+		assertEquals(context.compile("x + zero").eval(bindings, BigDecimal.class),
+				context.compile("x + 0").eval(bindings, BigDecimal.class));
+		assertEquals(context.compile("x - zero").eval(bindings, BigDecimal.class),
+				context.compile("x - 0").eval(bindings, BigDecimal.class));
+		assertEquals(context.compile("x * one").eval(bindings, BigDecimal.class),
+				context.compile("x * 1").eval(bindings, BigDecimal.class));
+		assertEquals(context.compile("x / one").eval(bindings, BigDecimal.class),
+				context.compile("x / 1").eval(bindings, BigDecimal.class));
+		bindings.set("x", "1234567890123456789012345678901234567890");
+		ExpressionContext decimal128 = ExpressionContext.DEFAULT.toBuilder().setMathContext(MathContext.DECIMAL128)
+				.build();
+		assertEquals(decimal128.compile("x * one").eval(bindings, BigDecimal.class),
+				decimal128.compile("x * 1").eval(bindings, BigDecimal.class));
+		assertEquals(34, decimal128.compile("x * 1").eval(bindings, BigDecimal.class).precision());
+	}
+
+	@Test
+	public void testExactByDefault() {
+		ExpressionContext context = ExpressionContext.DEFAULT;
+		assertEquals(MathContext.UNLIMITED, context.getMathContext());
+		assertEquals(new BigDecimal("12345678901234567890123456789012345678.9"),
+				context.compile("12345678901234567890123456789012345678 + 0.9").eval(BigDecimal.class));
+		try {
+			context.compile("1 / 3").eval(BigDecimal.class);
+			fail();
+		} catch (ArithmeticException e) {
+			// no exact result
+		}
+		assertEquals(new BigDecimal("2.5"), context.compile("10 / 4").eval(BigDecimal.class));
+		assertEquals(new BigDecimal("0.333"),
+				context.toBuilder().setMaximumScale(3).build().compile("1 / 3").eval(BigDecimal.class));
+	}
+
+	@Test
+	public void testSinIsShort() {
+		BigDecimal sin = ExpressionContext.DEFAULT.compile("SIN(1)").eval(BigDecimal.class);
+		assertEquals(BigDecimal.valueOf(Math.sin(1)), sin);
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder().setMaximumScale(4).build();
+		assertEquals(new BigDecimal("0.8415"), context.compile("SIN(1)").eval(BigDecimal.class));
+	}
+
+	@Test
+	public void testFolded() {
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder().setMaximumScale(3).build();
+		CompiledExpression compiled = context.compile("pi / 180 * x");
+		assertEquals(new BigDecimal("0.017"), compiled.getRoot().children()[0] instanceof Node.Constant
+				? ((Node.Constant) compiled.getRoot().children()[0]).value : null);
+		assertEquals(new BigDecimal("0.034"), compiled.eval(new Bindings().with("x", 2), BigDecimal.class));
+		assertEquals(new BigDecimal("0.034"), compiled.newScratch().eval(new Object[] { 2 }, BigDecimal.class));
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.roisoleil.litexp.EvaluationMetrics.Kind;
+import org.roisoleil.litexp.EvaluationMetrics.Snapshot;
+import org.roisoleil.litexp.Expression.AbstractFunction;
+import org.roisoleil.litexp.Expression.Operand;
+
+public class TestExpression_caseMetrics {
+
+	private static ExpressionContext instrumented(EvaluationMetrics metrics) {
+		return instrumented(metrics, new AtomicLong());
+	}
+
+	/**
+	 * @param clock
+	 *            The clock that the slow function moves 2ms forward.
+	 */
+	private static ExpressionContext instrumented(EvaluationMetrics metrics, AtomicLong clock) {
+		return ExpressionContext.DEFAULT.toBuilder()
+				.setOperandFactory(metrics.instrument(ExpressionContext.DEFAULT.getOperandFactory()))
+				.addFunction(new AbstractFunction("slow", 1) {
+					@Override
+					protected Object doEval(List<Operand> operands) {
+						clock.addAndGet(2_000_000);
+						return operands.get(0).getValue();
+					}
+				}).build();
+	}
+
+	@Test
+	public void testCounts() {
+		AtomicLong clock = new AtomicLong();
+		// every reading of the time takes 1ns
+		EvaluationMetrics metrics = new EvaluationMetrics(clock::getAndIncrement);
+		CompiledExpression compiled = instrumented(metrics, clock).compile("-x + MAX(x, 2) * slow(x)");
+		for (int i = 0; i < 3; i++) {
+			compiled.eval(new Bindings().with("x", i), BigDecimal.class);
+		}
+		assertEquals(3, metrics.snapshot(Kind.OPERATOR, "+").getCallCount());
+		assertEquals(3, metrics.snapshot(Kind.OPERATOR, "*").getCallCount());
+		assertEquals(3, metrics.snapshot(Kind.UNARY_OPERATOR, "-").getCallCount());
+		assertEquals(3, metrics.snapshot(Kind.FUNCTION, "max").getCallCount());
+		Snapshot max = metrics.snapshot(Kind.FUNCTION, "max");
+		assertEquals(3, max.getTotalNanos());
+		assertEquals(3, max.getSelfNanos());
+		Snapshot slow = metrics.snapshot(Kind.FUNCTION, "slow");
+		assertEquals(3, slow.getCallCount());
+		assertEquals(3 * 2_000_001, slow.getTotalNanos());
+		assertEquals(3 * 2_000_001, slow.getSelfNanos());
+		assertEquals(2_000_001, slow.getMaxNanos());
+		assertEquals(2_000_001, slow.getPercentileNanos(50));
+		// * forces max and slow, + forces - and *
+		Snapshot times = metrics.snapshot(Kind.OPERATOR, "*");
+		assertEquals(3 * 2_000_005, times.getTotalNanos());
+		assertEquals(3 * 3, times.getSelfNanos());
+		Snapshot plus = metrics.snapshot(Kind.OPERATOR, "+");
+		assertEquals(3 * 2_000_009, plus.getTotalNanos());
+		assertEquals(3 * 3, plus.getSelfNanos());
+		assertEquals(1, max.getPercentileNanos(100));
+		assertEquals("+", metrics.snapshot().get(0).getName());
+		metrics.reset();
+		assertNull(metrics.snapshot(Kind.OPERATOR, "+"));
+		assertEquals(0, metrics.snapshot().size());
+	}
+
+	@Test
+	public void testProxyOperators() {
+		EvaluationMetrics metrics = new EvaluationMetrics();
+		instrumented(metrics).compile("x == 1 and x <> 2").eval(new Bindings().with("x", 1), Boolean.class);
+		assertEquals(1, metrics.snapshot(Kind.OPERATOR, "==").getCallCount());
+		assertEquals(1, metrics.snapshot(Kind.OPERATOR, "<>").getCallCount());
+		assertEquals(1, metrics.snapshot(Kind.OPERATOR, "and").getCallCount());
+		assertNull(metrics.snapshot(Kind.OPERATOR, "="));
+		assertNull(metrics.snapshot(Kind.OPERATOR, "!="));
+		assertNull(metrics.snapshot(Kind.OPERATOR, "&&"));
+	}
+
+	@Test
+	public void testFailures() {
+		EvaluationMetrics metrics = new EvaluationMetrics();
+		CompiledExpression compiled = instrumented(metrics).compile("1 / x");
+		try {
+			compiled.eval(new Bindings().with("x", 0), BigDecimal.class);
+		} catch (ArithmeticException e) {
+			// expected
+		}
+		compiled.eval(new Bindings().with("x", 2), BigDecimal.class);
+		Snapshot divide = metrics.snapshot(Kind.OPERATOR, "/");
+		assertEquals(2, divide.getCallCount());
+		assertEquals(1, divide.getFailureCount());
+	}
+
+	@Test
+	public void testLazyOperandNotForced() {
+		EvaluationMetrics metrics = new EvaluationMetrics();
+		instrumented(metrics).compile("if(x, 1, slow(2))").eval(new Bindings().with("x", 1), BigDecimal.class);
+		assertNull(metrics.snapshot(Kind.FUNCTION, "slow"));
+		metrics.reset();
+		assertNull(metrics.snapshot(Kind.FUNCTION, "if"));
+	}
+
+}
@@ -0,0 +1,40 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class TestExpression_caseParallel {
+
+	@Test
+	public void testDoubleExpression() {
+		int rowCount = 100_000;
+		double[] a = new double[rowCount];
+		double[] b = new double[rowCount];
+		for (int i = 0; i < rowCount; i++) {
+			a[i] = i;
+			b[i] = i % 17;
+		}
+		DoubleExpression expression = ExpressionContext.DEFAULT.compile("if(a > b * 100, a - b, a * b) / 3")
+				.toDoubleExpression();
+		Columns columns = new Columns(rowCount).with("a", a).with("b", b);
+		double[] expected = new double[rowCount];
+		expression.evalColumns(columns, expected);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			double[] results = new double[rowCount];
+			new ParallelEvaluator(pool, 1000).evalColumns(expression, columns, results);
+			assertArrayEquals(expected, results, 0);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testChunkSize() {
+		new ParallelEvaluator(ForkJoinPool.commonPool(), 0);
+	}
+
+}
@@ -0,0 +1,63 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+public class TestExpression_caseProfiler {
+
+	private static String line(String explain, String start) {
+		for (String line : explain.split("\n")) {
+			if (line.trim().startsWith(start)) {
+				return line;
+			}
+		}
+		throw new AssertionError("no line " + start + " in\n" + explain);
+	}
+
+	@Test
+	public void testForcedAndSkipped() {
+		ExpressionProfile profile = ExpressionContext.DEFAULT.compile("IF(x > 0, x * 2, y / 4)").profile();
+		for (int i = 1; i <= 3; i++) {
+			assertEquals(new BigDecimal(2 * i),
+					profile.eval(new Bindings().with("x", i).with("y", 8)).getValue(BigDecimal.class));
+		}
+		String explain = profile.explain();
+		assertTrue(explain, explain.startsWith("IF()  evaluated=3 forced=3 skipped=0"));
+		assertTrue(explain, line(explain, "*").contains("evaluated=3 forced=3 skipped=0"));
+		assertTrue(explain, line(explain, "/").contains("evaluated=3 forced=0 skipped=3"));
+		assertTrue(explain, line(explain, "y").startsWith("    y"));
+		profile.reset();
+		assertTrue(profile.explain().startsWith("IF()  evaluated=0 forced=0 skipped=0"));
+	}
+
+	@Test
+	public void testSharedAndFolded() {
+		ExpressionProfile profile = ExpressionContext.DEFAULT.compile("(a + b) * (a + b) + 2 * 3").profile();
+		assertEquals(new BigDecimal(31),
+				profile.eval(new Bindings().with("a", 2).with("b", 3)).getValue(BigDecimal.class));
+		String explain = profile.explain();
+		assertTrue(explain, line(explain, "shared #0: +").contains("evaluated=1 forced=1"));
+		assertTrue(explain, explain.contains("  shared #0\n"));
+		assertTrue(explain, explain.contains("* (folded to 6)"));
+	}
+
+	@Test
+	public void testFailureAndTimes() {
+		ExpressionProfile profile = ExpressionContext.DEFAULT.compile("MAX(x, 1) + 1 / x").profile();
+		try {
+			profile.eval(new Bindings().with("x", 0)).getValue();
+		} catch (ArithmeticException e) {
+			// division by zero
+		}
+		String explain = profile.explain();
+		assertTrue(explain, line(explain, "/").contains("failed=1"));
+		assertTrue(explain, line(explain, "+").contains("failed=1"));
+		assertTrue(explain, !line(explain, "MAX()").contains("failed"));
+		assertTrue(explain, explain.contains("total=") && explain.contains("self="));
+	}
+
+}
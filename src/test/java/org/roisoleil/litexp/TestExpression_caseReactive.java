@@ -0,0 +1,142 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.roisoleil.litexp.Expression.AbstractFunction;
+import org.roisoleil.litexp.Expression.Operand;
+
+public class TestExpression_caseReactive {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Subscriber collecting the results, requesting them one at a time.
+	 */
+	private static final class Collector implements Flow.Subscriber<Map<String, Object>> {
+
+		final List<Map<String, Object>> batches = new CopyOnWriteArrayList<>();
+
+		final CompletableFuture<Throwable> done = new CompletableFuture<>();
+
+		private Flow.Subscription subscription;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(1);
+		}
+
+		@Override
+		public void onNext(Map<String, Object> item) {
+			batches.add(item);
+			subscription.request(1);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			done.complete(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			done.complete(null);
+		}
+
+	}
+
+	@Test
+	public void testBurstsAreMerged() throws Exception {
+		AtomicInteger calls = new AtomicInteger();
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder().setCache(null)
+				.addFunction(new AbstractFunction("counted", 1, true) {
+					@Override
+					protected Object doEval(List<Operand> operands) {
+						calls.incrementAndGet();
+						return operands.get(0).getValue();
+					}
+				}).build();
+		IncrementalEvaluator evaluator = new IncrementalEvaluator(context);
+		evaluator.register("sum", "counted(x) + y");
+		evaluator.register("z", "z * 2");
+		SubmissionPublisher<Object> x = new SubmissionPublisher<>(executor, 256);
+		SubmissionPublisher<Object> y = new SubmissionPublisher<>(executor, 256);
+		Collector collector = new Collector();
+		try (ReactiveEvaluator reactive = new ReactiveEvaluator(evaluator, executor, Duration.ofMillis(200))) {
+			reactive.results().subscribe(collector);
+			reactive.bind("x", x).bind("y", y);
+			y.submit(1);
+			for (int i = 1; i <= 100; i++) {
+				x.submit(i);
+			}
+			x.close();
+			y.close();
+			assertEquals(null, collector.done.get(5, TimeUnit.SECONDS));
+		}
+		Map<String, Object> last = collector.batches.get(collector.batches.size() - 1);
+		assertEquals(new BigDecimal(101), last.get("sum"));
+		assertTrue(collector.batches.size() + " batches", collector.batches.size() < 10);
+		assertTrue(calls.get() + " calls", calls.get() < 10);
+		// z reads no bound variable, so it is only computed by the first batch
+		assertTrue(collector.batches.get(0).containsKey("z"));
+		for (Map<String, Object> batch : collector.batches.subList(1, collector.batches.size())) {
+			assertEquals(batch.keySet().toString(), 1, batch.size());
+		}
+	}
+
+	@Test
+	public void testUnchangedInputsPublishNothing() throws Exception {
+		IncrementalEvaluator evaluator = new IncrementalEvaluator(ExpressionContext.DEFAULT);
+		evaluator.register("a", "x > 10");
+		SubmissionPublisher<Object> x = new SubmissionPublisher<>(executor, 16);
+		Collector collector = new Collector();
+		try (ReactiveEvaluator reactive = new ReactiveEvaluator(evaluator, executor, Duration.ZERO)) {
+			reactive.results().subscribe(collector);
+			reactive.bind("x", x);
+			for (int i = 0; i < 5; i++) {
+				x.submit(1);
+				Thread.sleep(20);
+			}
+			x.submit(20);
+			x.close();
+			assertEquals(null, collector.done.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(2, collector.batches.size());
+		assertEquals(false, collector.batches.get(0).get("a"));
+		assertEquals(true, collector.batches.get(1).get("a"));
+	}
+
+	@Test
+	public void testSourceFailure() throws Exception {
+		IncrementalEvaluator evaluator = new IncrementalEvaluator(ExpressionContext.DEFAULT);
+		evaluator.register("a", "x");
+		SubmissionPublisher<Object> x = new SubmissionPublisher<>(executor, 16);
+		Collector collector = new Collector();
+		ReactiveEvaluator reactive = new ReactiveEvaluator(evaluator, executor, Duration.ZERO);
+		reactive.results().subscribe(collector);
+		reactive.bind("x", x);
+		x.closeExceptionally(new IllegalStateException("source failed"));
+		assertEquals("source failed", collector.done.get(5, TimeUnit.SECONDS).getMessage());
+	}
+
+}
@@ -0,0 +1,176 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.roisoleil.litexp.Expression.AbstractFunction;
+import org.roisoleil.litexp.Expression.LitExpException;
+import org.roisoleil.litexp.Expression.Operand;
+
+public class TestExpression_caseRuleNetwork {
+
+	private static Map<String, Object> event(Object... namesAndValues) {
+		Map<String, Object> result = new HashMap<>();
+		for (int i = 0; i < namesAndValues.length; i += 2) {
+			result.put((String) namesAndValues[i], namesAndValues[i + 1]);
+		}
+		return result;
+	}
+
+	private static Set<String> ids(String... ids) {
+		return new LinkedHashSet<>(Arrays.asList(ids));
+	}
+
+	@Test
+	public void testMatch() {
+		RuleNetwork network = new RuleNetwork(ExpressionContext.DEFAULT);
+		network.addRule("large-eu", "region = \"EU\" && amount > 500");
+		network.addRule("eu", "region = \"EU\"");
+		network.addRule("large", "amount > 500 and amount <= 10000");
+		network.addRule("us-or-small", "region = \"US\" || amount < 10");
+		network.addRule("not-eu", "NOT(region = \"EU\")");
+		assertEquals(ids("large-eu", "eu", "large"), network.match(event("region", "EU", "amount", 600)));
+		assertEquals(ids("eu"), network.match(event("region", "EU", "amount", 20)));
+		assertEquals(ids("us-or-small", "not-eu"), network.match(event("REGION", "US", "amount", 20000)));
+		assertEquals(ids("us-or-small", "not-eu"), network.match(event("region", "FR", "amount", 5)));
+	}
+
+	@Test
+	public void testConditionsAreShared() {
+		RuleNetwork network = new RuleNetwork(ExpressionContext.DEFAULT);
+		for (int i = 0; i < 100; i++) {
+			network.addRule("rule" + i, "region = \"EU\" && amount > " + (i % 5) * 100 + " && (x || y)");
+		}
+		// the region test, 5 amount tests, x, y and their join
+		assertEquals(9, network.getConditionCount());
+		assertEquals(100, network.getRuleCount());
+		assertEquals(60, network.match(event("region", "EU", "amount", 250, "x", 0, "y", 1)).size());
+	}
+
+	@Test
+	public void testEachConditionOncePerEvent() {
+		AtomicInteger calls = new AtomicInteger();
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder().setCache(null)
+				.addFunction(new AbstractFunction("lookup", 1, true) {
+					@Override
+					protected Object doEval(List<Operand> operands) {
+						calls.incrementAndGet();
+						return operands.get(0).getValue();
+					}
+				}).build();
+		RuleNetwork network = new RuleNetwork(context);
+		network.addRule("a", "lookup(x) > 1 && y");
+		network.addRule("b", "y && lookup(x) > 1");
+		network.addRule("c", "NOT(lookup(x) > 1) || y");
+		assertEquals(ids("a", "b", "c"), network.match(event("x", 2, "y", 1)));
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	public void testUnknownConditions() {
+		RuleNetwork network = new RuleNetwork(ExpressionContext.DEFAULT);
+		network.addRule("a", "amount > 5");
+		network.addRule("b", "NOT(amount > 5)");
+		network.addRule("c", "amount > 5 || other");
+		assertEquals(ids(), network.match(event("other", 0)));
+		assertEquals(ids("c"), network.match(event("other", 1)));
+	}
+
+	@Test
+	public void testNonFiniteValues() {
+		RuleNetwork network = new RuleNetwork(ExpressionContext.DEFAULT);
+		network.addRule("large", "amount > 500");
+		network.addRule("small", "amount <= 500");
+		network.addRule("not-five", "amount != 5");
+		network.addRule("other", "amount > 500 || other");
+		for (double amount : new double[] { Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY }) {
+			// ranges of a value that is no decimal are unknown, as when evaluated
+			assertEquals(ids("not-five"), network.match(event("amount", amount, "other", 0)));
+			assertEquals(ids("not-five", "other"), network.match(event("amount", amount, "other", 1)));
+		}
+		assertEquals(ids("large", "not-five", "other"), network.match(event("amount", 600.0, "other", 0)));
+	}
+
+	@Test
+	public void testIndexedComparisons() {
+		String[] operators = { "<", "<=", ">", ">=", "=", "!=" };
+		Object[] values = { 1, 2.0, new BigDecimal("2.00"), "3", "abc", true, false, null };
+		String[] constants = { "1", "2", "2.0", "3", "\"2\"", "\"abc\"", "true" };
+		Random random = new Random(42);
+		RuleNetwork network = new RuleNetwork(ExpressionContext.DEFAULT);
+		Map<String, CompiledExpression> expressions = new HashMap<>();
+		for (int i = 0; i < 300; i++) {
+			StringBuilder expression = new StringBuilder();
+			for (int j = 0, count = 1 + random.nextInt(3); j < count; j++) {
+				String variable = "v" + random.nextInt(3);
+				String operator = operators[random.nextInt(operators.length)];
+				String constant = constants[random.nextInt(constants.length)];
+				expression.append(j == 0 ? "" : " && ").append(random.nextBoolean() ? variable + operator + constant
+						: constant + operator + variable);
+			}
+			network.addRule("rule" + i, expression.toString());
+			expressions.put("rule" + i, ExpressionContext.DEFAULT.compile(expression.toString()));
+		}
+		for (int i = 0; i < 200; i++) {
+			Map<String, Object> event = new HashMap<>();
+			for (int j = 0; j < 3; j++) {
+				if (random.nextInt(5) > 0) {
+					event.put("v" + j, values[random.nextInt(values.length)]);
+				}
+			}
+			Bindings bindings = new Bindings();
+			event.forEach(bindings::set);
+			Set<String> expected = new LinkedHashSet<>();
+			for (int j = 0; j < 300; j++) {
+				try {
+					if (expressions.get("rule" + j).eval(bindings, Boolean.class)) {
+						expected.add("rule" + j);
+					}
+				} catch (RuntimeException exception) {
+					// an unknown rule does not match
+				}
+			}
+			assertEquals(event.toString(), expected, network.match(event));
+		}
+	}
+
+	@Test
+	public void testResidualOnlyForCandidates() {
+		AtomicInteger calls = new AtomicInteger();
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder().setCache(null)
+				.addFunction(new AbstractFunction("check", 1, true) {
+					@Override
+					protected Object doEval(List<Operand> operands) {
+						calls.incrementAndGet();
+						return operands.get(0).getValue();
+					}
+				}).build();
+		RuleNetwork network = new RuleNetwork(context);
+		for (int i = 0; i < 1000; i++) {
+			network.addRule("rule" + i, "amount >= " + i + " && amount < " + (i + 10) + " && check(amount + " + i + ")");
+		}
+		assertEquals(ids("rule496", "rule497", "rule498", "rule499", "rule500", "rule501", "rule502", "rule503",
+				"rule504", "rule505"), network.match(event("amount", 505)));
+		assertEquals(10, calls.get());
+		assertEquals(ids(), network.match(event("other", 1)));
+		assertEquals(10, calls.get());
+	}
+
+	@Test(expected = LitExpException.class)
+	public void testDuplicateId() {
+		RuleNetwork network = new RuleNetwork(ExpressionContext.DEFAULT);
+		network.addRule("a", "x > 1");
+		network.addRule("a", "x > 2");
+	}
+
+}
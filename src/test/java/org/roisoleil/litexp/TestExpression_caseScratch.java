@@ -0,0 +1,119 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.roisoleil.litexp.Expression.AbstractFunction;
+import org.roisoleil.litexp.Expression.LitExpException;
+import org.roisoleil.litexp.Expression.Operand;
+
+import com.sun.management.ThreadMXBean;
+
+public class TestExpression_caseScratch {
+
+	@Test
+	public void testSameResults() {
+		String[] expressions = { "(a + b) * (a + b) - 2 * 3", "IF(a > b, a / 2, b)", "MAX(a, b, 4) + -a",
+				"a >= 2 && b != 3 || NOT(a = b)", "a * 1 + 0" };
+		for (String text : expressions) {
+			CompiledExpression compiled = ExpressionContext.DEFAULT.compile(text);
+			EvaluationScratch scratch = compiled.newScratch();
+			for (int a = 0; a < 5; a++) {
+				Object[] values = compiled.newValues();
+				values[compiled.slotOf("a")] = a;
+				if (compiled.slotOf("b") >= 0) {
+					values[compiled.slotOf("b")] = new BigDecimal(4 - a);
+				}
+				assertEquals(text, compiled.eval(values, BigDecimal.class), scratch.eval(values, BigDecimal.class));
+			}
+		}
+	}
+
+	@Test
+	public void testLazyBranch() {
+		CompiledExpression compiled = ExpressionContext.DEFAULT.compile("IF(x = 0, 0, 1 / x)");
+		EvaluationScratch scratch = compiled.newScratch();
+		Object[] values = compiled.newValues();
+		values[0] = BigDecimal.ZERO;
+		assertEquals(BigDecimal.ZERO, scratch.eval(values, BigDecimal.class));
+		values[0] = new BigDecimal(4);
+		assertEquals(new BigDecimal("0.25"), scratch.eval(values, BigDecimal.class));
+	}
+
+	@Test
+	public void testUnknownVariable() {
+		CompiledExpression compiled = ExpressionContext.DEFAULT.compile("x + 1");
+		EvaluationScratch scratch = compiled.newScratch();
+		try {
+			scratch.eval(compiled.newValues(), BigDecimal.class);
+			fail();
+		} catch (LitExpException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Unknown variable"));
+		}
+		// a failure leaves the scratch usable
+		assertEquals(new BigDecimal(3), scratch.eval(new Object[] { 2 }, BigDecimal.class));
+	}
+
+	@Test
+	public void testNotReentrant() {
+		EvaluationScratch[] scratch = new EvaluationScratch[1];
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder().setCache(null)
+				.addFunction(new AbstractFunction("again", 0) {
+					@Override
+					protected Object doEval(List<Operand> operands) {
+						return scratch[0].eval(new Object[0]);
+					}
+				}).build();
+		scratch[0] = context.compile("again()").newScratch();
+		try {
+			scratch[0].eval(new Object[0]);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testOwnOperandFactory() {
+		EvaluationMetrics metrics = new EvaluationMetrics();
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder()
+				.setOperandFactory(metrics.instrument(ExpressionContext.DEFAULT.getOperandFactory())).build();
+		CompiledExpression compiled = context.compile("x * 2 + 1");
+		assertEquals(new BigDecimal(7), compiled.newScratch().eval(new Object[] { 3 }, BigDecimal.class));
+		assertEquals(1, metrics.snapshot(EvaluationMetrics.Kind.OPERATOR, "*").getCallCount());
+	}
+
+	@Test
+	public void testNoAllocation() {
+		Object bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof ThreadMXBean);
+		ThreadMXBean threads = (ThreadMXBean) bean;
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+		CompiledExpression compiled = ExpressionContext.DEFAULT.compile("a > b && IF(c <= 5, a != c, false)");
+		EvaluationScratch scratch = compiled.newScratch();
+		Object[] values = { new BigDecimal(3), new BigDecimal(2), new BigDecimal(1) };
+		for (int i = 0; i < 20_000; i++) {
+			scratch.eval(values, Boolean.class);
+		}
+		int evaluations = 100_000;
+		long threadId = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(threadId);
+		boolean result = true;
+		for (int i = 0; i < evaluations; i++) {
+			result &= scratch.eval(values, Boolean.class);
+		}
+		long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+		assertTrue(result);
+		// the smallest object takes 16 bytes, so an allocating evaluation would
+		// exceed this margin left for the measurement itself
+		assertTrue(allocated + " bytes for " + evaluations + " evaluations", allocated < evaluations);
+	}
+
+}
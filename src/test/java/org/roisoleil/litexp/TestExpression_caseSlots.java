@@ -0,0 +1,42 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+import org.roisoleil.litexp.Expression.LitExpException;
+
+public class TestExpression_caseSlots {
+
+	@Test
+	public void testSlots() {
+		CompiledExpression compiled = new Expression("price * Quantity + price").compile();
+		assertEquals(2, compiled.getSlotCount());
+		int price = compiled.slotOf("PRICE");
+		int quantity = compiled.slotOf("quantity");
+		assertEquals(-1, compiled.slotOf("other"));
+		Object[] values = compiled.newValues();
+		for (int i = 1; i <= 3; i++) {
+			values[price] = new BigDecimal(i);
+			values[quantity] = new BigDecimal(10);
+			assertEquals(new BigDecimal(11 * i), compiled.eval(values, BigDecimal.class));
+		}
+	}
+
+	@Test
+	public void testConstantIsNotASlot() {
+		CompiledExpression compiled = new Expression("if(true, x, 0)").compile();
+		assertEquals(-1, compiled.slotOf("true"));
+		Object[] values = compiled.newValues();
+		values[compiled.slotOf("x")] = BigDecimal.TEN;
+		assertEquals(BigDecimal.TEN, compiled.eval(values, BigDecimal.class));
+	}
+
+	@Test(expected = LitExpException.class)
+	public void testUnboundSlot() {
+		CompiledExpression compiled = new Expression("x + 1").compile();
+		compiled.eval(compiled.newValues(), BigDecimal.class);
+	}
+
+}
@@ -0,0 +1,96 @@
+package org.roisoleil.litexp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.roisoleil.litexp.Expression.AbstractOperator;
+import org.roisoleil.litexp.Expression.Operand;
+import org.roisoleil.litexp.Expression.Token;
+import org.roisoleil.litexp.Expression.TokenType;
+import org.roisoleil.litexp.Expression.Tokenizer;
+
+public class TestExpression_caseTokenizer {
+
+	private static List<Token> tokenize(CharSequence expression) {
+		List<Token> tokens = new ArrayList<>();
+		Tokenizer tokenizer = new Tokenizer(expression, ExpressionContext.DEFAULT);
+		while (tokenizer.hasNext()) {
+			tokens.add(tokenizer.next());
+		}
+		return tokens;
+	}
+
+	@Test
+	public void testOffsets() {
+		List<Token> tokens = tokenize(" max(a1, 2.5) >= -x ");
+		assertEquals("[FUNCTION:max, OPEN_BRACKET:(, VARIABLE:a1, COMMA:,, NUMBER:2.5, CLOSE_BRACKET:), "
+				+ "OPERATOR:>=, UNARY_OPERATOR:-, VARIABLE:x]", tokens.toString());
+		Token operator = tokens.get(6);
+		assertEquals(TokenType.OPERATOR, operator.type);
+		assertEquals(14, operator.start);
+		assertEquals(16, operator.end);
+		assertEquals(2, operator.length());
+	}
+
+	@Test
+	public void testString() {
+		List<Token> tokens = tokenize("\"ab c\"=\"\"");
+		assertEquals(3, tokens.size());
+		assertEquals("ab c", tokens.get(0).surface());
+		assertEquals(1, tokens.get(0).start);
+		assertEquals(TokenType.STRING, tokens.get(2).type);
+		assertEquals("", tokens.get(2).surface());
+	}
+
+	@Test
+	public void testTrailingWhitespace() {
+		Tokenizer tokenizer = new Tokenizer("x \t ", ExpressionContext.DEFAULT);
+		tokenizer.next();
+		assertFalse(tokenizer.hasNext());
+		assertEquals(BigDecimal.ONE, new Expression("x  ").with("x", 1).eval(BigDecimal.class));
+	}
+
+	@Test
+	public void testCharSequence() {
+		StringBuilder expression = new StringBuilder("0");
+		for (int i = 1; i <= 500; i++) {
+			expression.append(" + x").append(i % 7).append(" * ").append(i);
+		}
+		List<Token> tokens = tokenize(expression);
+		assertEquals(1 + 500 * 4, tokens.size());
+		assertEquals("x3", tokens.get(tokens.size() - 3).surface());
+	}
+
+	@Test
+	public void testWordOperators() {
+		assertEquals("[NUMBER:1, OPERATOR:AND, VARIABLE:x]", tokenize("1 AND x").toString());
+		assertEquals(Boolean.FALSE, new Expression("1 and x").with("x", 0).eval(Boolean.class));
+		assertEquals("[VARIABLE:android, OPERATOR:&&, VARIABLE:and1]", tokenize("android && and1").toString());
+	}
+
+	@Test
+	public void testTablesFollowContext() {
+		ExpressionContext context = ExpressionContext.DEFAULT.toBuilder().setFirstVariableCharacters("$")
+				.addOperator(new AbstractOperator("**", Expression.OPERATOR_PRECEDENCE_MULTIPLICATIVE, true) {
+					@Override
+					protected Object doEval(Operand leftOperand, Operand rightOperand) {
+						return leftOperand.getValue(BigDecimal.class)
+								.pow(rightOperand.getValue(BigDecimal.class).intValue());
+					}
+				}).build();
+		List<Token> tokens = new ArrayList<>();
+		Tokenizer tokenizer = new Tokenizer("$a**2*3", context);
+		while (tokenizer.hasNext()) {
+			tokens.add(tokenizer.next());
+		}
+		assertEquals("[VARIABLE:$a, OPERATOR:**, NUMBER:2, OPERATOR:*, NUMBER:3]", tokens.toString());
+		assertEquals(new BigDecimal(75), context.compile("$a**2*3").eval(new Bindings().with("$a", 5), BigDecimal.class));
+		assertEquals("[NUMBER:2, OPERATOR:*, UNARY_OPERATOR:*, NUMBER:3]", tokenize("2**3").toString());
+	}
+
+}